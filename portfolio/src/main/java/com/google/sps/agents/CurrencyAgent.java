@@ -18,7 +18,6 @@ package com.google.sps.agents;
 
 // Imports the Google Cloud client library
 import com.google.protobuf.Value;
-import com.google.sps.utils.AgentUtils;
 import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,10 +46,12 @@ public class CurrencyAgent implements Agent {
    *
    * @param intentName String containing the specific intent within memory agent that user is
    *     requesting.
+   * @param userInput Textual user input of the request.
    * @param parameters Map containing the detected entities in the user's intent.
    */
-  public CurrencyAgent(String intentName, Map<String, Value> parameters) {
+  public CurrencyAgent(String intentName, String userInput, Map<String, Value> parameters) {
     this.intentName = intentName;
+    this.userInput = userInput.toLowerCase();
     setParameters(parameters);
   }
 
@@ -64,7 +65,6 @@ public class CurrencyAgent implements Agent {
     currencyFrom = parameters.get("currency-from").getStringValue();
     currencyTo = parameters.get("currency-to").getStringValue();
     amount = parameters.get("amount").getNumberValue();
-    userInput = AgentUtils.getUserInput().toLowerCase();
     baseURL = "http://www.google.com/search?q=";
 
     // Searching for exchange rate
@@ -18,10 +18,15 @@ package com.google.sps.agents;
 
 // Imports the Google Cloud client library
 import com.google.cloud.translate.Translate;
-import com.google.cloud.translate.TranslateOptions;
 import com.google.cloud.translate.Translation;
 import com.google.protobuf.Value;
 import com.google.sps.utils.AgentUtils;
+import com.google.sps.utils.CloudClients;
+import com.google.sps.utils.TranslationCache;
+import com.google.sps.utils.Tracer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +35,11 @@ import org.slf4j.LoggerFactory;
 public class TranslateAgent implements Agent {
 
   private static Logger log = LoggerFactory.getLogger(TranslateAgent.class);
+  // Use "base" for standard edition, "nmt" for the premium model.
+  private static final String MODEL = "nmt";
+  private static final int CACHE_SIZE = 5000;
+  private static final TranslationCache cache =
+      new TranslationCache(CACHE_SIZE, TranslateAgent::callTranslate);
 
   private final String intentName;
   private String text;
@@ -67,8 +77,7 @@ public class TranslateAgent implements Agent {
     languageFrom = parameters.get("lang-from").getStringValue();
     languageToCode = AgentUtils.getLanguageCode(languageTo).substring(0, 2);
     languageFromCode = AgentUtils.getLanguageCode(languageFrom).substring(0, 2);
-    Translation translation = translate(text, languageFromCode, languageToCode);
-    translatedString = translation.getTranslatedText();
+    translatedString = translate(text, languageFromCode, languageToCode);
 
     if (languageToCode == null && languageFromCode == null) {
       fulfillment = null;
@@ -78,18 +87,55 @@ public class TranslateAgent implements Agent {
     }
   }
 
-  public static Translation translate(String text, String languageFromCode, String languageToCode) {
-    Translate translate = TranslateOptions.getDefaultInstance().getService();
+  /**
+   * Translates a string, using the shared phrase cache.
+   *
+   * @param text String to translate
+   * @param languageFromCode Language code of the string
+   * @param languageToCode Language code to translate into
+   * @return Translated string
+   */
+  public static String translate(String text, String languageFromCode, String languageToCode) {
+    return translateAll(Collections.singletonList(text), languageFromCode, languageToCode).get(0);
+  }
+
+  /**
+   * Translates several strings with at most one Translate call. Strings found in the shared phrase
+   * cache are not sent, and repeated strings are translated once.
+   *
+   * @param texts Strings to translate, which may contain nulls
+   * @param languageFromCode Language code of the strings
+   * @param languageToCode Language code to translate into
+   * @return Translated strings in the same order, with null for null input strings
+   */
+  public static List<String> translateAll(
+      List<String> texts, String languageFromCode, String languageToCode) {
+    return cache.translateAll(texts, languageFromCode, languageToCode, MODEL);
+  }
 
-    Translation translation =
-        translate.translate(
-            text,
-            Translate.TranslateOption.sourceLanguage(languageFromCode),
-            Translate.TranslateOption.targetLanguage(languageToCode),
-            // Use "base" for standard edition, "nmt" for the premium model.
-            Translate.TranslateOption.model("nmt"));
+  /** Returns the statistics of the shared phrase cache. See TranslationCache.getStats. */
+  public static Map<String, Long> getCacheStats() {
+    return cache.getStats();
+  }
 
-    return translation;
+  /** Translates a batch of strings with one call to the shared Translate service. */
+  private static List<String> callTranslate(
+      List<String> texts, String languageFromCode, String languageToCode, String model) {
+    List<Translation> translations;
+    try (Tracer.Span span = Tracer.start("api.translate")) {
+      translations =
+          CloudClients.getTranslate()
+              .translate(
+                  texts,
+                  Translate.TranslateOption.sourceLanguage(languageFromCode),
+                  Translate.TranslateOption.targetLanguage(languageToCode),
+                  Translate.TranslateOption.model(model));
+    }
+    List<String> result = new ArrayList<>();
+    for (Translation translation : translations) {
+      result.add(translation.getTranslatedText());
+    }
+    return result;
   }
 
   @Override
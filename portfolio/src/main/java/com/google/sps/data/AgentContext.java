@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.users.UserService;
+import com.google.sps.utils.Tracer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * State of a single assistant request that is passed to the agents. It is created once per request
+ * and never shared between requests, so servlets can serve concurrent requests. The recommendations
+ * client it holds must also be created for the request, since agents set the request's user on it.
+ */
+public class AgentContext {
+
+  private final String queryText;
+  private final String languageCode;
+  private final String sessionID;
+  private final UserService userService;
+  private final DatastoreService datastore;
+  private final RecommendationsClient recommender;
+  private final Map<String, Long> stageMillis = new LinkedHashMap<>();
+
+  /**
+   * AgentContext constructor.
+   *
+   * @param queryText Textual user input detected for this request
+   * @param languageCode String containing the language of the request
+   * @param sessionID Unique sessionID for current session of AIssistant
+   * @param userService UserService instance to access userID and other user info
+   * @param datastore DatastoreService instance used to access the user's database
+   * @param recommender Recommendations Client instance for calling recommendations API, created for
+   *     this request only
+   */
+  public AgentContext(
+      String queryText,
+      String languageCode,
+      String sessionID,
+      UserService userService,
+      DatastoreService datastore,
+      RecommendationsClient recommender) {
+    this.queryText = queryText;
+    this.languageCode = languageCode;
+    this.sessionID = sessionID;
+    this.userService = userService;
+    this.datastore = datastore;
+    this.recommender = recommender;
+  }
+
+  public String getQueryText() {
+    return queryText;
+  }
+
+  public String getLanguageCode() {
+    return languageCode;
+  }
+
+  public String getSessionID() {
+    return sessionID;
+  }
+
+  public UserService getUserService() {
+    return userService;
+  }
+
+  public DatastoreService getDatastore() {
+    return datastore;
+  }
+
+  public RecommendationsClient getRecommender() {
+    return recommender;
+  }
+
+  /**
+   * Records the duration of a stage of the request, also in the "stage." latency histogram of the
+   * Tracer.
+   *
+   * @param stage Name of the stage
+   * @param startMillis Time in milliseconds at which the stage started
+   */
+  public synchronized void recordStage(String stage, long startMillis) {
+    long millis = System.currentTimeMillis() - startMillis;
+    stageMillis.put(stage, millis);
+    Tracer.record("stage." + stage, millis);
+  }
+
+  public synchronized Map<String, Long> getStageMillis() {
+    return new LinkedHashMap<>(stageMillis);
+  }
+}
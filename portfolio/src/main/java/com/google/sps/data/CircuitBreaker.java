@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.data;
+
+/**
+ * Circuit breaker guarding calls to a remote service. After failureThreshold consecutive failures
+ * the breaker opens and rejects calls for openMillis. After that a single trial call is let through
+ * (half-open); its success closes the breaker and its failure opens it again.
+ */
+public class CircuitBreaker {
+
+  /** State of the breaker. */
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final int failureThreshold;
+  private final long openMillis;
+  private State state = State.CLOSED;
+  private int consecutiveFailures = 0;
+  private long openedAt = 0;
+  private boolean trialInFlight = false;
+
+  /**
+   * CircuitBreaker constructor.
+   *
+   * @param failureThreshold Number of consecutive failures that opens the breaker
+   * @param openMillis Time in milliseconds that the breaker stays open before a trial call
+   */
+  public CircuitBreaker(int failureThreshold, long openMillis) {
+    this.failureThreshold = failureThreshold;
+    this.openMillis = openMillis;
+  }
+
+  /**
+   * Checks whether a call may be made now. A true result while half-open reserves the single trial
+   * call, so the caller must report its outcome.
+   *
+   * @return true if the call may go ahead
+   */
+  public synchronized boolean allowRequest() {
+    if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+      state = State.HALF_OPEN;
+      trialInFlight = false;
+    }
+    if (state == State.CLOSED) {
+      return true;
+    }
+    if (state == State.HALF_OPEN && !trialInFlight) {
+      trialInFlight = true;
+      return true;
+    }
+    return false;
+  }
+
+  /** Records a successful call and closes the breaker. */
+  public synchronized void recordSuccess() {
+    consecutiveFailures = 0;
+    trialInFlight = false;
+    state = State.CLOSED;
+  }
+
+  /** Records a failed call, opening the breaker if the trial failed or the threshold is reached. */
+  public synchronized void recordFailure() {
+    consecutiveFailures++;
+    trialInFlight = false;
+    if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+      state = State.OPEN;
+      openedAt = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * Records a call that was abandoned before its outcome was known, such as one rejected by a full
+   * executor or interrupted while waiting. The state is unchanged; a reserved trial call is freed.
+   */
+  public synchronized void recordAbandoned() {
+    trialInFlight = false;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+}
@@ -16,9 +16,14 @@
 
 package com.google.sps.data;
 
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
 import com.google.api.gax.rpc.BidiStream;
 import com.google.cloud.dialogflow.v2.AudioEncoding;
-import com.google.cloud.dialogflow.v2.DetectIntentResponse;
+import com.google.cloud.dialogflow.v2.Context;
+import com.google.cloud.dialogflow.v2.ContextName;
+import com.google.cloud.dialogflow.v2.ContextsClient;
+import com.google.cloud.dialogflow.v2.CreateContextRequest;
 import com.google.cloud.dialogflow.v2.InputAudioConfig;
 import com.google.cloud.dialogflow.v2.QueryInput;
 import com.google.cloud.dialogflow.v2.QueryResult;
@@ -27,13 +32,24 @@ import com.google.cloud.dialogflow.v2.SessionsClient;
 import com.google.cloud.dialogflow.v2.StreamingDetectIntentRequest;
 import com.google.cloud.dialogflow.v2.StreamingDetectIntentResponse;
 import com.google.cloud.dialogflow.v2.TextInput;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Value;
+import com.google.sps.utils.CloudClients;
+import com.google.sps.utils.LocalIntentMatcher;
+import com.google.sps.utils.Tracer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class DialogFlowClient {
 
+  private static Logger log = LoggerFactory.getLogger(DialogFlowClient.class);
   static SessionName session = SessionName.of("mihira-step-2020-3", "1");
+  private static final int AUDIO_CHUNK_SIZE = 8192;
   QueryResult queryResult;
 
   /**
@@ -47,8 +63,99 @@ public class DialogFlowClient {
     TextInput.Builder textInput =
         TextInput.newBuilder().setText(text).setLanguageCode(languageCode);
     QueryInput queryInput = QueryInput.newBuilder().setText(textInput).build();
-    DetectIntentResponse response = sessionsClient.detectIntent(session, queryInput);
-    queryResult = response.getQueryResult();
+    try (Tracer.Span span = Tracer.start("api.dialogflow")) {
+      queryResult = sessionsClient.detectIntent(session, queryInput).getQueryResult();
+    }
+  }
+
+  /**
+   * Dialogflow Client constructor for a query result produced without calling Dialogflow, such as
+   * by LocalIntentMatcher.
+   *
+   * @param queryResult Query result equivalent to Dialogflow's
+   */
+  public DialogFlowClient(QueryResult queryResult) {
+    this.queryResult = queryResult;
+  }
+
+  /**
+   * Detects the intent of a text input. English queries that match a training phrase of the agent
+   * export unambiguously are answered by LocalIntentMatcher without a network hop; the output
+   * contexts of the match are then sent to Dialogflow in the background so that follow-up intents
+   * keep working. All other queries go to Dialogflow.
+   *
+   * @param text Input text to dialogflow
+   * @param languageCode Two-letter representation of input language
+   * @param sessionsClient Instance of the current dialogflow session
+   * @return DialogFlowClient holding the query result
+   */
+  public static DialogFlowClient forText(
+      String text, String languageCode, SessionsClient sessionsClient) {
+    QueryResult local = LocalIntentMatcher.getInstance().match(text, languageCode);
+    if (local == null) {
+      return new DialogFlowClient(text, languageCode, sessionsClient);
+    }
+    QueryResult.Builder result = local.toBuilder().clearOutputContexts();
+    for (Context context : local.getOutputContextsList()) {
+      result.addOutputContexts(
+          context.toBuilder()
+              .setName(
+                  ContextName.of(session.getProject(), session.getSession(), context.getName())
+                      .toString()));
+    }
+    return fromQueryResult(result.build());
+  }
+
+  /**
+   * Wraps a query result that did not come from a detect-intent call for this input, such as a
+   * local match or a cached result, and creates its output contexts in the Dialogflow session in
+   * the background so that follow-up intents keep working.
+   *
+   * @param queryResult Query result whose output contexts have full resource names
+   * @return DialogFlowClient holding the query result
+   */
+  public static DialogFlowClient fromQueryResult(QueryResult queryResult) {
+    sendContexts(queryResult);
+    return new DialogFlowClient(queryResult);
+  }
+
+  /**
+   * Creates the output contexts of a query result in the Dialogflow session without waiting for
+   * the calls to finish.
+   *
+   * @param queryResult Query result whose output contexts have full resource names
+   */
+  private static void sendContexts(QueryResult queryResult) {
+    if (queryResult.getOutputContextsCount() == 0) {
+      return;
+    }
+    ContextsClient contextsClient;
+    try {
+      contextsClient = CloudClients.getContextsClient();
+    } catch (IOException e) {
+      log.error("Could not create Dialogflow contexts client", e);
+      return;
+    }
+    for (Context context : queryResult.getOutputContextsList()) {
+      ApiFutures.addCallback(
+          contextsClient
+              .createContextCallable()
+              .futureCall(
+                  CreateContextRequest.newBuilder()
+                      .setParent(session.toString())
+                      .setContext(context)
+                      .build()),
+          new ApiFutureCallback<Context>() {
+            @Override
+            public void onFailure(Throwable t) {
+              log.error("Could not create context " + context.getName(), t);
+            }
+
+            @Override
+            public void onSuccess(Context created) {}
+          },
+          MoreExecutors.directExecutor());
+    }
   }
 
   /**
@@ -60,18 +167,72 @@ public class DialogFlowClient {
    */
   public DialogFlowClient(
       SessionsClient sessionsClient, ByteString audioBytestring, int sampleRate) {
+    try {
+      detectIntent(
+          sessionsClient,
+          audioBytestring.newInput(),
+          sampleRate,
+          AudioEncoding.AUDIO_ENCODING_LINEAR_16);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Dialogflow Client constructor for audio inputs that are still arriving. Audio is forwarded to
+   * Dialogflow chunk by chunk as it is read, so intent detection overlaps the upload.
+   *
+   * @param sessionsClient Instance of the current dialogflow session
+   * @param audio InputStream of the audio input recording
+   * @param sampleRate Sample hertz frequency of the audio recording
+   * @throws IOException if reading the audio fails, in which case the stream is cancelled
+   */
+  public DialogFlowClient(SessionsClient sessionsClient, InputStream audio, int sampleRate)
+      throws IOException {
+    this(sessionsClient, audio, sampleRate, AudioEncoding.AUDIO_ENCODING_LINEAR_16);
+  }
+
+  /**
+   * Dialogflow Client constructor for audio inputs in any encoding Dialogflow accepts, such as Ogg
+   * Opus. Audio is forwarded chunk by chunk as it is read.
+   *
+   * @param sessionsClient Instance of the current dialogflow session
+   * @param audio InputStream of the audio input recording
+   * @param sampleRate Sample hertz frequency of the audio recording
+   * @param encoding Encoding of the audio recording
+   * @throws IOException if reading the audio fails, in which case the stream is cancelled
+   */
+  public DialogFlowClient(
+      SessionsClient sessionsClient, InputStream audio, int sampleRate, AudioEncoding encoding)
+      throws IOException {
+    detectIntent(sessionsClient, audio, sampleRate, encoding);
+  }
+
+  /**
+   * Streams audio into Dialogflow and keeps the final query result.
+   *
+   * @param sessionsClient Instance of the current dialogflow session
+   * @param audio InputStream of the audio input recording
+   * @param sampleRate Sample hertz frequency of the audio recording
+   * @param encoding Encoding of the audio recording
+   */
+  private void detectIntent(
+      SessionsClient sessionsClient, InputStream audio, int sampleRate, AudioEncoding encoding)
+      throws IOException {
     InputAudioConfig inputAudioConfig =
         InputAudioConfig.newBuilder()
-            .setAudioEncoding(AudioEncoding.AUDIO_ENCODING_LINEAR_16)
+            .setAudioEncoding(encoding)
             .setLanguageCode("en-US")
             .setSampleRateHertz(sampleRate)
             .build();
     QueryInput queryInput = QueryInput.newBuilder().setAudioConfig(inputAudioConfig).build();
 
-    BidiStream<StreamingDetectIntentRequest, StreamingDetectIntentResponse> bidiStream =
-        makeBidiStream(sessionsClient, queryInput, audioBytestring);
-    for (StreamingDetectIntentResponse response : bidiStream) {
-      queryResult = response.getQueryResult();
+    try (Tracer.Span span = Tracer.start("api.dialogflow")) {
+      BidiStream<StreamingDetectIntentRequest, StreamingDetectIntentResponse> bidiStream =
+          makeBidiStream(sessionsClient, queryInput, audio);
+      for (StreamingDetectIntentResponse response : bidiStream) {
+        queryResult = response.getQueryResult();
+      }
     }
   }
 
@@ -80,12 +241,12 @@ public class DialogFlowClient {
    *
    * @param sessionsClient Instance of the current dialogflow session
    * @param queryInput Configured audio query to handle input stream
-   * @param audioBytestring ByteString containing the input audio stream
+   * @param audio InputStream of the input audio, sent in AUDIO_CHUNK_SIZE chunks as it is read
    * @return BidiStream that contains the stream of audio data in a readable format
    */
   private static BidiStream<StreamingDetectIntentRequest, StreamingDetectIntentResponse>
-      makeBidiStream(
-          SessionsClient sessionsClient, QueryInput queryInput, ByteString audioBytestring) {
+      makeBidiStream(SessionsClient sessionsClient, QueryInput queryInput, InputStream audio)
+          throws IOException {
     BidiStream<StreamingDetectIntentRequest, StreamingDetectIntentResponse> bidiStream =
         sessionsClient.streamingDetectIntentCallable().call();
     bidiStream.send(
@@ -93,12 +254,29 @@ public class DialogFlowClient {
             .setSession(session.toString())
             .setQueryInput(queryInput)
             .build());
-    bidiStream.send(
-        StreamingDetectIntentRequest.newBuilder().setInputAudio(audioBytestring).build());
+    byte[] buffer = new byte[AUDIO_CHUNK_SIZE];
+    try {
+      int read;
+      while ((read = audio.read(buffer)) != -1) {
+        if (read > 0) {
+          bidiStream.send(
+              StreamingDetectIntentRequest.newBuilder()
+                  .setInputAudio(ByteString.copyFrom(buffer, 0, read))
+                  .build());
+        }
+      }
+    } catch (IOException e) {
+      bidiStream.cancel();
+      throw e;
+    }
     bidiStream.closeSend();
     return bidiStream;
   }
 
+  public QueryResult getQueryResult() {
+    return queryResult;
+  }
+
   public String getQueryText() {
     return queryResult.getQueryText();
   }
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.sps.recommendations.DatabaseUtils;
+import com.google.sps.recommendations.RecommendationUtils;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Recommendations backend that runs the recommender of the recommendations-core library in the
+ * same JVM against the portfolio's own datastore. Store calls write the user's ratings in the
+ * calling request, since datastore calls need the request's API environment, but leave retraining
+ * the list to a task on the default queue. Retrains of a list are debounced: all stores to the list
+ * within one RETRAIN_DELAY_MILLIS window share one task. The task runs RETRAIN_DELAY_MILLIS after
+ * the first store, by which time the window has ended, so it sees all of the window's ratings.
+ */
+public class EmbeddedRecommendationsBackend implements RecommendationsBackend {
+
+  private static Logger log = LoggerFactory.getLogger(EmbeddedRecommendationsBackend.class);
+  public static final String RETRAIN_URL = "/tasks/retrain-recommendations";
+  public static final String LIST_PARAMETER = "list";
+  private static final long RETRAIN_DELAY_MILLIS = 30000;
+  private final DatastoreService datastore;
+  private final Queue queue;
+
+  /**
+   * EmbeddedRecommendationsBackend constructor. Retrains are queued on the default task queue.
+   *
+   * @param datastore Datastore instance that recommendation data is stored in
+   */
+  public EmbeddedRecommendationsBackend(DatastoreService datastore) {
+    this(datastore, QueueFactory.getDefaultQueue());
+  }
+
+  /**
+   * EmbeddedRecommendationsBackend constructor.
+   *
+   * @param datastore Datastore instance that recommendation data is stored in
+   * @param queue Task queue that list retrains are added to
+   */
+  public EmbeddedRecommendationsBackend(DatastoreService datastore, Queue queue) {
+    this.datastore = datastore;
+    this.queue = queue;
+  }
+
+  @Override
+  public void storeInfo(
+      String userID,
+      String stemmedListName,
+      List<String> items,
+      boolean newList,
+      boolean positiveFeedback) {
+    if (!DatabaseUtils.storeInfo(
+        datastore, userID, stemmedListName, items, newList, positiveFeedback, false)) {
+      log.error("Cannot store feedback for nonexistent list: " + stemmedListName);
+      return;
+    }
+    scheduleRetrain(stemmedListName);
+  }
+
+  /**
+   * Queues a retrain of the list unless one is already queued for the current window. The task
+   * name is derived from the list name and the window, so the queue rejects duplicates.
+   *
+   * @param stemmedListName Stemmed name of the list to retrain
+   */
+  private void scheduleRetrain(String stemmedListName) {
+    long window = System.currentTimeMillis() / RETRAIN_DELAY_MILLIS;
+    String encodedList =
+        Base64.getUrlEncoder()
+            .withoutPadding()
+            .encodeToString(stemmedListName.getBytes(StandardCharsets.UTF_8));
+    try {
+      queue.add(
+          TaskOptions.Builder.withUrl(RETRAIN_URL)
+              .param(LIST_PARAMETER, stemmedListName)
+              .taskName("retrain-" + encodedList + "-" + window)
+              .countdownMillis(RETRAIN_DELAY_MILLIS));
+    } catch (TaskAlreadyExistsException e) {
+      // A retrain of this list is already queued for this window.
+    } catch (RuntimeException e) {
+      log.error("Could not queue retrain of list: " + stemmedListName, e);
+    }
+  }
+
+  @Override
+  public List<Pair<String, Double>> getPastRecommendations(String userID, String stemmedListName) {
+    try {
+      return convert(
+          RecommendationUtils.makePastRecommendations(userID, datastore, stemmedListName));
+    } catch (IllegalStateException | EntityNotFoundException e) {
+      log.info("No past recommendations: " + e);
+      return new ArrayList<>();
+    }
+  }
+
+  @Override
+  public List<Pair<String, Double>> getUserRecommendations(String userID, String stemmedListName) {
+    try {
+      return convert(
+          RecommendationUtils.makeUserRecommendations(userID, datastore, stemmedListName));
+    } catch (IllegalStateException | EntityNotFoundException e) {
+      log.info("No user recommendations: " + e);
+      return new ArrayList<>();
+    }
+  }
+
+  /** Helper method for converting recommender pairs into portfolio Pair objects */
+  private List<Pair<String, Double>> convert(
+      List<com.google.sps.recommendations.Pair<String, Double>> items) {
+    return items.stream()
+        .map(e -> new Pair<>(e.getKey(), e.getValue()))
+        .collect(Collectors.toList());
+  }
+}
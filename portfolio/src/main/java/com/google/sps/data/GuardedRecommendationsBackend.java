@@ -0,0 +1,220 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.data;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.sps.utils.ApiEnvironment;
+import com.google.sps.utils.Tracer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Recommendations backend that bounds the latency of recommendation fetches made by another
+ * backend. Each fetch runs with a deadline; if it times out, fails or the circuit breaker is open,
+ * the user's last successful result for the same list is returned, or an empty list if there is
+ * none. Fetches run on a small bounded pool; when it is saturated, fetches fail fast to the same
+ * fallback rather than queueing behind slow calls. Store calls are passed through unchanged.
+ */
+public class GuardedRecommendationsBackend implements RecommendationsBackend {
+
+  private static Logger log = LoggerFactory.getLogger(GuardedRecommendationsBackend.class);
+  public static final long DEFAULT_DEADLINE_MILLIS = 800;
+  private static final int FAILURE_THRESHOLD = 5;
+  private static final long OPEN_MILLIS = 30000;
+  private static final int MAX_CACHED_RESULTS = 1000;
+  private static final long CACHE_TTL_MILLIS = 10 * 60 * 1000;
+  private static final int MAX_THREADS = 8;
+  private static final int MAX_QUEUED_FETCHES = 16;
+  private final RecommendationsBackend backend;
+  private final long deadlineMillis;
+  private final CircuitBreaker breaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS);
+  private final ThreadPoolExecutor executor = createExecutor();
+  private final Map<String, CachedResult> cache =
+      new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+          return size() > MAX_CACHED_RESULTS;
+        }
+      };
+
+  /** Successful fetch result with the time it was fetched. */
+  private static class CachedResult {
+    private final List<Pair<String, Double>> items;
+    private final long fetchedAt;
+
+    CachedResult(List<Pair<String, Double>> items) {
+      this.items = items;
+      this.fetchedAt = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * GuardedRecommendationsBackend constructor.
+   *
+   * @param backend Backend that calls are delegated to
+   * @param deadlineMillis Maximum time in milliseconds to wait for a recommendation fetch
+   */
+  public GuardedRecommendationsBackend(RecommendationsBackend backend, long deadlineMillis) {
+    this.backend = backend;
+    this.deadlineMillis = deadlineMillis;
+  }
+
+  @Override
+  public void storeInfo(
+      String userID,
+      String stemmedListName,
+      List<String> items,
+      boolean newList,
+      boolean positiveFeedback) {
+    backend.storeInfo(userID, stemmedListName, items, newList, positiveFeedback);
+  }
+
+  @Override
+  public List<Pair<String, Double>> getPastRecommendations(String userID, String stemmedListName) {
+    return fetch(
+        "pastUserRecs",
+        userID,
+        stemmedListName,
+        () -> backend.getPastRecommendations(userID, stemmedListName));
+  }
+
+  @Override
+  public List<Pair<String, Double>> getUserRecommendations(String userID, String stemmedListName) {
+    return fetch(
+        "generalUserRecs",
+        userID,
+        stemmedListName,
+        () -> backend.getUserRecommendations(userID, stemmedListName));
+  }
+
+  public CircuitBreaker.State getBreakerState() {
+    return breaker.getState();
+  }
+
+  /**
+   * Runs a recommendation fetch with the deadline, caching successful results and falling back to
+   * the cache when the fetch cannot be made or does not complete in time.
+   *
+   * @param methodName Name of the recommendation type, used as part of the cache key
+   * @param userID String containing current user's unique ID
+   * @param stemmedListName Stemmed name of the list we are providing recommendations for.
+   * @param call Fetch to run on the delegate backend
+   * @return Fetched recommendations, or the cached or empty fallback
+   */
+  private List<Pair<String, Double>> fetch(
+      String methodName,
+      String userID,
+      String stemmedListName,
+      Callable<List<Pair<String, Double>>> call) {
+    String cacheKey = methodName + "/" + userID + "/" + stemmedListName;
+    if (!breaker.allowRequest()) {
+      log.info("Circuit breaker open, skipping " + methodName + " request");
+      return fallback(cacheKey);
+    }
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    Tracer.Context trace = Tracer.currentContext();
+    Future<List<Pair<String, Double>>> future;
+    try {
+      future =
+          executor.submit(
+              () -> {
+                try (ApiEnvironment.Scope apiScope = ApiEnvironment.attach(environment);
+                    Tracer.Scope scope = Tracer.attach(trace)) {
+                  return call.call();
+                }
+              });
+    } catch (RejectedExecutionException e) {
+      breaker.recordAbandoned();
+      log.error(methodName + " request rejected: too many recommendation fetches in flight");
+      return fallback(cacheKey);
+    }
+    try {
+      List<Pair<String, Double>> items = future.get(deadlineMillis, TimeUnit.MILLISECONDS);
+      breaker.recordSuccess();
+      synchronized (cache) {
+        cache.put(cacheKey, new CachedResult(items));
+      }
+      return items;
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      log.error(methodName + " request exceeded deadline of " + deadlineMillis + " ms");
+    } catch (ExecutionException e) {
+      log.error(methodName + " request failed", e.getCause());
+    } catch (InterruptedException e) {
+      // The request thread is being stopped; that says nothing about the backend's health.
+      future.cancel(true);
+      breaker.recordAbandoned();
+      Thread.currentThread().interrupt();
+      return fallback(cacheKey);
+    }
+    breaker.recordFailure();
+    return fallback(cacheKey);
+  }
+
+  /**
+   * Creates the fetch executor. Its queue is bounded and it rejects fetches when both threads and
+   * queue are full, so a slow backend cannot pile up waiting fetches without limit.
+   *
+   * @return Bounded thread pool executor
+   */
+  private static ThreadPoolExecutor createExecutor() {
+    ThreadPoolExecutor pool =
+        new ThreadPoolExecutor(
+            MAX_THREADS,
+            MAX_THREADS,
+            60,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_FETCHES),
+            runnable -> {
+              Thread thread = new Thread(runnable, "recommendations-fetch");
+              thread.setDaemon(true);
+              return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  /**
+   * Returns the cached result for the key if it has not expired, or an empty list.
+   *
+   * @param cacheKey Key of the cached result
+   * @return Cached recommendations or an empty list
+   */
+  private List<Pair<String, Double>> fallback(String cacheKey) {
+    synchronized (cache) {
+      CachedResult cached = cache.get(cacheKey);
+      if (cached != null && System.currentTimeMillis() - cached.fetchedAt < CACHE_TTL_MILLIS) {
+        log.info("Using cached result for " + cacheKey);
+        return cached.items;
+      }
+    }
+    return new ArrayList<>();
+  }
+}
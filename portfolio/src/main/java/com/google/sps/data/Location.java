@@ -24,9 +24,9 @@ import com.google.maps.TimeZoneApi;
 import com.google.maps.errors.ApiException;
 import com.google.maps.model.GeocodingResult;
 import com.google.maps.model.LatLng;
+import com.google.sps.utils.ResourceFiles;
+import com.google.sps.utils.Tracer;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.TimeZone;
 
 /**
@@ -41,6 +41,7 @@ import java.util.TimeZone;
  * only created with valid parameters and all Location objects are valid.
  */
 public class Location {
+  private static GeoApiContext geoApiContext;
 
   private String address;
   private String formattedAddress;
@@ -89,19 +90,21 @@ public class Location {
 
   /**
    * This function returns a valid GeoApiContext to make calls to Geocoding and Timezone API, and
-   * throws an exception otherwise.
+   * throws an exception otherwise. The context and its connection pool are created on first use and
+   * shared by all requests on the instance.
    *
    * @return GeoApiContext
    */
   public static GeoApiContext getGeoApiContext()
       throws IllegalStateException, IOException, ApiException, InterruptedException,
           ArrayIndexOutOfBoundsException {
-    String apiKey =
-        new String(
-            Files.readAllBytes(
-                Paths.get(Location.class.getResource("/files/apikey.txt").getFile())));
-    GeoApiContext context = new GeoApiContext.Builder().apiKey(apiKey).build();
-    return context;
+    synchronized (Location.class) {
+      if (geoApiContext == null) {
+        String apiKey = ResourceFiles.read("/files/apikey.txt");
+        geoApiContext = new GeoApiContext.Builder().apiKey(apiKey).build();
+      }
+      return geoApiContext;
+    }
   }
 
   /**
@@ -115,7 +118,10 @@ public class Location {
       throws IllegalStateException, IOException, ApiException, InterruptedException,
           ArrayIndexOutOfBoundsException {
     GeoApiContext context = getGeoApiContext();
-    GeocodingResult[] results = GeocodingApi.geocode(context, address).await();
+    GeocodingResult[] results;
+    try (Tracer.Span span = Tracer.start("api.maps")) {
+      results = GeocodingApi.geocode(context, address).await();
+    }
     Gson gson = new GsonBuilder().setPrettyPrinting().create();
     Double latCoord = results[0].geometry.location.lat;
     Double lngCoord = results[0].geometry.location.lng;
@@ -134,7 +140,10 @@ public class Location {
       throws IllegalStateException, IOException, ApiException, InterruptedException,
           ArrayIndexOutOfBoundsException {
     GeoApiContext context = getGeoApiContext();
-    GeocodingResult[] results = GeocodingApi.geocode(context, address).await();
+    GeocodingResult[] results;
+    try (Tracer.Span span = Tracer.start("api.maps")) {
+      results = GeocodingApi.geocode(context, address).await();
+    }
     Gson gson = new GsonBuilder().setPrettyPrinting().create();
     String formattedAddress = results[0].formattedAddress;
     return formattedAddress;
@@ -151,7 +160,10 @@ public class Location {
       throws IllegalStateException, IOException, ApiException, InterruptedException,
           ArrayIndexOutOfBoundsException {
     GeoApiContext context = getGeoApiContext();
-    TimeZone results = TimeZoneApi.getTimeZone(context, location).await();
+    TimeZone results;
+    try (Tracer.Span span = Tracer.start("api.maps")) {
+      results = TimeZoneApi.getTimeZone(context, location).await();
+    }
     Gson gson = new GsonBuilder().setPrettyPrinting().create();
     TimeZone timeZoneObject = results;
     return timeZoneObject;
@@ -21,7 +21,7 @@ public final class Output {
 
   private final String userInput;
   private final String fulfillmentText;
-  private final byte[] byteStringToByteArray;
+  private final String audioUrl;
   private final String display;
   private final String redirect;
   private final String intent;
@@ -31,12 +31,12 @@ public final class Output {
    *
    * @param userInput String representation of user input
    * @param fulfillmentText String representation of system response
-   * @param byteStringToByteArray Byte array containing output audio response
+   * @param audioUrl URL from which the output audio response can be fetched, or null
    * @param intent String containing the detected intent for user input
    */
   public Output(
-      String userInput, String fulfillmentText, byte[] byteStringToByteArray, String intent) {
-    this(userInput, fulfillmentText, byteStringToByteArray, null, null, intent);
+      String userInput, String fulfillmentText, String audioUrl, String intent) {
+    this(userInput, fulfillmentText, audioUrl, null, null, intent);
   }
 
   /**
@@ -44,17 +44,17 @@ public final class Output {
    *
    * @param userInput String representation of user input
    * @param fulfillmentText String representation of system response
-   * @param byteStringToByteArray Byte array containing output audio response
+   * @param audioUrl URL from which the output audio response can be fetched, or null
    * @param display String containing necessary information to create frontend javascript display
    * @param intent String containing the detected intent for user input
    */
   public Output(
       String userInput,
       String fulfillmentText,
-      byte[] byteStringToByteArray,
+      String audioUrl,
       String display,
       String intent) {
-    this(userInput, fulfillmentText, byteStringToByteArray, display, null, intent);
+    this(userInput, fulfillmentText, audioUrl, display, null, intent);
   }
 
   /**
@@ -62,7 +62,7 @@ public final class Output {
    *
    * @param userInput String representation of user input
    * @param fulfillmentText String representation of system response
-   * @param byteStringToByteArray Byte array containing output audio response
+   * @param audioUrl URL from which the output audio response can be fetched, or null
    * @param display String containing necessary information to create frontend javascript display
    * @param redirect String containing necessary information for frontend redirect
    * @param intent String containing the detected intent for user input
@@ -70,13 +70,13 @@ public final class Output {
   public Output(
       String userInput,
       String fulfillmentText,
-      byte[] byteStringToByteArray,
+      String audioUrl,
       String display,
       String redirect,
       String intent) {
     this.userInput = userInput;
     this.fulfillmentText = fulfillmentText;
-    this.byteStringToByteArray = byteStringToByteArray;
+    this.audioUrl = audioUrl;
     this.display = display;
     this.redirect = redirect;
     this.intent = intent;
@@ -90,8 +90,8 @@ public final class Output {
     return this.fulfillmentText;
   }
 
-  public byte[] getByteStringToByteArray() {
-    return this.byteStringToByteArray;
+  public String getAudioUrl() {
+    return this.audioUrl;
   }
 
   public String getDisplay() {
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.data;
+
+import java.util.List;
+
+/** Service that stores list history and computes list item recommendations. */
+public interface RecommendationsBackend {
+
+  /**
+   * Stores newly added list items or rejected recommendations for a user list.
+   *
+   * @param userID String containing current user's unique ID
+   * @param stemmedListName The stemmed name of the list to store aggregation information for.
+   * @param items List of strings containing items to add to list
+   * @param newList Indicates whether the list is a new list (true) or updating existing (false)
+   * @param positiveFeedback Boolean to indicate if the items are liked/added by user (true) or not
+   *     liked by user (false)
+   */
+  void storeInfo(
+      String userID,
+      String stemmedListName,
+      List<String> items,
+      boolean newList,
+      boolean positiveFeedback);
+
+  /**
+   * Retrieves recommendations for a user based on their own list history.
+   *
+   * @param userID String containing current user's unique ID
+   * @param stemmedListName Stemmed name of the list we are providing recommendations for.
+   * @return List of pairs of item and user preference frequency, or an empty list
+   */
+  List<Pair<String, Double>> getPastRecommendations(String userID, String stemmedListName);
+
+  /**
+   * Retrieves recommendations for a user based on other similar user history.
+   *
+   * @param userID String containing current user's unique ID
+   * @param stemmedListName Stemmed name of the list we are providing recommendations for.
+   * @return List of pairs of item and user preference frequency, or an empty list
+   */
+  List<Pair<String, Double>> getUserRecommendations(String userID, String stemmedListName);
+}
@@ -16,28 +16,42 @@
 
 package com.google.sps.data;
 
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.log.InvalidRequestException;
-import com.google.gson.Gson;
-import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.stream.Collectors;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.ResponseEntity;
-import org.springframework.web.client.RestTemplate;
 
+/**
+ * Client used by the agents to store list history and fetch recommendations. Requests go to the
+ * recommendations backend selected by the "recommendations.backend" system property: "remote"
+ * (default) calls the deployed recommendations service at "recommendations.url", and "embedded"
+ * runs the recommender in-process against the portfolio's datastore. A client holds the ID of one
+ * user, so it must not be shared between requests; clients are cheap to create since they all use
+ * one shared backend.
+ */
 public class RecommendationsClient {
 
-  private static Logger log = LoggerFactory.getLogger(RecommendationsClient.class);
-  private String userID;
+  public static final String BACKEND_PROPERTY = "recommendations.backend";
+  public static final String URL_PROPERTY = "recommendations.url";
+  public static final String DEADLINE_PROPERTY = "recommendations.deadlineMillis";
   private static final String BASE_URL = "https://arliu-step-2020-3.wl.r.appspot.com/";
+  private static RecommendationsBackend sharedBackend;
+  private String userID;
+  private final RecommendationsBackend backend;
+
+  /** RecommendationsClient constructor using the configured backend shared by all clients. */
+  public RecommendationsClient() {
+    this(getSharedBackend());
+  }
+
+  /**
+   * RecommendationsClient constructor.
+   *
+   * @param backend Backend that requests are sent to
+   */
+  public RecommendationsClient(RecommendationsBackend backend) {
+    this.backend = backend;
+  }
 
   /**
    * Sets the userID for the recommendations client instance.
@@ -49,8 +63,7 @@ public class RecommendationsClient {
   }
 
   /**
-   * Starts a backend thread to call recommendations API to store newly added list item into
-   * recommendations database.
+   * Stores newly added list items into the recommendations database.
    *
    * @param stemmedListName The stemmed name of the list to store aggregation information for.
    * @param items List of strings containing items to add to list
@@ -61,50 +74,7 @@ public class RecommendationsClient {
   public void saveAggregateListData(
       String stemmedListName, List<String> items, boolean newList, boolean positiveFeedback)
       throws InvalidRequestException {
-    log.info("making storeInfo api request");
-    ExecutorService executor = Executors.newSingleThreadExecutor();
-    executor.submit(
-        new Runnable() {
-          @Override
-          public void run() {
-            callRecommendationsAPI(stemmedListName, items, newList, positiveFeedback);
-          }
-        });
-
-    log.info("started api request");
-  }
-
-  /**
-   * Creates an API call to the recommender API and sends list item data to be stored. Assumes that
-   * list of items is not empty.
-   *
-   * @param stemmedListName Stemmed name of the list
-   * @param items List of strings containing items to add to list
-   * @param newList Indicates whether this is the beginning of a list for count purposes
-   * @param positiveFeedback Boolean indicating whether user is adding elements or responding
-   *     negatively to recommendations
-   */
-  private void callRecommendationsAPI(
-      String stemmedListName, List<String> items, boolean newList, boolean positiveFeedback) {
-    RestTemplate restTemplate = new RestTemplate();
-    String urlString =
-        BASE_URL
-            + "storeInfo?userID="
-            + userID
-            + "&stemmedListName="
-            + stemmedListName
-            + "&newList="
-            + newList
-            + "&positiveFeedback="
-            + positiveFeedback;
-    HttpEntity<List<String>> entity = new HttpEntity<>(items);
-    log.info("http entity: " + entity.getBody());
-    ResponseEntity<Void> result =
-        restTemplate.exchange(urlString, HttpMethod.POST, entity, Void.class);
-    if (result.getStatusCode() != HttpStatus.OK) {
-      throw new InvalidRequestException("Error sending info to recommendations API.");
-    }
-    log.info("storeInfo success");
+    backend.storeInfo(userID, stemmedListName, items, newList, positiveFeedback);
   }
 
   /**
@@ -116,7 +86,7 @@ public class RecommendationsClient {
    */
   public List<Pair<String, Double>> getPastRecommendations(String stemmedListName)
       throws URISyntaxException {
-    return callRecommendationsAPI("pastUserRecs", userID, stemmedListName);
+    return backend.getPastRecommendations(userID, stemmedListName);
   }
 
   /**
@@ -128,43 +98,37 @@ public class RecommendationsClient {
    */
   public List<Pair<String, Double>> getUserRecommendations(String stemmedListName)
       throws URISyntaxException {
-    return callRecommendationsAPI("generalUserRecs", userID, stemmedListName);
+    return backend.getUserRecommendations(userID, stemmedListName);
   }
 
   /**
-   * Calls recommendations API to get any possible list item recommendations for the user. Throws
-   * URISyntaxException if there is an error in URI creation. Otherwise, if no item suggestions
-   * exist, returns an empty list.
+   * Returns the backend shared by all clients, so that store events of different servlets are
+   * coalesced together.
    *
-   * @param methodName String name of the type of recommendation requested (pastUser or generalUser)
-   * @param userID String containing current user's unique ID
-   * @param stemmedListName Stemmed name of the list we are providing recommendations for.
-   * @return List of pairs containing all items and their corresponding user preference frequency as
-   *     a double value
+   * @return Shared backend, created on first use
    */
-  private List<Pair<String, Double>> callRecommendationsAPI(
-      String methodName, String userID, String stemmedListName) throws URISyntaxException {
-    log.info("making pastUserRecs api request");
-    RestTemplate restTemplate = new RestTemplate();
-    String urlString =
-        BASE_URL + methodName + "?userID=" + userID + "&stemmedListName=" + stemmedListName;
-    URI uri = new URI(urlString);
-    ResponseEntity<List> result = restTemplate.getForEntity(uri, List.class);
-    if (result.getStatusCode() != HttpStatus.OK) {
-      throw new InvalidRequestException("Error sending info to recommendations API.");
+  private static synchronized RecommendationsBackend getSharedBackend() {
+    if (sharedBackend == null) {
+      sharedBackend = createBackend();
     }
-    log.info("pastUserRecs success");
-    List<LinkedHashMap<String, Double>> resultList = result.getBody();
-    Gson gson = new Gson();
-    List<Pair<String, Double>> formattedList =
-        resultList.stream().map(e -> makePair(e)).collect(Collectors.toList());
-    return formattedList;
+    return sharedBackend;
   }
 
-  /** Helper method for converting LinkedHashMap into a Pair object */
-  private Pair<String, Double> makePair(LinkedHashMap obj) {
-    String key = (String) obj.get("key");
-    double value = (double) obj.get("value");
-    return new Pair<>(key, value);
+  /**
+   * Creates the backend selected by the system properties. Recommendation fetches are guarded by a
+   * deadline, read from "recommendations.deadlineMillis", a per-user cache and a circuit breaker.
+   *
+   * @return Embedded backend if "recommendations.backend" is "embedded", remote backend otherwise
+   */
+  static RecommendationsBackend createBackend() {
+    RecommendationsBackend backend;
+    if ("embedded".equals(System.getProperty(BACKEND_PROPERTY))) {
+      backend = new EmbeddedRecommendationsBackend(DatastoreServiceFactory.getDatastoreService());
+    } else {
+      backend = new RemoteRecommendationsBackend(System.getProperty(URL_PROPERTY, BASE_URL));
+    }
+    long deadlineMillis =
+        Long.getLong(DEADLINE_PROPERTY, GuardedRecommendationsBackend.DEFAULT_DEADLINE_MILLIS);
+    return new GuardedRecommendationsBackend(backend, deadlineMillis);
   }
 }
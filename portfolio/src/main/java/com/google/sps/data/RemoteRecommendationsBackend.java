@@ -0,0 +1,391 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.data;
+
+import com.google.appengine.api.log.InvalidRequestException;
+import com.google.sps.recommendations.proto.RecommendationsRequest;
+import com.google.sps.recommendations.proto.RecommendationsResponse;
+import com.google.sps.recommendations.proto.StoreInfoBatch;
+import com.google.sps.recommendations.proto.StoreInfoRequest;
+import com.google.sps.recommendations.proto.StoreInfoResponse;
+import com.google.sps.recommendations.TraceParent;
+import com.google.sps.utils.Tracer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.protobuf.ProtobufHttpMessageConverter;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Recommendations backend that calls the deployed recommendations service over HTTP. All instances
+ * share one pooled keep-alive HTTP client and a fixed set of sender lanes. Store events issued
+ * within COALESCE_WINDOW_MILLIS of each other are sent together in StoreInfoBatch messages. Each
+ * user's events always go to the same single-threaded lane, so they reach the service in the order
+ * they were issued even across flushes, while a slow batch only delays the users of its own lane.
+ * Every call carries the current trace in a traceparent header; a coalesced batch continues the
+ * trace of its first traced event.
+ */
+public class RemoteRecommendationsBackend implements RecommendationsBackend {
+
+  private static Logger log = LoggerFactory.getLogger(RemoteRecommendationsBackend.class);
+  private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+  private static final int READ_TIMEOUT_MILLIS = 5000;
+  private static final int MAX_CONNECTIONS = 20;
+  private static final int NUM_LANES = 4;
+  private static final int MAX_QUEUED_BATCHES_PER_LANE = 25;
+  private static final long COALESCE_WINDOW_MILLIS = 50;
+  private static final int MAX_BATCH_SIZE = 50;
+  private static final int MAX_PENDING_EVENTS = 1000;
+  private static final RestTemplate restTemplate = createRestTemplate();
+  private static final ThreadPoolExecutor[] lanes = createLanes();
+  private static final ScheduledExecutorService scheduler =
+      Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("recommendations-flush"));
+  private static final AtomicInteger inFlightRequests = new AtomicInteger();
+  private static final AtomicLong sentBatches = new AtomicLong();
+  private static final AtomicLong sentEvents = new AtomicLong();
+  private static final AtomicLong droppedEvents = new AtomicLong();
+  private final String baseUrl;
+  private final List<StoreInfoRequest> pendingEvents = new ArrayList<>();
+  private final List<Tracer.Context> pendingTraces = new ArrayList<>();
+  private boolean flushScheduled = false;
+
+  /**
+   * RemoteRecommendationsBackend constructor.
+   *
+   * @param baseUrl Base URL of the recommendations service, ending with a slash
+   */
+  public RemoteRecommendationsBackend(String baseUrl) {
+    this.baseUrl = baseUrl;
+  }
+
+  /**
+   * Queues the list event to be sent to the recommendations API. The first queued event schedules
+   * a flush after the coalescing window, and events queued before it runs are sent with it.
+   */
+  @Override
+  public void storeInfo(
+      String userID,
+      String stemmedListName,
+      List<String> items,
+      boolean newList,
+      boolean positiveFeedback) {
+    StoreInfoRequest event =
+        StoreInfoRequest.newBuilder()
+            .setUserId(userID)
+            .setStemmedListName(stemmedListName)
+            .setNewList(newList)
+            .setPositiveFeedback(positiveFeedback)
+            .addAllItems(items)
+            .build();
+    synchronized (pendingEvents) {
+      if (pendingEvents.size() >= MAX_PENDING_EVENTS) {
+        droppedEvents.incrementAndGet();
+        log.error("Dropping storeInfo event for " + stemmedListName + ": too many pending events");
+        return;
+      }
+      pendingEvents.add(event);
+      pendingTraces.add(Tracer.currentContext());
+      if (flushScheduled) {
+        return;
+      }
+      flushScheduled = true;
+    }
+    scheduler.schedule(this::flush, COALESCE_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Splits all pending store events by user lane and queues them on their lanes in order, in
+   * batches of at most MAX_BATCH_SIZE events. Batches that do not fit in a full lane are dropped.
+   */
+  private void flush() {
+    List<StoreInfoRequest> events;
+    List<Tracer.Context> traces;
+    synchronized (pendingEvents) {
+      events = new ArrayList<>(pendingEvents);
+      traces = new ArrayList<>(pendingTraces);
+      pendingEvents.clear();
+      pendingTraces.clear();
+      flushScheduled = false;
+    }
+    List<List<Integer>> laneEvents = new ArrayList<>();
+    for (int lane = 0; lane < lanes.length; lane++) {
+      laneEvents.add(new ArrayList<>());
+    }
+    for (int i = 0; i < events.size(); i++) {
+      laneEvents.get(laneOf(events.get(i).getUserId())).add(i);
+    }
+    for (int lane = 0; lane < lanes.length; lane++) {
+      List<Integer> indices = laneEvents.get(lane);
+      for (int start = 0; start < indices.size(); start += MAX_BATCH_SIZE) {
+        int end = Math.min(start + MAX_BATCH_SIZE, indices.size());
+        List<Integer> chunk = indices.subList(start, end);
+        StoreInfoBatch.Builder batch = StoreInfoBatch.newBuilder();
+        List<Tracer.Context> batchTraces = new ArrayList<>();
+        for (int index : chunk) {
+          batch.addEvents(events.get(index));
+          batchTraces.add(traces.get(index));
+        }
+        send(lane, batch.build(), firstTrace(batchTraces));
+      }
+    }
+  }
+
+  /**
+   * Queues a batch on a lane, dropping it if the lane is full.
+   *
+   * @param lane Index of the lane that all of the batch's users map to
+   * @param batch Batch of store events to send
+   * @param trace Trace context to send the batch under, or null
+   */
+  private void send(int lane, StoreInfoBatch batch, Tracer.Context trace) {
+    try {
+      lanes[lane].execute(
+          () -> {
+            try (Tracer.Scope scope = Tracer.attach(trace)) {
+              storeInfo(batch);
+              sentBatches.incrementAndGet();
+              sentEvents.addAndGet(batch.getEventsCount());
+            } catch (RuntimeException e) {
+              droppedEvents.addAndGet(batch.getEventsCount());
+              log.error("Failed to send " + batch.getEventsCount() + " storeInfo events", e);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      droppedEvents.addAndGet(batch.getEventsCount());
+      log.error("Dropping " + batch.getEventsCount() + " storeInfo events: sender lane is full");
+    }
+  }
+
+  /**
+   * Returns the lane that carries all store events of a user.
+   *
+   * @param userID String containing the user's unique ID
+   * @return Lane index
+   */
+  private static int laneOf(String userID) {
+    return Math.floorMod(userID.hashCode(), lanes.length);
+  }
+
+  /**
+   * Finds the trace that a batch of store events is sent under.
+   *
+   * @param traces Trace contexts of the events in the batch, null for untraced events
+   * @return First non-null context, or null if no event was traced
+   */
+  private static Tracer.Context firstTrace(List<Tracer.Context> traces) {
+    for (Tracer.Context trace : traces) {
+      if (trace != null) {
+        return trace;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Sends a batch of list events to the recommender API to be stored in order.
+   *
+   * @param batch StoreInfoBatch protobuf message containing the events
+   * @return StoreInfoResponse with the number of stored and rejected events
+   */
+  protected StoreInfoResponse storeInfo(StoreInfoBatch batch) {
+    ResponseEntity<StoreInfoResponse> result;
+    inFlightRequests.incrementAndGet();
+    try (Tracer.Span span = Tracer.start("api.recommendations")) {
+      result =
+          restTemplate.postForEntity(
+              baseUrl + "rpc/storeInfo", traced(batch), StoreInfoResponse.class);
+    } finally {
+      inFlightRequests.decrementAndGet();
+    }
+    if (result.getStatusCode() != HttpStatus.OK) {
+      throw new InvalidRequestException("Error sending info to recommendations API.");
+    }
+    log.info("storeInfo success: " + result.getBody().getStored() + " events stored");
+    return result.getBody();
+  }
+
+  @Override
+  public List<Pair<String, Double>> getPastRecommendations(String userID, String stemmedListName) {
+    return callRecommendationsAPI("pastUserRecs", userID, stemmedListName);
+  }
+
+  @Override
+  public List<Pair<String, Double>> getUserRecommendations(String userID, String stemmedListName) {
+    return callRecommendationsAPI("generalUserRecs", userID, stemmedListName);
+  }
+
+  /**
+   * Calls recommendations API to get any possible list item recommendations for the user. If no
+   * item suggestions exist, returns an empty list.
+   *
+   * @param methodName String name of the type of recommendation requested (pastUser or generalUser)
+   * @param userID String containing current user's unique ID
+   * @param stemmedListName Stemmed name of the list we are providing recommendations for.
+   * @return List of pairs containing all items and their corresponding user preference frequency as
+   *     a double value
+   */
+  private List<Pair<String, Double>> callRecommendationsAPI(
+      String methodName, String userID, String stemmedListName) {
+    log.info("making " + methodName + " api request");
+    RecommendationsRequest request =
+        RecommendationsRequest.newBuilder()
+            .setUserId(userID)
+            .setStemmedListName(stemmedListName)
+            .build();
+    ResponseEntity<RecommendationsResponse> result;
+    inFlightRequests.incrementAndGet();
+    try (Tracer.Span span = Tracer.start("api.recommendations")) {
+      result =
+          restTemplate.postForEntity(
+              baseUrl + "rpc/" + methodName, traced(request), RecommendationsResponse.class);
+    } finally {
+      inFlightRequests.decrementAndGet();
+    }
+    if (result.getStatusCode() != HttpStatus.OK) {
+      throw new InvalidRequestException("Error sending info to recommendations API.");
+    }
+    log.info(methodName + " success");
+    return result.getBody().getItemsList().stream()
+        .map(e -> new Pair<>(e.getItem(), e.getScore()))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Wraps a request body with the traceparent header of the current span, if any.
+   *
+   * @param body Request message
+   * @return HttpEntity to post
+   */
+  private static <T> HttpEntity<T> traced(T body) {
+    HttpHeaders headers = new HttpHeaders();
+    String traceParent = Tracer.getTraceParent();
+    if (traceParent != null) {
+      headers.set(TraceParent.HEADER, traceParent);
+    }
+    return new HttpEntity<>(body, headers);
+  }
+
+  /**
+   * Returns the current state of the shared HTTP client and sender lanes.
+   *
+   * @return Map of metric name to value, in a fixed order
+   */
+  public static Map<String, Long> getMetrics() {
+    long threads = 0;
+    long activeThreads = 0;
+    long queuedTasks = 0;
+    for (ThreadPoolExecutor lane : lanes) {
+      threads += lane.getPoolSize();
+      activeThreads += lane.getActiveCount();
+      queuedTasks += lane.getQueue().size();
+    }
+    Map<String, Long> metrics = new LinkedHashMap<>();
+    metrics.put("recommendations.client.threads", threads);
+    metrics.put("recommendations.client.activeThreads", activeThreads);
+    metrics.put("recommendations.client.queuedTasks", queuedTasks);
+    metrics.put("recommendations.client.inFlightRequests", (long) inFlightRequests.get());
+    metrics.put("recommendations.client.sentBatches", sentBatches.get());
+    metrics.put("recommendations.client.sentEvents", sentEvents.get());
+    metrics.put("recommendations.client.droppedEvents", droppedEvents.get());
+    return metrics;
+  }
+
+  /**
+   * Creates the RestTemplate shared by all clients. It exchanges protobuf request and response
+   * bodies over a pool of keep-alive connections with connect and read timeouts.
+   *
+   * @return RestTemplate using the protobuf message converter
+   */
+  private static RestTemplate createRestTemplate() {
+    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(MAX_CONNECTIONS);
+    connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+    CloseableHttpClient httpClient =
+        HttpClients.custom().setConnectionManager(connectionManager).build();
+    HttpComponentsClientHttpRequestFactory requestFactory =
+        new HttpComponentsClientHttpRequestFactory(httpClient);
+    requestFactory.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+    requestFactory.setReadTimeout(READ_TIMEOUT_MILLIS);
+    RestTemplate restTemplate =
+        new RestTemplate(
+            Collections.<HttpMessageConverter<?>>singletonList(new ProtobufHttpMessageConverter()));
+    restTemplate.setRequestFactory(requestFactory);
+    return restTemplate;
+  }
+
+  /**
+   * Creates the sender lanes shared by all clients. Each lane is a single thread sending its
+   * batches in order from a bounded queue, and rejects batches when the queue is full so that a
+   * slow service never blocks the flush scheduler.
+   *
+   * @return Single-threaded bounded executors
+   */
+  private static ThreadPoolExecutor[] createLanes() {
+    ThreadPoolExecutor[] lanes = new ThreadPoolExecutor[NUM_LANES];
+    for (int i = 0; i < NUM_LANES; i++) {
+      lanes[i] =
+          new ThreadPoolExecutor(
+              1,
+              1,
+              60,
+              TimeUnit.SECONDS,
+              new ArrayBlockingQueue<>(MAX_QUEUED_BATCHES_PER_LANE),
+              daemonThreadFactory("recommendations-client-" + i),
+              new ThreadPoolExecutor.AbortPolicy());
+      lanes[i].allowCoreThreadTimeOut(true);
+    }
+    return lanes;
+  }
+
+  /**
+   * Creates a factory for named daemon threads, so that idle pool threads never block shutdown.
+   *
+   * @param prefix Prefix of the thread names
+   * @return ThreadFactory creating daemon threads
+   */
+  private static ThreadFactory daemonThreadFactory(String prefix) {
+    AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
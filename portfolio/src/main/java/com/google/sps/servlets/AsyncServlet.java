@@ -0,0 +1,154 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.servlets;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.sps.utils.ApiEnvironment;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Servlet whose requests are handled on a shared bounded executor with AsyncContext, so that the
+ * container thread is released while the request waits on Dialogflow, Speech, Text-to-Speech and
+ * the other external APIs. Subclasses annotate themselves with asyncSupported = true and pass their
+ * handling to dispatch. When the container does not support async processing for the request,
+ * such as with mocked requests in tests, the handler runs on the calling thread. When all threads
+ * are busy and the queue is full the request is rejected with status 503.
+ */
+public abstract class AsyncServlet extends HttpServlet {
+
+  private static Logger log = LoggerFactory.getLogger(AsyncServlet.class);
+  private static final int MAX_THREADS = 64;
+  private static final int MAX_QUEUED_REQUESTS = 256;
+  private static final long REQUEST_TIMEOUT_MILLIS = 60000;
+  private static final ThreadPoolExecutor executor = createExecutor();
+  private static final AtomicLong rejectedRequests = new AtomicLong();
+
+  /** Request handling to run on the executor. */
+  protected interface Handler {
+
+    /**
+     * Handles a request.
+     *
+     * @param request HTTP request
+     * @param response Writer to return http response to input request
+     */
+    void handle(HttpServletRequest request, HttpServletResponse response) throws IOException;
+  }
+
+  /**
+   * Runs the handler on the executor with the request's App Engine API environment and completes
+   * the request when it returns. The environment is detached from the pool thread afterwards, so
+   * the next request it runs cannot make API calls under this request's environment.
+   *
+   * @param request HTTP request
+   * @param response Writer to return http response to input request
+   * @param handler Handling of the request
+   */
+  protected void dispatch(
+      HttpServletRequest request, HttpServletResponse response, Handler handler)
+      throws IOException {
+    if (!request.isAsyncSupported()) {
+      handler.handle(request, response);
+      return;
+    }
+    AsyncContext async = request.startAsync(request, response);
+    async.setTimeout(REQUEST_TIMEOUT_MILLIS);
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    try {
+      executor.execute(
+          () -> {
+            try (ApiEnvironment.Scope scope = ApiEnvironment.attach(environment)) {
+              handler.handle(request, response);
+            } catch (IOException | RuntimeException e) {
+              log.error("Request to " + request.getRequestURI() + " failed", e);
+              sendError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            } finally {
+              async.complete();
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      rejectedRequests.incrementAndGet();
+      log.error("Rejecting request to " + request.getRequestURI() + ": executor is saturated");
+      sendError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      async.complete();
+    }
+  }
+
+  /**
+   * Returns the current state of the request executor shared by all async servlets.
+   *
+   * @return Map of metric name to value, in a fixed order
+   */
+  public static Map<String, Long> getMetrics() {
+    Map<String, Long> metrics = new LinkedHashMap<>();
+    metrics.put("servlets.executor.threads", (long) executor.getPoolSize());
+    metrics.put("servlets.executor.activeThreads", (long) executor.getActiveCount());
+    metrics.put("servlets.executor.queuedRequests", (long) executor.getQueue().size());
+    metrics.put("servlets.executor.rejectedRequests", rejectedRequests.get());
+    return metrics;
+  }
+
+  private static void sendError(HttpServletResponse response, int status) {
+    if (response.isCommitted()) {
+      return;
+    }
+    try {
+      response.sendError(status);
+    } catch (IOException | IllegalStateException e) {
+      log.error("Could not send error status " + status, e);
+    }
+  }
+
+  /**
+   * Creates the bounded executor for request handling. Idle threads time out so that an idle
+   * instance holds no threads.
+   *
+   * @return Thread pool executor of daemon threads that rejects work when saturated
+   */
+  private static ThreadPoolExecutor createExecutor() {
+    AtomicInteger count = new AtomicInteger();
+    ThreadPoolExecutor pool =
+        new ThreadPoolExecutor(
+            MAX_THREADS,
+            MAX_THREADS,
+            60,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_REQUESTS),
+            runnable -> {
+              Thread thread = new Thread(runnable, "request-handler-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+}
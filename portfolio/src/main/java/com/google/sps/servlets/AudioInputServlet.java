@@ -20,7 +20,6 @@ import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.cloud.translate.Translation;
 import com.google.gson.Gson;
 import com.google.protobuf.ByteString;
 import com.google.sps.agents.TranslateAgent;
@@ -29,21 +28,22 @@ import com.google.sps.data.Output;
 import com.google.sps.data.RecommendationsClient;
 import com.google.sps.utils.AgentUtils;
 import com.google.sps.utils.AudioUtils;
-import com.google.sps.utils.SpeechUtils;
+import com.google.sps.utils.CloudClients;
+import com.google.sps.utils.InputAudioFormat;
+import com.google.sps.utils.Tracer;
 import java.io.IOException;
+import java.io.InputStream;
 import javax.servlet.ServletInputStream;
 import javax.servlet.annotation.WebServlet;
-import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /** Servlet that takes in audio stream and retrieves user input string to display. */
-@WebServlet("/audio-input")
-public class AudioInputServlet extends HttpServlet {
+@WebServlet(value = "/audio-input", asyncSupported = true)
+public class AudioInputServlet extends AsyncServlet {
 
   private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
   private UserService userService = UserServiceFactory.getUserService();
-  private RecommendationsClient recommender = new RecommendationsClient();
 
   /**
    * POST method that handles http request for dialogflow response to audio user input
@@ -53,90 +53,129 @@ public class AudioInputServlet extends HttpServlet {
    */
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    dispatch(request, response, this::handlePost);
+  }
+
+  private void handlePost(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
     response.setContentType("application/json");
     response.setCharacterEncoding("UTF-8");
+    Tracer.beginRequest("audio-input");
+    try {
+      ServletInputStream stream = request.getInputStream();
+      String sessionID = request.getParameter("session-id");
+      String language = request.getParameter("language");
+      InputAudioFormat format = InputAudioFormat.fromContentType(request.getContentType());
+      Output output = null;
 
-    // Convert input stream into bytestring for DialogFlow API input
-    ServletInputStream stream = request.getInputStream();
-    ByteString bytestring = ByteString.readFrom(stream);
-    String sessionID = request.getParameter("session-id");
-    String language = request.getParameter("language");
-    Output output = null;
-
-    if (language.equals("English")) {
-      output = handleEnglishQuery(bytestring, sessionID);
-    } else {
-      try {
-        output = handleForeignQuery(bytestring, language, sessionID);
-      } catch (Exception e) {
-        e.printStackTrace();
+      if (language.equals("English")) {
+        output = handleEnglishQuery(stream, getSampleRate(request), format, sessionID);
+      } else {
+        try {
+          // Convert input stream into bytestring for speech recognition and translation
+          ByteString bytestring = ByteString.readFrom(stream);
+          output = handleForeignQuery(bytestring, format, language, sessionID);
+        } catch (Exception e) {
+          e.printStackTrace();
+        }
       }
+      // Convert to JSON string
+      String json = new Gson().toJson(output);
+      response.getWriter().write(json);
+    } finally {
+      Tracer.endRequest();
     }
-    // Convert to JSON string
-    String json = new Gson().toJson(output);
-    response.getWriter().write(json);
   }
 
   /**
-   * Handles English input audio into dialogflow and returns English response.
+   * Handles English input audio into dialogflow and returns English response. The request body is
+   * forwarded to Dialogflow as it is read.
    *
-   * @param bytestring Bytestring containing user input audio recording
+   * @param stream InputStream of the user input audio recording
+   * @param sampleRate Sample frequency of linear PCM recordings in hertz, or 0 to read it from the
+   *     WAV header
+   * @param format Encoding of the recording
    * @param sessionID The unique identifier for the current session
    * @return Output object containing all output audio, text, and display information.
    */
-  private Output handleEnglishQuery(ByteString bytestring, String sessionID) {
-    DialogFlowClient result = AudioUtils.detectIntentStream(bytestring);
+  private Output handleEnglishQuery(
+      InputStream stream, int sampleRate, InputAudioFormat format, String sessionID) {
+    DialogFlowClient result;
+    try (Tracer.Span span = Tracer.start("stage.detect-intent")) {
+      result = AudioUtils.detectIntentStream(stream, sampleRate, format);
+    }
     if (result == null) {
       return null;
     }
-    return AgentUtils.getOutput(result, "en-US", userService, datastore, sessionID, recommender);
+    return AgentUtils.getOutput(
+        result, "en-US", userService, datastore, sessionID, new RecommendationsClient());
   }
 
   /**
    * Handles foreign language input audio into dialogflow and returns response in corresponding
-   * language.
+   * language. Each step needs the result of the one before it, so the steps run in order. The
+   * recognized input is already in the user's language, so only the fulfillment is translated back,
+   * and its speech is synthesized when the audio URL is fetched.
    *
    * @param bytestring Bytestring containing user input audio recording
+   * @param format Encoding of the recording
    * @param language String containing the lanugage of input audio
    * @param sessionID The unique identifier for the current session
-   * @return Output object containing all output audio, text, and display information.
+   * @return Output object containing all output audio, text, and display information, or null if
+   *     the recording contains no speech
    */
-  private Output handleForeignQuery(ByteString bytestring, String language, String sessionID) {
+  private Output handleForeignQuery(
+      ByteString bytestring, InputAudioFormat format, String language, String sessionID)
+      throws IOException {
     String languageCode = AgentUtils.getLanguageCode(language);
-    String detectedUserInputString =
-        AudioUtils.detectSpeechLanguage(bytestring.toByteArray(), languageCode);
     String englishLanguageCode = AgentUtils.getLanguageCode("English");
+    String detectedUserInputString =
+        AudioUtils.detectSpeechLanguage(bytestring.toByteArray(), languageCode, format);
+    if (detectedUserInputString == null) {
+      return null;
+    }
     // Google Translate API - convert detectedUserInputString from language to English
-    Translation inputTranslation =
+    String translatedInputText =
         TranslateAgent.translate(detectedUserInputString, languageCode, englishLanguageCode);
 
-    String translatedInputText = inputTranslation.getTranslatedText();
-    ByteString inputByteString = null;
-    try {
-      inputByteString = SpeechUtils.synthesizeText(translatedInputText, languageCode);
-    } catch (Exception e) {
-      e.printStackTrace();
+    DialogFlowClient englishOutput;
+    try (Tracer.Span span = Tracer.start("stage.detect-intent")) {
+      englishOutput =
+          DialogFlowClient.forText(
+              translatedInputText, englishLanguageCode, CloudClients.getSessionsClient());
     }
+    Tracer.setIntent(englishOutput.getIntentName());
 
-    DialogFlowClient englishOutput =
-        (new TextInputServlet()).detectIntentStream(translatedInputText, englishLanguageCode);
-
-    // Google Translate API - convert input and fulfillment to appropriate language
-    String userInput = englishOutput.getQueryText();
-    String fulfillment = englishOutput.getFulfillmentText();
-    String userInputTranslation =
-        TranslateAgent.translate(userInput, englishLanguageCode, languageCode).getTranslatedText();
+    // Google Translate API - convert fulfillment to appropriate language
     String fulfillmentTranslation =
-        TranslateAgent.translate(fulfillment, englishLanguageCode, languageCode)
-            .getTranslatedText();
-    byte[] byteArray = AgentUtils.getByteStringToByteArray(fulfillmentTranslation, languageCode);
+        TranslateAgent.translate(
+            englishOutput.getFulfillmentText(), englishLanguageCode, languageCode);
+    String audioUrl = AgentUtils.getAudioUrl(fulfillmentTranslation, languageCode);
     Output languageOutput =
         new Output(
-            userInputTranslation,
+            detectedUserInputString,
             fulfillmentTranslation,
-            byteArray,
+            audioUrl,
             englishOutput.getIntentName(),
             sessionID);
     return languageOutput;
   }
+
+  /**
+   * Reads the sample rate of the recording from the X-Sample-Rate header or the "rate" parameter.
+   *
+   * @param request HTTP request containing user's input audio
+   * @return Sample rate in hertz, or 0 if the client did not provide a valid one
+   */
+  private static int getSampleRate(HttpServletRequest request) {
+    String rate = request.getHeader("X-Sample-Rate");
+    if (rate == null) {
+      rate = request.getParameter("rate");
+    }
+    try {
+      return rate == null ? 0 : Math.max(Integer.parseInt(rate), 0);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
 }
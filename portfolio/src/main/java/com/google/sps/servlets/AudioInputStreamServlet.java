@@ -19,6 +19,8 @@ package com.google.sps.servlets;
 import com.google.protobuf.ByteString;
 import com.google.sps.utils.AgentUtils;
 import com.google.sps.utils.AudioUtils;
+import com.google.sps.utils.InputAudioFormat;
+import com.google.sps.utils.StreamingRecognition;
 import java.io.IOException;
 import java.io.PrintWriter;
 import javax.servlet.ServletInputStream;
@@ -27,14 +29,25 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Servlet that takes in audio stream and retrieves * user input string to display. */
+/**
+ * Servlet that takes in audio stream and retrieves * user input string to display. Requests with
+ * an "utterance" parameter carry only the newly recorded chunk of an utterance, as 16-bit linear
+ * PCM or as Opus declared by the content type, and are forwarded into one streaming recognition
+ * session per utterance. Utterances are scoped to the client's HTTP session. The response is the
+ * interim transcript so far, or status 409 if this instance cannot continue the utterance and the
+ * client must restart it from chunk 0. The response to the request with "end" set is the final
+ * transcript. Sessions are held in the memory of the instance that received chunk 0, so streaming
+ * needs a single serving instance (see StreamingRecognition). Requests without the parameter are
+ * recognized as a whole.
+ */
 @WebServlet("/audio-stream")
 public class AudioInputStreamServlet extends HttpServlet {
 
   /**
    * POST method that handles http request for determining text representation of audio stream
    *
-   * @param request HTTP request containing user's input audio and language
+   * @param request HTTP request containing user's input audio and language, and for streaming the
+   *     utterance ID, chunk sequence number, sample rate and whether the utterance has ended
    * @param response Writer to return http response to input request
    */
   @Override
@@ -48,11 +61,88 @@ public class AudioInputStreamServlet extends HttpServlet {
     String language = request.getParameter("language");
 
     String languageCode = AgentUtils.getLanguageCode(language);
-    String detectedIntent = AudioUtils.detectSpeechLanguage(bytestring.toByteArray(), languageCode);
+    InputAudioFormat format = InputAudioFormat.fromContentType(request.getContentType());
+    String utteranceID = request.getParameter("utterance");
+    if (utteranceID != null) {
+      streamChunk(request, response, utteranceID, languageCode, format, bytestring);
+      return;
+    }
+    String detectedIntent =
+        AudioUtils.detectSpeechLanguage(bytestring.toByteArray(), languageCode, format);
     if (detectedIntent == null) {
       out.println("");
     } else {
       out.println(detectedIntent);
     }
   }
+
+  /**
+   * Forwards an audio chunk into the utterance's streaming recognition session and writes the
+   * transcript so far. The request that ends the utterance gets the final transcript instead.
+   *
+   * @param request HTTP request containing the chunk parameters
+   * @param response HTTP response for the transcript
+   * @param utteranceID Client-chosen unique ID of the utterance
+   * @param languageCode Language of the utterance
+   * @param format Encoding of the chunk
+   * @param chunk Audio recorded since the previous chunk
+   */
+  private void streamChunk(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      String utteranceID,
+      String languageCode,
+      InputAudioFormat format,
+      ByteString chunk)
+      throws IOException {
+    String ownerID = request.getSession().getId();
+    if ("true".equals(request.getParameter("end"))) {
+      String transcript = StreamingRecognition.finish(ownerID, utteranceID);
+      if (transcript != null) {
+        response.getWriter().print(transcript);
+      }
+      return;
+    }
+    StreamingRecognition session;
+    int seq;
+    try {
+      seq = Integer.parseInt(request.getParameter("seq"));
+      if (seq == 0) {
+        int sampleRate =
+            format.isOpus()
+                ? InputAudioFormat.OPUS_SAMPLE_RATE
+                : Integer.parseInt(request.getParameter("rate"));
+        session =
+            StreamingRecognition.start(
+                ownerID, utteranceID, () -> openSession(languageCode, sampleRate, format));
+      } else {
+        session = StreamingRecognition.get(ownerID, utteranceID);
+      }
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    } catch (IllegalStateException e) {
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      return;
+    }
+    if (session == null || !session.send(seq, chunk)) {
+      StreamingRecognition.discard(ownerID, utteranceID);
+      response.setStatus(HttpServletResponse.SC_CONFLICT);
+      return;
+    }
+    response.getWriter().print(session.getTranscript());
+  }
+
+  /**
+   * Opens a streaming recognition session for a new utterance.
+   *
+   * @param languageCode Language of the utterance
+   * @param sampleRate Sample rate in hertz of 16-bit linear PCM audio chunks
+   * @param format Encoding of the audio chunks
+   * @return New session expecting chunk 0
+   */
+  protected StreamingRecognition openSession(
+      String languageCode, int sampleRate, InputAudioFormat format) throws IOException {
+    return StreamingRecognition.open(languageCode, sampleRate, format);
+  }
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.servlets;
+
+import com.google.protobuf.ByteString;
+import com.google.sps.utils.AudioCache;
+import com.google.sps.utils.SpeechUtils;
+import com.google.sps.utils.Tracer;
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that streams synthesized assistant audio by the handle given in Output.audioUrl. Audio
+ * that no cache holds is synthesized from the phrase registered under the handle, so any instance
+ * can serve any handle for an hour after the reply. Handles are content hashes, so responses can be cached by the browser. Single
+ * byte ranges are supported so that audio elements can seek.
+ */
+@WebServlet("/audio-output")
+public class AudioOutputServlet extends HttpServlet {
+
+  private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+  /**
+   * GET method that returns the audio of the handle in the "id" parameter.
+   *
+   * @param request HTTP request containing the audio handle and optionally a Range header
+   * @param response HTTP response that the audio bytes are written to
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String handle = request.getParameter("id");
+    if (!AudioCache.isKey(handle)) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    ByteString audio;
+    Tracer.beginRequest("audio-output");
+    try {
+      audio = SpeechUtils.getAudio(handle);
+    } finally {
+      Tracer.endRequest();
+    }
+    if (audio == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    response.setContentType("audio/mpeg");
+    response.setHeader("Accept-Ranges", "bytes");
+    response.setHeader("ETag", "\"" + handle + "\"");
+    response.setHeader("Cache-Control", "public, max-age=86400, immutable");
+
+    int length = audio.size();
+    String rangeHeader = request.getHeader("Range");
+    if (rangeHeader == null) {
+      response.setContentLength(length);
+      audio.writeTo(response.getOutputStream());
+      return;
+    }
+    int[] range = parseRange(rangeHeader, length);
+    if (range == null) {
+      response.setHeader("Content-Range", "bytes */" + length);
+      response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      return;
+    }
+    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+    response.setContentLength(range[1] - range[0] + 1);
+    audio.substring(range[0], range[1] + 1).writeTo(response.getOutputStream());
+  }
+
+  /**
+   * Parses a single byte range of the form "bytes=start-end", "bytes=start-" or "bytes=-suffix".
+   *
+   * @param header Value of the Range header
+   * @param length Total length of the content in bytes
+   * @return Inclusive first and last byte positions, or null if the range is invalid or cannot be
+   *     satisfied
+   */
+  public static int[] parseRange(String header, int length) {
+    Matcher matcher = RANGE.matcher(header.trim());
+    if (!matcher.matches() || length == 0) {
+      return null;
+    }
+    String start = matcher.group(1);
+    String end = matcher.group(2);
+    try {
+      if (start.isEmpty()) {
+        if (end.isEmpty()) {
+          return null;
+        }
+        long suffix = Long.parseLong(end);
+        return suffix == 0 ? null : new int[] {(int) Math.max(length - suffix, 0), length - 1};
+      }
+      long first = Long.parseLong(start);
+      long last = end.isEmpty() ? length - 1 : Math.min(Long.parseLong(end), length - 1);
+      if (first >= length || last < first) {
+        return null;
+      }
+      return new int[] {(int) first, (int) last};
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
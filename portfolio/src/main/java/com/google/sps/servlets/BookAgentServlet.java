@@ -31,11 +31,11 @@ import com.google.sps.data.BookQuery;
 import com.google.sps.data.Output;
 import com.google.sps.utils.AgentUtils;
 import com.google.sps.utils.BooksMemoryUtils;
+import com.google.sps.utils.Tracer;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Map;
 import javax.servlet.annotation.WebServlet;
-import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.json.JSONObject;
@@ -44,13 +44,12 @@ import org.json.JSONObject;
  * Creates BookAgent object and retrieves corresponding Output object for a given intent. For all
  * intents passed to BookAgentServlet, no queryText or parameterMap will be necessary.
  */
-@WebServlet("/book-agent")
-public class BookAgentServlet extends HttpServlet {
+@WebServlet(value = "/book-agent", asyncSupported = true)
+public class BookAgentServlet extends AsyncServlet {
 
   private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
   private UserService userService = UserServiceFactory.getUserService();
-  private String bookshelfName = "";
-  private String friendName = "";
+
   /**
    * POST method that retrieves corresponding Output object for given Book intent passed as a
    * parameter to request. If a number parameter was passed to request, then it is placed into
@@ -61,7 +60,13 @@ public class BookAgentServlet extends HttpServlet {
    */
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    dispatch(request, response, this::handlePost);
+  }
+
+  private void handlePost(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
     response.setContentType("application/json");
+    Tracer.beginRequest("book-agent");
 
     String intent = request.getParameter("intent");
     String sessionID = request.getParameter("session-id");
@@ -77,12 +82,10 @@ public class BookAgentServlet extends HttpServlet {
         params.add("\"number\": " + request.getParameter("number"));
       }
       if (request.getParameter("bookshelf") != null) {
-        this.bookshelfName = request.getParameter("bookshelf");
-        params.add("\"bookshelf\": \"" + bookshelfName + "\"");
+        params.add("\"bookshelf\": \"" + request.getParameter("bookshelf") + "\"");
       }
       if (request.getParameter("friend") != null) {
-        this.friendName = request.getParameter("friend");
-        params.add("\"friend\": {\"name\": \"" + friendName + "\"}");
+        params.add("\"friend\": {\"name\": \"" + request.getParameter("friend") + "\"}");
       }
       if (request.getParameter("friendObject") != null) {
         params.add("\"friendObject\": " + request.getParameter("friendObject"));
@@ -98,7 +101,11 @@ public class BookAgentServlet extends HttpServlet {
     }
 
     String json = new Gson().toJson(output);
-    response.getWriter().write(json);
+    try {
+      response.getWriter().write(json);
+    } finally {
+      Tracer.endRequest();
+    }
   }
 
   /**
@@ -121,10 +128,23 @@ public class BookAgentServlet extends HttpServlet {
       DatastoreService datastore) {
     String display = null;
     String redirect = null;
-    byte[] byteStringToByteArray = null;
+    String audioUrl = null;
     String intentName = AgentUtils.getIntentName(intent);
     String detectedInput = "Button pressed for: " + intentName;
     String userInput = detectedInput;
+    String bookshelfName = "";
+    String friendName = "";
+    if (parameterMap != null && parameterMap.containsKey("bookshelf")) {
+      bookshelfName = parameterMap.get("bookshelf").getStringValue();
+    }
+    if (parameterMap != null && parameterMap.containsKey("friend")) {
+      friendName =
+          parameterMap
+              .get("friend")
+              .getStructValue()
+              .getFieldsOrDefault("name", Value.getDefaultInstance())
+              .getStringValue();
+    }
 
     if (intentName.equals("library")) {
       userInput = "Show me my " + bookshelfName + " bookshelf.";
@@ -142,7 +162,8 @@ public class BookAgentServlet extends HttpServlet {
     }
 
     String fulfillment = "";
-    try {
+    Tracer.setIntent(intent);
+    try (Tracer.Span span = Tracer.start("agent.books")) {
       BooksAgent agent =
           new BooksAgent(
               intentName, userInput, parameterMap, sessionID, userService, datastore, queryID);
@@ -158,9 +179,11 @@ public class BookAgentServlet extends HttpServlet {
     if (fulfillment.equals("")) {
       fulfillment = "I'm sorry, I didn't catch that. Can you repeat that?";
     }
-    byteStringToByteArray = AgentUtils.getByteStringToByteArray(fulfillment, languageCode);
+    try (Tracer.Span span = Tracer.start("stage.tts")) {
+      audioUrl = AgentUtils.getAudioUrl(fulfillment, languageCode);
+    }
     Output output =
-        new Output(userInput, fulfillment, byteStringToByteArray, display, redirect, intent);
+        new Output(userInput, fulfillment, audioUrl, display, redirect, intent);
     return output;
   }
 
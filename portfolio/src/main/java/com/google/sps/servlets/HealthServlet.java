@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.sps.agents.TranslateAgent;
+import com.google.sps.utils.CloudClients;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that reports the channel state of the shared Google Cloud clients and the statistics of
+ * the translation phrase cache and the detect-intent cache.
+ */
+@WebServlet("/health")
+public class HealthServlet extends HttpServlet {
+
+  /**
+   * GET method that returns a JSON map of client name to channel state, with the translation
+   * cache statistics under "translateCache" and the detect-intent cache statistics under
+   * "intentCache".
+   *
+   * @param request HTTP request
+   * @param response Writer to return http response to input request
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    response.setContentType("application/json");
+    Map<String, Object> health = new LinkedHashMap<>(CloudClients.getHealth());
+    health.put("translateCache", TranslateAgent.getCacheStats());
+    health.put("intentCache", TextInputServlet.getCacheStats());
+    response.getWriter().write(new Gson().toJson(health));
+  }
+}
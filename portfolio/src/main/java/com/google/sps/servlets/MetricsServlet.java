@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.sps.data.RemoteRecommendationsBackend;
+import com.google.sps.utils.Tracer;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that reports the latency histograms recorded by the Tracer since the instance started,
+ * along with the state of the recommendations client and the request executor, and how long each
+ * step of the instance warmup took.
+ */
+@WebServlet("/metrics")
+public class MetricsServlet extends HttpServlet {
+
+  /**
+   * GET method that returns a JSON map with the p50, p95, p99 and maximum latency in milliseconds
+   * of every request, intent, stage, agent and external API under "latencyMillis", the
+   * recommendations client metrics under "recommendations", the request executor metrics under
+   * "servlets" and the time taken by each warmup step under "warmupMillis".
+   *
+   * @param request HTTP request
+   * @param response Writer to return http response to input request
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    response.setContentType("application/json");
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    metrics.put("latencyMillis", Tracer.getLatencies());
+    metrics.put("recommendations", RemoteRecommendationsBackend.getMetrics());
+    metrics.put("servlets", AsyncServlet.getMetrics());
+    metrics.put("warmupMillis", WarmupServlet.getLastStepMillis());
+    response.getWriter().write(new Gson().toJson(metrics));
+  }
+}
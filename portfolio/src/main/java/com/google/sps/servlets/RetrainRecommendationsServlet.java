@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.sps.data.EmbeddedRecommendationsBackend;
+import com.google.sps.recommendations.RecommendationUtils;
+import com.google.sps.utils.Tracer;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Task queue handler that retrains the recommendations of a list for the embedded recommendations
+ * backend, so that the retrain runs outside the user request that stored the ratings.
+ */
+@WebServlet(EmbeddedRecommendationsBackend.RETRAIN_URL)
+public class RetrainRecommendationsServlet extends HttpServlet {
+
+  private static Logger log = LoggerFactory.getLogger(RetrainRecommendationsServlet.class);
+  // App Engine removes this header from external requests, so only queued tasks carry it.
+  private static final String QUEUE_HEADER = "X-AppEngine-QueueName";
+
+  /**
+   * POST method that retrains the list named by the "list" parameter. Lists that cannot be trained
+   * yet are logged and not retried.
+   *
+   * @param request HTTP request of the queued task
+   * @param response Writer to return http response to input request
+   */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (request.getHeader(QUEUE_HEADER) == null) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    String stemmedListName = request.getParameter(EmbeddedRecommendationsBackend.LIST_PARAMETER);
+    if (stemmedListName == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    Tracer.beginRequest("retrain-recommendations");
+    try {
+      RecommendationUtils.updateUserRecommendations(createDatastore(), stemmedListName);
+    } catch (EntityNotFoundException | IllegalStateException e) {
+      log.info("Cannot retrain list " + stemmedListName + ": " + e);
+    } finally {
+      Tracer.endRequest();
+    }
+  }
+
+  protected DatastoreService createDatastore() {
+    return DatastoreServiceFactory.getDatastoreService();
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.sps.utils.MemoryUtils;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Task queue handler that saves a user comment and the assistant's reply into the comment history,
+ * so that the Datastore writes run after the reply has been sent rather than before.
+ */
+@WebServlet(MemoryUtils.SAVE_COMMENT_URL)
+public class SaveCommentServlet extends HttpServlet {
+
+  // App Engine removes this header from external requests, so only queued tasks carry it.
+  private static final String QUEUE_HEADER = "X-AppEngine-QueueName";
+
+  /**
+   * POST method that saves the comments given by the task parameters. A failed write throws, so
+   * the task queue retries it.
+   *
+   * @param request HTTP request of the queued task
+   * @param response Writer to return http response to input request
+   */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (request.getHeader(QUEUE_HEADER) == null) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    String userID = request.getParameter(MemoryUtils.USER_ID_PARAMETER);
+    String userComment = request.getParameter(MemoryUtils.USER_COMMENT_PARAMETER);
+    String assistantComment = request.getParameter(MemoryUtils.ASSISTANT_COMMENT_PARAMETER);
+    String timestamp = request.getParameter(MemoryUtils.TIMESTAMP_PARAMETER);
+    if (userID == null || userComment == null || assistantComment == null || timestamp == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    long timeMillis;
+    try {
+      timeMillis = Long.parseLong(timestamp);
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    MemoryUtils.saveComment(userID, createDatastore(), userComment, assistantComment, timeMillis);
+  }
+
+  protected DatastoreService createDatastore() {
+    return DatastoreServiceFactory.getDatastoreService();
+  }
+}
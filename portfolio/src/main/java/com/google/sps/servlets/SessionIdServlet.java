@@ -25,10 +25,8 @@ import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.sps.utils.BooksMemoryUtils;
 import com.google.sps.utils.BooksSetUpHelper;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
-import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
@@ -38,8 +36,8 @@ import org.slf4j.LoggerFactory;
  * This servlet retrieves sessionIDs for each user (logged in or not) in order to keep track of
  * their stored Book information and deletes stored session Book Information when session is over.
  */
-@WebServlet("/id")
-public class SessionIdServlet extends HttpServlet {
+@WebServlet(value = "/id", asyncSupported = true)
+public class SessionIdServlet extends AsyncServlet {
   private static Logger log = LoggerFactory.getLogger(BooksSetUpHelper.class);
   UserService userService = createUserService();
   DatastoreService datastore = createDatastore();
@@ -56,13 +54,18 @@ public class SessionIdServlet extends HttpServlet {
    */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    dispatch(request, response, this::handleGet);
+  }
+
+  private void handleGet(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
     response.setContentType("text/html");
     String id;
 
     // Set up book likes for demo
     try {
-      BooksSetUpHelper.setUpBookLikes(datastore);
-    } catch (FileNotFoundException e) {
+      BooksSetUpHelper.setUpBookLikesOnce(datastore);
+    } catch (IOException e) {
       log.error("Could not set up liked books for test users.");
     }
 
@@ -96,6 +99,11 @@ public class SessionIdServlet extends HttpServlet {
    */
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    dispatch(request, response, this::handlePost);
+  }
+
+  private void handlePost(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
     String sessionID = request.getParameter("session-id");
     BooksMemoryUtils.deleteAllStoredBookInformation(sessionID, datastore);
   }
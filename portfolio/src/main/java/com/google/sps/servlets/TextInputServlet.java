@@ -20,15 +20,23 @@ import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
+import com.google.cloud.dialogflow.v2.QueryResult;
 import com.google.cloud.dialogflow.v2.SessionsClient;
 import com.google.gson.Gson;
+import com.google.sps.data.AgentContext;
 import com.google.sps.data.DialogFlowClient;
 import com.google.sps.data.Output;
 import com.google.sps.data.RecommendationsClient;
 import com.google.sps.utils.AgentUtils;
+import com.google.sps.utils.CloudClients;
+import com.google.sps.utils.DetectIntentCache;
+import com.google.sps.utils.Tracer;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.annotation.WebServlet;
-import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
@@ -38,13 +46,29 @@ import org.slf4j.LoggerFactory;
  * Servlet that takes in user text input and retrieves * QueryResult from Dialogflow input string to
  * display.
  */
-@WebServlet("/text-input")
-public class TextInputServlet extends HttpServlet {
+@WebServlet(value = "/text-input", asyncSupported = true)
+public class TextInputServlet extends AsyncServlet {
 
   private static Logger log = LoggerFactory.getLogger(TextInputServlet.class);
+
+  // Intents without input contexts, whose results do not depend on the conversation so far.
+  private static final DetectIntentCache intentCache =
+      new DetectIntentCache(
+          1000,
+          TimeUnit.MINUTES.toMillis(10),
+          new HashSet<>(
+              Arrays.asList(
+                  "weather",
+                  "weather.condition",
+                  "weather.temperature",
+                  "weather.outfit",
+                  "web.search",
+                  "units.convert",
+                  "currency.convert",
+                  "maps.search",
+                  "maps.find")));
   private DatastoreService datastore = createDatastore();
   private UserService userService = createUserService();
-  private RecommendationsClient recommender = createRecommendationsClient();
 
   /**
    * POST method that handles http request for dialogflow response to textual user input
@@ -54,30 +78,45 @@ public class TextInputServlet extends HttpServlet {
    */
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    dispatch(request, response, this::handlePost);
+  }
+
+  private void handlePost(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
     response.setContentType("application/json");
     response.setCharacterEncoding("UTF-8");
-
-    String userQuestion = request.getParameter("request-input");
-    String sessionID = request.getParameter("session-id");
-    String language = request.getParameter("language");
-    String languageCode = AgentUtils.getLanguageCode(language);
-    DialogFlowClient result = detectIntentStream(userQuestion, languageCode);
-
-    if (result == null) {
-      response.getWriter().write(new Gson().toJson(null));
-      return;
-    }
-    Output output = null;
+    Tracer.beginRequest("text-input");
     try {
-      output =
-          AgentUtils.getOutput(
-              result, languageCode, userService, datastore, sessionID, recommender);
-    } catch (Exception e) {
-      e.printStackTrace();
+      String userQuestion = request.getParameter("request-input");
+      String sessionID = request.getParameter("session-id");
+      String language = request.getParameter("language");
+      String languageCode = AgentUtils.getLanguageCode(language);
+      DialogFlowClient result = detectIntentStream(userQuestion, languageCode);
+
+      if (result == null) {
+        response.getWriter().write(new Gson().toJson(null));
+        return;
+      }
+      AgentContext context =
+          new AgentContext(
+              result.getQueryText(),
+              languageCode,
+              sessionID,
+              userService,
+              datastore,
+              createRecommendationsClient());
+      Output output = null;
+      try {
+        output = AgentUtils.getOutput(result, context);
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+      // Convert to JSON string
+      String json = new Gson().toJson(output);
+      response.getWriter().write(json);
+    } finally {
+      Tracer.endRequest();
     }
-    // Convert to JSON string
-    String json = new Gson().toJson(output);
-    response.getWriter().write(json);
   }
 
   /**
@@ -90,8 +129,11 @@ public class TextInputServlet extends HttpServlet {
   public DialogFlowClient detectIntentStream(String text, String languageCode) {
     DialogFlowClient dialogFlowResult = null;
 
-    try (SessionsClient sessionsClient = SessionsClient.create()) {
-      dialogFlowResult = createDialogFlow(text, languageCode, sessionsClient);
+    try {
+      SessionsClient sessionsClient = CloudClients.getSessionsClient();
+      try (Tracer.Span span = Tracer.start("stage.detect-intent")) {
+        dialogFlowResult = createDialogFlow(text, languageCode, sessionsClient);
+      }
 
       log.info("====================");
       log.info("Query Text: '" + dialogFlowResult.getQueryText() + "'\n");
@@ -109,9 +151,33 @@ public class TextInputServlet extends HttpServlet {
     return dialogFlowResult;
   }
 
+  /**
+   * Detects the intent of the user's input text, reusing the result of an identical earlier query
+   * when its intent is context-free.
+   *
+   * @param text User input in text form
+   * @param languageCode Two-letter representation of input language
+   * @param sessionsClient Instance of the current dialogflow session
+   * @return DialogFlow Client instance containing dialogflow result
+   */
   protected DialogFlowClient createDialogFlow(
       String text, String languageCode, SessionsClient sessionsClient) {
-    return new DialogFlowClient(text, languageCode, sessionsClient);
+    QueryResult cached = intentCache.get(text, languageCode);
+    if (cached != null) {
+      return DialogFlowClient.fromQueryResult(cached);
+    }
+    DialogFlowClient result = DialogFlowClient.forText(text, languageCode, sessionsClient);
+    intentCache.put(text, languageCode, result.getQueryResult());
+    return result;
+  }
+
+  /**
+   * Reports statistics of the detect-intent cache shared by all text queries.
+   *
+   * @return Map of statistic name to value
+   */
+  public static Map<String, Long> getCacheStats() {
+    return intentCache.getStats();
   }
 
   protected UserService createUserService() {
@@ -122,6 +188,12 @@ public class TextInputServlet extends HttpServlet {
     return DatastoreServiceFactory.getDatastoreService();
   }
 
+  /**
+   * Creates the recommendations client of one request. Clients hold the ID of the request's user,
+   * so each request gets its own.
+   *
+   * @return New recommendations client using the shared backend
+   */
   protected RecommendationsClient createRecommendationsClient() {
     return new RecommendationsClient();
   }
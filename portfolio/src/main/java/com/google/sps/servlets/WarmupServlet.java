@@ -0,0 +1,141 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.gson.Gson;
+import com.google.sps.data.Location;
+import com.google.sps.data.RecommendationsClient;
+import com.google.sps.utils.AgentUtils;
+import com.google.sps.utils.BooksSetUpHelper;
+import com.google.sps.utils.CloudClients;
+import com.google.sps.utils.LocalIntentMatcher;
+import com.google.sps.utils.MemoryUtils;
+import com.google.sps.utils.ResourceFiles;
+import com.google.sps.utils.Tracer;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Servlet for App Engine warmup requests. App Engine sends a request to /_ah/warmup to a new
+ * instance before routing user traffic to it, so the one-time initialization that would otherwise
+ * land on the first user request is done here: loading classes, opening the gRPC channels of the
+ * Cloud clients, reading the API keys and OAuth client credentials, building the local intent
+ * matcher, seeding Datastore and setting up the demo book likes.
+ */
+@WebServlet("/_ah/warmup")
+public class WarmupServlet extends HttpServlet {
+
+  private static Logger log = LoggerFactory.getLogger(WarmupServlet.class);
+  private static volatile Map<String, Long> lastStepMillis = Collections.emptyMap();
+
+  /** One step of instance initialization. */
+  interface Step {
+    void run() throws Exception;
+  }
+
+  /**
+   * GET method that runs every initialization step, recording how long each took. A step that
+   * fails is logged and skipped so that the remaining steps still run; the failed step is retried
+   * lazily by the first request that needs it.
+   *
+   * @param request HTTP request
+   * @param response Writer to return a JSON map of step name to milliseconds taken, or -1 if the
+   *     step failed
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    Tracer.beginRequest("warmup");
+    try {
+      DatastoreService datastore = createDatastore();
+      Map<String, Long> stepMillis = new LinkedHashMap<>();
+      runStep(stepMillis, "classes", () -> AgentUtils.getLanguageCode("English"));
+      runStep(
+          stepMillis,
+          "dialogflow",
+          () -> {
+            CloudClients.getSessionsClient();
+            CloudClients.getContextsClient();
+          });
+      runStep(stepMillis, "speech", CloudClients::getSpeechClient);
+      runStep(stepMillis, "textToSpeech", CloudClients::getTextToSpeechClient);
+      runStep(stepMillis, "translate", CloudClients::getTranslate);
+      runStep(stepMillis, "intentMatcher", LocalIntentMatcher::getInstance);
+      runStep(
+          stepMillis,
+          "apiKeys",
+          () -> {
+            ResourceFiles.read("/files/apikey.txt");
+            ResourceFiles.read("/files/youtubeAPIKey.txt");
+            Location.getGeoApiContext();
+          });
+      runStep(
+          stepMillis,
+          "oauthCredentials",
+          () -> {
+            ResourceFiles.read("/files/clientid.txt");
+            ResourceFiles.read("/files/clientsecret.txt");
+          });
+      runStep(stepMillis, "recommendations", RecommendationsClient::new);
+      runStep(stepMillis, "seedDatabase", () -> MemoryUtils.seedDatabase(datastore));
+      runStep(stepMillis, "bookLikes", () -> BooksSetUpHelper.setUpBookLikesOnce(datastore));
+      lastStepMillis = Collections.unmodifiableMap(stepMillis);
+      log.info("Warmup finished: " + stepMillis);
+
+      response.setContentType("application/json");
+      response.getWriter().write(new Gson().toJson(stepMillis));
+    } finally {
+      Tracer.endRequest();
+    }
+  }
+
+  /**
+   * Returns how long each step of the last warmup of this instance took.
+   *
+   * @return Map of step name to milliseconds taken, or -1 if the step failed; empty if the instance
+   *     has not been warmed up
+   */
+  public static Map<String, Long> getLastStepMillis() {
+    return lastStepMillis;
+  }
+
+  private static void runStep(Map<String, Long> stepMillis, String name, Step step) {
+    long start = System.currentTimeMillis();
+    try {
+      step.run();
+      long millis = System.currentTimeMillis() - start;
+      Tracer.record("warmup." + name, millis);
+      stepMillis.put(name, millis);
+    } catch (Exception e) {
+      log.error("Warmup step " + name + " failed", e);
+      stepMillis.put(name, -1L);
+    }
+  }
+
+  protected DatastoreService createDatastore() {
+    return DatastoreServiceFactory.getDatastoreService();
+  }
+}
@@ -23,7 +23,6 @@ import com.google.appengine.api.log.InvalidRequestException;
 import com.google.appengine.api.users.UserService;
 import com.google.cloud.translate.TranslateException;
 import com.google.maps.errors.ApiException;
-import com.google.protobuf.ByteString;
 import com.google.protobuf.Value;
 import com.google.sps.agents.Agent;
 import com.google.sps.agents.BooksAgent;
@@ -42,6 +41,7 @@ import com.google.sps.agents.UnitConverterAgent;
 import com.google.sps.agents.WeatherAgent;
 import com.google.sps.agents.WebSearchAgent;
 import com.google.sps.agents.WorkoutAgent;
+import com.google.sps.data.AgentContext;
 import com.google.sps.data.DialogFlowClient;
 import com.google.sps.data.Output;
 import com.google.sps.data.RecommendationsClient;
@@ -54,10 +54,6 @@ import org.slf4j.LoggerFactory;
 /** Identifies agent from Dialogflow API Query result and creates Output object */
 public class AgentUtils {
 
-  public static String detectedInput;
-  private static UserService userService;
-  private static DatastoreService datastore;
-  private static RecommendationsClient recommender;
   private static Logger log = LoggerFactory.getLogger(AgentUtils.class);
   public static final String DEFAULT_FALLBACK =
       "I'm sorry, I didn't catch that. Can you repeat that?";
@@ -88,22 +84,42 @@ public class AgentUtils {
       DatastoreService datastoreInput,
       String sessionID,
       RecommendationsClient recommenderInput) {
+    AgentContext context =
+        new AgentContext(
+            queryResult.getQueryText(),
+            languageCode,
+            sessionID,
+            userServiceInput,
+            datastoreInput,
+            recommenderInput);
+    return getOutput(queryResult, context);
+  }
+
+  /**
+   * Creates the Output object for the given Dialogflow result using only the request state held by
+   * the given context. See getOutput above. Once the fulfillment is known, the comment history
+   * write is queued as a task, so the Datastore writes run after the reply has been sent.
+   *
+   * @param queryResult DialogFlowClient object which contains all attributes of Dialogflow's intent
+   *     detection.
+   * @param context AgentContext holding the state of the current request
+   * @return Output object containing all output audio, text, and display information.
+   */
+  public static Output getOutput(DialogFlowClient queryResult, AgentContext context) {
     String fulfillment = null;
     String display = null;
     String redirect = null;
-    byte[] byteStringToByteArray = null;
+    String audioUrl = null;
     Agent object = null;
 
     String detectedIntent = queryResult.getIntentName();
     Boolean allParamsPresent = queryResult.getAllRequiredParamsPresent();
     String agentName = getAgentName(detectedIntent);
     String intentName = getIntentName(detectedIntent);
-    userService = userServiceInput;
-    datastore = datastoreInput;
-    recommender = recommenderInput;
+    UserService userService = context.getUserService();
 
     // Retrieve detected input from DialogFlow result.
-    detectedInput = queryResult.getQueryText();
+    String detectedInput = context.getQueryText();
     if (detectedInput.equals("")) {
       return null;
     }
@@ -113,9 +129,11 @@ public class AgentUtils {
     fulfillment = queryResult.getFulfillmentText();
 
     // Set fulfillment if parameters are present, upon any exceptions return default
+    Tracer.setIntent(detectedIntent);
+    long agentStart = System.currentTimeMillis();
     if (allParamsPresent) {
-      try {
-        object = createAgent(agentName, intentName, detectedInput, parameterMap, sessionID);
+      try (Tracer.Span span = Tracer.start("agent." + agentName)) {
+        object = createAgent(agentName, intentName, parameterMap, context);
         fulfillment = object.getOutput();
         fulfillment = fulfillment == null ? queryResult.getFulfillmentText() : fulfillment;
         display = object.getDisplay();
@@ -138,14 +156,28 @@ public class AgentUtils {
     if (fulfillment.equals("")) {
       fulfillment = DEFAULT_FALLBACK;
     }
+    context.recordStage("agent", agentStart);
+    String finalFulfillment = fulfillment;
     if (userService.isUserLoggedIn()) {
-      MemoryUtils.saveComment(
-          userService.getCurrentUser().getUserId(), datastore, detectedInput, fulfillment);
+      long historyStart = System.currentTimeMillis();
+      MemoryUtils.queueSaveComment(
+          userService.getCurrentUser().getUserId(),
+          context.getDatastore(),
+          detectedInput,
+          finalFulfillment);
+      context.recordStage("history", historyStart);
     }
-    byteStringToByteArray = getByteStringToByteArray(fulfillment, languageCode);
+    // Speech is synthesized when the audio URL is fetched, not while the reply is built.
+    long audioStart = System.currentTimeMillis();
+    try {
+      audioUrl = getAudioUrl(finalFulfillment, context.getLanguageCode());
+    } finally {
+      context.recordStage("audioUrl", audioStart);
+    }
+    log.info("Stage timings (ms): " + context.getStageMillis());
     Output output =
         new Output(
-            detectedInput, fulfillment, byteStringToByteArray, display, redirect, detectedIntent);
+            detectedInput, fulfillment, audioUrl, display, redirect, detectedIntent);
     return output;
   }
 
@@ -154,28 +186,30 @@ public class AgentUtils {
    *
    * @param agentName Name of the agent to be created
    * @param intentName Intent corresponding to the agent
-   * @param queryText Textual user input
    * @param parameterMap Map containing the detected entities in the user's intent
-   * @param sessionID The current user's session ID
+   * @param context AgentContext holding the state of the current request
    * @return Created agent
    */
   private static Agent createAgent(
-      String agentName,
-      String intentName,
-      String queryText,
-      Map<String, Value> parameterMap,
-      String sessionID)
+      String agentName, String intentName, Map<String, Value> parameterMap, AgentContext context)
       throws IllegalStateException, IOException, ApiException, InterruptedException,
           ArrayIndexOutOfBoundsException, InvalidRequestException, EntityNotFoundException,
           URISyntaxException {
+    UserService userService = context.getUserService();
+    DatastoreService datastore = context.getDatastore();
     switch (agentName) {
       case "books":
         return new BooksAgent(
-            intentName, queryText, parameterMap, sessionID, userService, datastore);
+            intentName,
+            context.getQueryText(),
+            parameterMap,
+            context.getSessionID(),
+            userService,
+            datastore);
       case "calculator":
         return new TipAgent(intentName, parameterMap);
       case "currency":
-        return new CurrencyAgent(intentName, parameterMap);
+        return new CurrencyAgent(intentName, context.getQueryText(), parameterMap);
       case "date":
         return new DateAgent(intentName, parameterMap);
       case "language":
@@ -183,7 +217,8 @@ public class AgentUtils {
       case "maps":
         return new MapsAgent(intentName, parameterMap);
       case "memory":
-        return new MemoryAgent(intentName, parameterMap, userService, datastore, recommender);
+        return new MemoryAgent(
+            intentName, parameterMap, userService, datastore, context.getRecommender());
       case "name":
         return new NameAgent(intentName, parameterMap, userService, datastore);
       case "reminders":
@@ -234,30 +269,20 @@ public class AgentUtils {
   }
 
   /**
-   * Retrieves the raw textual user input.
-   *
-   * @return Textual form of user input to determined by speech to text
-   */
-  public static String getUserInput() {
-    return detectedInput;
-  }
-
-  /**
-   * Creates audio file byte array for audio output
+   * Returns the URL that serves the audio of the output (see AudioOutputServlet). The audio is
+   * synthesized when the URL is first fetched, so the reply does not wait for speech synthesis.
    *
    * @param fulfillment String containing textual response from assistant
    * @param languageCode Two-letter representation of output audio language
-   * @return byte array containing the output audio recording
+   * @return URL of the output audio recording, or null if the phrase could not be stored
    */
-  public static byte[] getByteStringToByteArray(String fulfillment, String languageCode) {
-    byte[] byteArray = null;
+  public static String getAudioUrl(String fulfillment, String languageCode) {
     try {
-      ByteString audioResponse = SpeechUtils.synthesizeText(fulfillment, languageCode);
-      byteArray = audioResponse.toByteArray();
-    } catch (Exception e) {
-      e.printStackTrace();
+      return "/audio-output?id=" + SpeechUtils.registerPhrase(fulfillment, languageCode);
+    } catch (RuntimeException e) {
+      log.error("Cannot store audio phrase", e);
     }
-    return byteArray;
+    return null;
   }
 
   /**
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.utils;
+
+import com.google.apphosting.api.ApiProxy;
+
+/**
+ * Carries the App Engine API environment of a request to a pooled worker thread, so that the
+ * worker can make Datastore, Memcache and other API calls on the request's behalf. The environment
+ * is only attached for the duration of the work: a pooled thread must not keep the environment of
+ * a finished request for the next task it runs.
+ */
+public class ApiEnvironment {
+
+  /** Attachment of an environment to a thread, which restores the previous one when closed. */
+  public static class Scope implements AutoCloseable {
+    private final ApiProxy.Environment previous;
+
+    private Scope(ApiProxy.Environment previous) {
+      this.previous = previous;
+    }
+
+    @Override
+    public void close() {
+      if (previous == null) {
+        ApiProxy.clearEnvironmentForCurrentThread();
+      } else {
+        ApiProxy.setEnvironmentForCurrentThread(previous);
+      }
+    }
+  }
+
+  /**
+   * Makes an environment current on this thread until the returned scope is closed. Use with
+   * try-with-resources on the worker thread, passing the environment captured on the request
+   * thread with ApiProxy.getCurrentEnvironment().
+   *
+   * @param environment Environment to attach, or null to run without one
+   * @return Scope that restores the thread's previous environment when closed
+   */
+  public static Scope attach(ApiProxy.Environment environment) {
+    Scope scope = new Scope(ApiProxy.getCurrentEnvironment());
+    if (environment == null) {
+      ApiProxy.clearEnvironmentForCurrentThread();
+    } else {
+      ApiProxy.setEnvironmentForCurrentThread(environment);
+    }
+    return scope;
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.utils;
+
+import com.google.protobuf.ByteString;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of synthesized speech audio keyed by text, language and voice. Entries are kept in
+ * an in-memory LRU tier limited by total bytes, and optionally in a local-disk tier that survives
+ * the memory tier's evictions. The disk tier is also limited by total bytes and evicts its least
+ * recently used files; files already in the directory are indexed at startup, oldest first. Keys
+ * are SHA-256 hashes, so they can also be handed out as audio handles without revealing the text.
+ */
+public class AudioCache {
+
+  private static Logger log = LoggerFactory.getLogger(AudioCache.class);
+  public static final long DEFAULT_MAX_DISK_BYTES = 64 * 1024 * 1024;
+  private static final String DISK_SUFFIX = ".mp3";
+  private final long maxMemoryBytes;
+  private final File diskDirectory;
+  private final long maxDiskBytes;
+  private final LinkedHashMap<String, ByteString> memory = new LinkedHashMap<>(16, 0.75f, true);
+  private long memoryBytes = 0;
+  // Sizes of the files of the disk tier, in least recently used order. Guarded by itself.
+  private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+  private long diskBytes = 0;
+
+  /**
+   * AudioCache constructor with a disk tier of at most DEFAULT_MAX_DISK_BYTES.
+   *
+   * @param maxMemoryBytes Maximum total size in bytes of the audio kept in memory
+   * @param diskDirectory Directory of the disk tier, or null to only cache in memory
+   */
+  public AudioCache(long maxMemoryBytes, File diskDirectory) {
+    this(maxMemoryBytes, diskDirectory, DEFAULT_MAX_DISK_BYTES);
+  }
+
+  /**
+   * AudioCache constructor.
+   *
+   * @param maxMemoryBytes Maximum total size in bytes of the audio kept in memory
+   * @param diskDirectory Directory of the disk tier, or null to only cache in memory
+   * @param maxDiskBytes Maximum total size in bytes of the audio files kept on disk
+   */
+  public AudioCache(long maxMemoryBytes, File diskDirectory, long maxDiskBytes) {
+    this.maxMemoryBytes = maxMemoryBytes;
+    this.diskDirectory = diskDirectory;
+    this.maxDiskBytes = maxDiskBytes;
+    if (diskDirectory != null && !diskDirectory.isDirectory() && !diskDirectory.mkdirs()) {
+      log.error("Cannot create audio cache directory " + diskDirectory);
+    }
+    indexDisk();
+  }
+
+  /**
+   * Builds the cache key of a synthesized phrase.
+   *
+   * @param text Text that was synthesized
+   * @param languageCode Language of the synthesized speech
+   * @param voice Name of the voice the speech was synthesized with
+   * @return Cache key as 64 lowercase hex characters
+   */
+  public static String key(String text, String languageCode, String voice) {
+    try {
+      byte[] hash =
+          MessageDigest.getInstance("SHA-256")
+              .digest((languageCode + "|" + voice + "|" + text).getBytes(StandardCharsets.UTF_8));
+      StringBuilder key = new StringBuilder();
+      for (byte b : hash) {
+        key.append(String.format("%02x", b));
+      }
+      return key.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Checks whether a string has the form of a cache key.
+   *
+   * @param key String to check
+   * @return true if the string is 64 lowercase hex characters
+   */
+  public static boolean isKey(String key) {
+    return key != null && key.matches("[0-9a-f]{64}");
+  }
+
+  /**
+   * Looks up audio in memory first and then on disk. Audio found on disk is promoted to memory.
+   *
+   * @param key Cache key built by key()
+   * @return Cached audio or null if the key is not cached
+   */
+  public ByteString get(String key) {
+    synchronized (this) {
+      ByteString audio = memory.get(key);
+      if (audio != null) {
+        return audio;
+      }
+    }
+    File file = diskFile(key);
+    if (file == null) {
+      return null;
+    }
+    synchronized (disk) {
+      // Also marks the file as recently used.
+      if (disk.get(key) == null) {
+        return null;
+      }
+    }
+    try {
+      ByteString audio = ByteString.copyFrom(Files.readAllBytes(file.toPath()));
+      file.setLastModified(System.currentTimeMillis());
+      putInMemory(key, audio);
+      return audio;
+    } catch (IOException e) {
+      log.error("Cannot read cached audio " + file, e);
+      return null;
+    }
+  }
+
+  /**
+   * Stores audio in memory and, if enabled, on disk. Least recently used files are then deleted
+   * until the disk tier fits its size limit. Audio larger than the whole limit is not written.
+   *
+   * @param key Cache key built by key()
+   * @param audio Synthesized audio
+   */
+  public void put(String key, ByteString audio) {
+    putInMemory(key, audio);
+    File file = diskFile(key);
+    if (file == null || audio.size() > maxDiskBytes) {
+      return;
+    }
+    synchronized (disk) {
+      if (disk.containsKey(key)) {
+        return;
+      }
+    }
+    try {
+      // Write to a temporary file first so that readers never see a partial file.
+      File temp = File.createTempFile("audio", ".tmp", diskDirectory);
+      Files.write(temp.toPath(), audio.toByteArray());
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      log.error("Cannot write cached audio " + file, e);
+      return;
+    }
+    synchronized (disk) {
+      Long previous = disk.put(key, (long) audio.size());
+      diskBytes += audio.size() - (previous == null ? 0 : previous);
+      evictDisk();
+    }
+  }
+
+  public synchronized int memoryEntries() {
+    return memory.size();
+  }
+
+  public synchronized long memoryBytes() {
+    return memoryBytes;
+  }
+
+  public int diskEntries() {
+    synchronized (disk) {
+      return disk.size();
+    }
+  }
+
+  public long diskBytes() {
+    synchronized (disk) {
+      return diskBytes;
+    }
+  }
+
+  /**
+   * Adds audio to the memory tier and evicts least recently used entries until it fits the size
+   * limit. Audio larger than the whole limit is not kept in memory.
+   */
+  private synchronized void putInMemory(String key, ByteString audio) {
+    if (audio.size() > maxMemoryBytes) {
+      return;
+    }
+    ByteString previous = memory.put(key, audio);
+    memoryBytes += audio.size() - (previous == null ? 0 : previous.size());
+    Iterator<Map.Entry<String, ByteString>> eldest = memory.entrySet().iterator();
+    while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+      memoryBytes -= eldest.next().getValue().size();
+      eldest.remove();
+    }
+  }
+
+  /**
+   * Indexes the audio files left in the disk tier by an earlier instance, oldest first, deletes
+   * temporary files of interrupted writes and evicts files until the tier fits its size limit.
+   */
+  private void indexDisk() {
+    File[] files = diskDirectory == null ? null : diskDirectory.listFiles();
+    if (files == null) {
+      return;
+    }
+    Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+    synchronized (disk) {
+      for (File file : files) {
+        String name = file.getName();
+        if (name.endsWith(".tmp")) {
+          file.delete();
+        } else if (name.endsWith(DISK_SUFFIX)) {
+          String key = name.substring(0, name.length() - DISK_SUFFIX.length());
+          if (isKey(key)) {
+            disk.put(key, file.length());
+            diskBytes += file.length();
+          }
+        }
+      }
+      evictDisk();
+    }
+  }
+
+  /** Deletes least recently used files until the disk tier fits its size limit. */
+  private void evictDisk() {
+    Iterator<Map.Entry<String, Long>> eldest = disk.entrySet().iterator();
+    while (diskBytes > maxDiskBytes && eldest.hasNext()) {
+      Map.Entry<String, Long> entry = eldest.next();
+      File file = diskFile(entry.getKey());
+      if (!file.delete() && file.exists()) {
+        log.error("Cannot delete cached audio " + file);
+      }
+      diskBytes -= entry.getValue();
+      eldest.remove();
+    }
+  }
+
+  private File diskFile(String key) {
+    if (diskDirectory == null || !isKey(key)) {
+      return null;
+    }
+    return new File(diskDirectory, key + DISK_SUFFIX);
+  }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Prepares 16-bit linear PCM audio for recognition. Audio is downmixed to mono, downsampled to at
+ * most TARGET_SAMPLE_RATE with a windowed-sinc low-pass filter, and silence is trimmed with an energy-based voice activity detector
+ * working on FRAME_MILLIS frames. Only voiced frames are kept, together with PREROLL_FRAMES of
+ * silence before and HANGOVER_FRAMES after each stretch of speech, so leading and trailing silence
+ * is dropped and long pauses are shortened. Audio is processed incrementally so it can be
+ * forwarded while it is still arriving.
+ */
+public class AudioPreprocessor implements AudioStage {
+
+  public static final int TARGET_SAMPLE_RATE = 16000;
+  public static final int DEFAULT_INPUT_SAMPLE_RATE = 48000;
+  private static final int FRAME_MILLIS = 20;
+  private static final int PREROLL_FRAMES = 10;
+  private static final int HANGOVER_FRAMES = 15;
+  // Frames louder than both this RMS level (about -40 dBFS) and NOISE_FLOOR_RATIO times the
+  // running noise floor are voiced.
+  private static final double MIN_SPEECH_RMS = 300;
+  private static final double NOISE_FLOOR_RATIO = 3.0;
+  private static final double NOISE_FLOOR_DECAY = 0.95;
+  private static final int RIFF_HEADER_SIZE = 12;
+  private static final int CHUNK_HEADER_SIZE = 8;
+  private static final int MAX_HEADER_CHUNK_SIZE = 1 << 16;
+  // The resampling filter passes up to CUTOFF times the output Nyquist frequency and is a Blackman
+  // windowed sinc spanning ZERO_CROSSINGS zero crossings on each side, tabulated at
+  // KERNEL_RESOLUTION points per input sample.
+  private static final double CUTOFF = 0.9;
+  private static final int ZERO_CROSSINGS = 8;
+  private static final int KERNEL_RESOLUTION = 64;
+  private final int channels;
+  private final int outputSampleRate;
+  private final double step;
+  private final byte[] partialFrame;
+  private int partialLength = 0;
+  private final double halfWidth;
+  private final double[] kernel;
+  // Recent mono input samples; history[0] is input sample historyStart. Samples before neededStart
+  // are no longer used and are dropped when the array fills up.
+  private double[] history;
+  private int historyLength = 0;
+  private long historyStart = 0;
+  private long neededStart = 0;
+  private long inputFrames = 0;
+  private long outputFrames = 0;
+  private short[] frame;
+  private int frameLength = 0;
+  private final ArrayDeque<short[]> preroll = new ArrayDeque<>();
+  private int hangoverLeft = 0;
+  private int speechFrames = 0;
+  private double noiseFloor = MIN_SPEECH_RMS / NOISE_FLOOR_RATIO;
+
+  /**
+   * AudioPreprocessor constructor.
+   *
+   * @param inputSampleRate Sample rate in hertz of the input audio
+   * @param channels Number of interleaved channels in the input audio
+   */
+  public AudioPreprocessor(int inputSampleRate, int channels) {
+    if (inputSampleRate <= 0 || channels <= 0) {
+      throw new IllegalArgumentException("Invalid audio format");
+    }
+    this.channels = channels;
+    outputSampleRate = Math.min(inputSampleRate, TARGET_SAMPLE_RATE);
+    step = (double) inputSampleRate / outputSampleRate;
+    // Scaled to the input rate, the filter's zero crossings are step / CUTOFF samples apart.
+    halfWidth = step == 1 ? 0 : ZERO_CROSSINGS * step / CUTOFF;
+    kernel = lowPassKernel(halfWidth, CUTOFF / step);
+    history = new double[2 * ((int) (2 * halfWidth + step) + 2)];
+    partialFrame = new byte[channels * 2];
+    frame = new short[outputSampleRate * FRAME_MILLIS / 1000];
+  }
+
+  /**
+   * Opens a recording for preprocessing. A WAV header is parsed for the sample rate and number of
+   * channels, and input without a RIFF header is treated as mono 16-bit linear PCM.
+   *
+   * @param in Recording as a WAV file or raw 16-bit little-endian linear PCM
+   * @param sampleRate Sample rate in hertz of the recording, or 0 to read it from the WAV header
+   * @return Stream of the preprocessed mono 16-bit little-endian linear PCM audio
+   * @throws IOException if the recording cannot be read or is not 16-bit PCM
+   */
+  public static AudioStageInputStream open(InputStream in, int sampleRate) throws IOException {
+    PushbackInputStream input = new PushbackInputStream(in, RIFF_HEADER_SIZE);
+    byte[] riff = readFully(input, RIFF_HEADER_SIZE);
+    int channels = 1;
+    if (riff.length == RIFF_HEADER_SIZE
+        && tag(riff, 0).equals("RIFF")
+        && tag(riff, 8).equals("WAVE")) {
+      while (true) {
+        byte[] chunk = readFully(input, CHUNK_HEADER_SIZE);
+        if (chunk.length < CHUNK_HEADER_SIZE) {
+          throw new IOException("WAV recording has no data chunk");
+        }
+        if (tag(chunk, 0).equals("data")) {
+          break;
+        }
+        int size = littleEndian(chunk, 4, 4);
+        if (size < 0 || size > MAX_HEADER_CHUNK_SIZE) {
+          throw new IOException("Invalid WAV chunk size " + size);
+        }
+        // Chunks are padded to an even number of bytes.
+        byte[] body = readFully(input, size + (size & 1));
+        if (tag(chunk, 0).equals("fmt ") && body.length >= 16) {
+          channels = littleEndian(body, 2, 2);
+          if (channels == 0 || littleEndian(body, 14, 2) != 16) {
+            throw new IOException("Only 16-bit PCM WAV recordings are supported");
+          }
+          if (sampleRate <= 0) {
+            sampleRate = littleEndian(body, 4, 4);
+          }
+        }
+      }
+    } else {
+      input.unread(riff);
+    }
+    if (sampleRate <= 0) {
+      sampleRate = DEFAULT_INPUT_SAMPLE_RATE;
+    }
+    AudioPreprocessor preprocessor = new AudioPreprocessor(sampleRate, channels);
+    return new AudioStageInputStream(input, preprocessor, preprocessor.getOutputSampleRate());
+  }
+
+  /**
+   * Processes the next part of the input audio. Samples may be split across calls.
+   *
+   * @param data Interleaved 16-bit little-endian linear PCM samples
+   * @param offset Start of the samples in data
+   * @param length Number of bytes to process
+   * @return Mono 16-bit linear PCM that is ready to be forwarded, possibly empty
+   */
+  @Override
+  public byte[] process(byte[] data, int offset, int length) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int end = offset + length;
+    int i = offset;
+    while (true) {
+      while (partialLength < partialFrame.length && i < end) {
+        partialFrame[partialLength++] = data[i++];
+      }
+      if (partialLength < partialFrame.length) {
+        return out.toByteArray();
+      }
+      partialLength = 0;
+      addInputFrame(out);
+    }
+  }
+
+  /**
+   * Ends the input audio. A partial last frame is kept only if it belongs to speech.
+   *
+   * @return Remaining preprocessed audio, possibly empty
+   */
+  @Override
+  public byte[] finish() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    // Input after the end is taken as silence, so the last output samples can be computed.
+    while (outputFrames * step < inputFrames) {
+      addOutputSample(out);
+    }
+    if (hangoverLeft > 0) {
+      write(Arrays.copyOf(frame, frameLength), out);
+    }
+    frameLength = 0;
+    preroll.clear();
+    return out.toByteArray();
+  }
+
+  public int getOutputSampleRate() {
+    return outputSampleRate;
+  }
+
+  /** Returns whether any voiced frame has been seen so far. */
+  public boolean hasSpeech() {
+    return speechFrames > 0;
+  }
+
+  /**
+   * Downmixes one input sample frame into the filter history and computes every output sample
+   * whose filter window the history now covers.
+   */
+  private void addInputFrame(ByteArrayOutputStream out) {
+    int sum = 0;
+    for (int c = 0; c < channels; c++) {
+      sum += (short) ((partialFrame[2 * c] & 0xff) | (partialFrame[2 * c + 1] << 8));
+    }
+    if (historyLength == history.length) {
+      int drop = (int) (neededStart - historyStart);
+      System.arraycopy(history, drop, history, 0, historyLength - drop);
+      historyLength -= drop;
+      historyStart = neededStart;
+      if (historyLength == history.length) {
+        history = Arrays.copyOf(history, 2 * history.length);
+      }
+    }
+    history[historyLength++] = (double) sum / channels;
+    inputFrames++;
+    while (outputFrames * step + halfWidth < inputFrames) {
+      addOutputSample(out);
+    }
+  }
+
+  /**
+   * Computes the next output sample by applying the low-pass filter centered on its position in
+   * the input.
+   */
+  private void addOutputSample(ByteArrayOutputStream out) {
+    double center = outputFrames * step;
+    long first = Math.max((long) Math.ceil(center - halfWidth), historyStart);
+    long last = Math.min((long) Math.floor(center + halfWidth), inputFrames - 1);
+    double sum = 0;
+    double weights = 0;
+    for (long n = first; n <= last; n++) {
+      double weight = kernelAt(center - n);
+      sum += weight * history[(int) (n - historyStart)];
+      weights += weight;
+    }
+    short sample =
+        (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(sum / weights)));
+    outputFrames++;
+    neededStart =
+        Math.max(neededStart, Math.min((long) Math.ceil(outputFrames * step - halfWidth), last + 1));
+
+    frame[frameLength++] = sample;
+    if (frameLength == frame.length) {
+      addFrame(frame, out);
+      frame = new short[frame.length];
+      frameLength = 0;
+    }
+  }
+
+  /**
+   * Looks up the filter kernel with linear interpolation between tabulated points.
+   *
+   * @param distance Distance in input samples from the center of the filter
+   * @return Filter weight, 0 outside the filter
+   */
+  private double kernelAt(double distance) {
+    double position = Math.abs(distance) * KERNEL_RESOLUTION;
+    int index = (int) position;
+    if (index >= kernel.length - 1) {
+      return index == kernel.length - 1 && position == index ? kernel[index] : 0;
+    }
+    double fraction = position - index;
+    return kernel[index] + fraction * (kernel[index + 1] - kernel[index]);
+  }
+
+  /**
+   * Tabulates one side of a Blackman windowed-sinc low-pass filter.
+   *
+   * @param halfWidth Half the length of the filter in input samples, 0 for no filtering
+   * @param cutoff Cutoff frequency as a fraction of the input Nyquist frequency
+   * @return Filter weights at distances 0, 1 / KERNEL_RESOLUTION, ... up to halfWidth
+   */
+  private static double[] lowPassKernel(double halfWidth, double cutoff) {
+    double[] kernel = new double[(int) (halfWidth * KERNEL_RESOLUTION) + 1];
+    for (int i = 0; i < kernel.length; i++) {
+      double distance = (double) i / KERNEL_RESOLUTION;
+      double x = Math.PI * cutoff * distance;
+      double sinc = i == 0 ? 1 : Math.sin(x) / x;
+      double phase = halfWidth == 0 ? 0 : Math.PI * distance / halfWidth;
+      double window = 0.42 + 0.5 * Math.cos(phase) + 0.08 * Math.cos(2 * phase);
+      kernel[i] = sinc * window;
+    }
+    return kernel;
+  }
+
+  /**
+   * Classifies a complete output frame as voiced or silent and writes or holds it accordingly.
+   *
+   * @param samples Mono samples of the frame
+   * @param out Output for frames that are kept
+   */
+  private void addFrame(short[] samples, ByteArrayOutputStream out) {
+    double rms = rms(samples);
+    if (rms > Math.max(MIN_SPEECH_RMS, noiseFloor * NOISE_FLOOR_RATIO)) {
+      for (short[] held : preroll) {
+        write(held, out);
+      }
+      preroll.clear();
+      write(samples, out);
+      hangoverLeft = HANGOVER_FRAMES;
+      speechFrames++;
+      return;
+    }
+    noiseFloor = NOISE_FLOOR_DECAY * noiseFloor + (1 - NOISE_FLOOR_DECAY) * rms;
+    if (hangoverLeft > 0) {
+      write(samples, out);
+      hangoverLeft--;
+    } else {
+      preroll.addLast(samples);
+      if (preroll.size() > PREROLL_FRAMES) {
+        preroll.removeFirst();
+      }
+    }
+  }
+
+  private static double rms(short[] samples) {
+    double sum = 0;
+    for (short sample : samples) {
+      sum += (double) sample * sample;
+    }
+    return samples.length == 0 ? 0 : Math.sqrt(sum / samples.length);
+  }
+
+  private static void write(short[] samples, ByteArrayOutputStream out) {
+    for (short sample : samples) {
+      out.write(sample & 0xff);
+      out.write((sample >> 8) & 0xff);
+    }
+  }
+
+  private static String tag(byte[] data, int offset) {
+    return new String(data, offset, 4, StandardCharsets.US_ASCII);
+  }
+
+  private static int littleEndian(byte[] data, int offset, int length) {
+    int value = 0;
+    for (int i = length - 1; i >= 0; i--) {
+      value = (value << 8) | (data[offset + i] & 0xff);
+    }
+    return value;
+  }
+
+  /**
+   * Reads up to length bytes from a stream.
+   *
+   * @param in Stream to read
+   * @param length Number of bytes to read
+   * @return The bytes read, shorter than length only if the stream ended
+   */
+  private static byte[] readFully(InputStream in, int length) throws IOException {
+    byte[] data = new byte[length];
+    int total = 0;
+    int read;
+    while (total < length && (read = in.read(data, total, length - total)) != -1) {
+      total += read;
+    }
+    return total == length ? data : Arrays.copyOf(data, total);
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.utils;
+
+import java.io.IOException;
+
+/** An incremental transformation of recorded audio that is applied while the audio arrives. */
+public interface AudioStage {
+
+  /**
+   * Processes the next part of the input audio.
+   *
+   * @param data Input audio bytes
+   * @param offset Start of the audio in data
+   * @param length Number of bytes to process
+   * @return Output audio that is ready to be forwarded, possibly empty
+   * @throws IOException if the input audio is malformed
+   */
+  byte[] process(byte[] data, int offset, int length) throws IOException;
+
+  /**
+   * Ends the input audio.
+   *
+   * @return Remaining output audio, possibly empty
+   * @throws IOException if the input audio ended in the middle of a unit it cannot skip
+   */
+  byte[] finish() throws IOException;
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Stream of processed audio that reads its source and applies an AudioStage on demand. */
+public class AudioStageInputStream extends InputStream {
+
+  private static final int READ_SIZE = 8192;
+  private final InputStream in;
+  private final AudioStage stage;
+  private final int sampleRate;
+  private final byte[] readBuffer = new byte[READ_SIZE];
+  private byte[] pending = new byte[0];
+  private int pendingOffset = 0;
+  private boolean finished = false;
+
+  /**
+   * AudioStageInputStream constructor.
+   *
+   * @param in Source audio
+   * @param stage Stage applied to the source audio
+   * @param sampleRate Sample rate in hertz of the processed audio
+   */
+  public AudioStageInputStream(InputStream in, AudioStage stage, int sampleRate) {
+    this.in = in;
+    this.stage = stage;
+    this.sampleRate = sampleRate;
+  }
+
+  /** Returns the sample rate in hertz of the processed audio. */
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  /**
+   * Reads the source until the first processed audio is available or the source ends.
+   *
+   * @return false if processing the recording produced no audio, such as when it has no speech
+   */
+  public boolean hasAudio() throws IOException {
+    return fill();
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!fill()) {
+      return -1;
+    }
+    return pending[pendingOffset++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!fill()) {
+      return -1;
+    }
+    int count = Math.min(len, pending.length - pendingOffset);
+    System.arraycopy(pending, pendingOffset, b, off, count);
+    pendingOffset += count;
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  /**
+   * Processes source audio until processed audio is pending.
+   *
+   * @return false if the source has ended and all processed audio has been read
+   */
+  private boolean fill() throws IOException {
+    while (pendingOffset == pending.length) {
+      if (finished) {
+        return false;
+      }
+      int read = in.read(readBuffer);
+      if (read == -1) {
+        pending = stage.finish();
+        finished = true;
+      } else {
+        pending = stage.process(readBuffer, 0, read);
+      }
+      pendingOffset = 0;
+    }
+    return true;
+  }
+}
@@ -27,32 +27,100 @@ import com.google.cloud.speech.v1.SpeechRecognitionAlternative;
 import com.google.cloud.speech.v1.SpeechRecognitionResult;
 import com.google.protobuf.ByteString;
 import com.google.sps.data.DialogFlowClient;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 
 /** DialogFlow API Detect Intent sample with audio files processes as an audio stream. */
 public class AudioUtils {
 
+  // Ogg Opus is already in a form both APIs accept.
+  private static final AudioStage PASS_THROUGH =
+      new AudioStage() {
+        @Override
+        public byte[] process(byte[] data, int offset, int length) {
+          return Arrays.copyOfRange(data, offset, offset + length);
+        }
+
+        @Override
+        public byte[] finish() {
+          return new byte[0];
+        }
+      };
+
   /**
-   * Detects the appropriate intent corresponding to the user's audio input stream
+   * Detects the appropriate intent corresponding to the user's audio input stream while the audio
+   * is still being read. See detectIntentStream(InputStream, int, InputAudioFormat).
    *
-   * @param bytestring Bytestring containing user input audio recording
-   * @return DialogFlow Client instance containing dialogflow result
+   * @param audio InputStream of the user input WAV or linear PCM recording
+   * @param sampleHertz Sample frequency of audio recording in hertz, or 0 to read it from the WAV
+   *     header
+   * @return DialogFlow Client instance containing dialogflow result, or null if the recording
+   *     contains no speech
    */
-  public static DialogFlowClient detectIntentStream(ByteString bytestring) {
-    DialogFlowClient queryResult = null;
+  public static DialogFlowClient detectIntentStream(InputStream audio, int sampleHertz) {
+    return detectIntentStream(audio, sampleHertz, InputAudioFormat.LINEAR16);
+  }
 
-    try (SessionsClient sessionsClient = SessionsClient.create()) {
-      try {
-        queryResult = new DialogFlowClient(sessionsClient, bytestring, 48000);
-      } catch (Exception e) {
-        queryResult = new DialogFlowClient(sessionsClient, bytestring, 44100);
+  /**
+   * Detects the appropriate intent corresponding to the user's audio input stream while the audio
+   * is still being read. Linear PCM is preprocessed to trimmed 16 kHz mono first and Opus is
+   * forwarded without transcoding. Recordings without audio to recognize are rejected before a
+   * Dialogflow stream is opened.
+   *
+   * @param audio InputStream of the user input audio recording
+   * @param sampleHertz Sample frequency of linear PCM recordings in hertz, or 0 to read it from the
+   *     WAV header
+   * @param format Encoding of the recording
+   * @return DialogFlow Client instance containing dialogflow result, or null if the recording
+   *     contains no speech
+   */
+  public static DialogFlowClient detectIntentStream(
+      InputStream audio, int sampleHertz, InputAudioFormat format) {
+    DialogFlowClient queryResult = null;
+    try {
+      AudioStageInputStream speech = openRecording(audio, sampleHertz, format);
+      if (!speech.hasAudio()) {
+        return null;
       }
+      SessionsClient sessionsClient = CloudClients.getSessionsClient();
+      queryResult =
+          new DialogFlowClient(
+              sessionsClient, speech, speech.getSampleRate(), format.getDialogflowEncoding());
     } catch (IOException e) {
       e.printStackTrace();
     }
     return queryResult;
   }
 
+  /**
+   * Opens an uploaded recording in the form it is forwarded to Dialogflow and Speech.
+   *
+   * @param audio InputStream of the recording
+   * @param sampleHertz Sample frequency of linear PCM recordings in hertz, or 0 to read it from the
+   *     WAV header
+   * @param format Encoding of the recording
+   * @return Preprocessed linear PCM or Ogg Opus audio
+   */
+  public static AudioStageInputStream openRecording(
+      InputStream audio, int sampleHertz, InputAudioFormat format) throws IOException {
+    if (!format.isOpus()) {
+      return AudioPreprocessor.open(audio, sampleHertz);
+    }
+    return new AudioStageInputStream(audio, opusStage(format), InputAudioFormat.OPUS_SAMPLE_RATE);
+  }
+
+  /**
+   * Returns the stage that turns an Opus upload into Ogg Opus.
+   *
+   * @param format OGG_OPUS or WEBM_OPUS
+   * @return Stage that passes Ogg through and repackages WebM
+   */
+  public static AudioStage opusStage(InputAudioFormat format) {
+    return format == InputAudioFormat.WEBM_OPUS ? new WebmOpusRemuxer() : PASS_THROUGH;
+  }
+
   /**
    * Detects the appropriate intent corresponding to the user's audio input stream for the specified
    * sample hertz header for the recording wav file.
@@ -62,31 +130,43 @@ public class AudioUtils {
    * @return DialogFlow Client instance containing dialogflow result
    */
   public static DialogFlowClient detectIntentStream(ByteString bytestring, int sampleHertz) {
-    DialogFlowClient queryResult = null;
-
-    try (SessionsClient sessionsClient = SessionsClient.create()) {
-      queryResult = new DialogFlowClient(sessionsClient, bytestring, sampleHertz);
+    DialogFlowClient queryResult = detectIntentStream(bytestring.newInput(), sampleHertz);
+    if (queryResult != null) {
       printResult(queryResult);
-    } catch (IOException e) {
-      e.printStackTrace();
     }
     return queryResult;
   }
 
   /**
-   * Transcribe a short audio file using synchronous speech recognition
+   * Transcribe a short WAV or linear PCM audio file using synchronous speech recognition
    *
    * @param data Input audio file recording
    * @param languageCode Two-letter representation of input audio language
-   * @return transcribed text of audio input
+   * @return transcribed text of audio input, or null if the recording contains no speech
    */
   public static String detectSpeechLanguage(byte[] data, String languageCode) {
-    try (SpeechClient speechClient = SpeechClient.create()) {
-      try {
-        return getAudioLanguage(speechClient, data, languageCode, 48000);
-      } catch (Exception e) {
-        return getAudioLanguage(speechClient, data, languageCode, 44100);
+    return detectSpeechLanguage(data, languageCode, InputAudioFormat.LINEAR16);
+  }
+
+  /**
+   * Transcribe a short audio file using synchronous speech recognition
+   *
+   * @param data Input audio file recording
+   * @param languageCode Two-letter representation of input audio language
+   * @param format Encoding of the recording
+   * @return transcribed text of audio input, or null if the recording contains no speech
+   */
+  public static String detectSpeechLanguage(
+      byte[] data, String languageCode, InputAudioFormat format) {
+    try {
+      AudioStageInputStream speech = openRecording(new ByteArrayInputStream(data), 0, format);
+      ByteString content = ByteString.readFrom(speech);
+      if (content.isEmpty()) {
+        return null;
       }
+      SpeechClient speechClient = CloudClients.getSpeechClient();
+      return getAudioLanguage(
+          speechClient, content, languageCode, speech.getSampleRate(), format.getSpeechEncoding());
     } catch (Exception exception) {
       System.err.println("Failed to create the client due to: " + exception);
     }
@@ -97,25 +177,31 @@ public class AudioUtils {
    * Helper function for transcribing a short audio file using synchronous speech recognition
    *
    * @param speechClient Speech client instance for audio transcription
-   * @param data Input audio file recording
+   * @param content Preprocessed mono 16-bit linear PCM or Ogg Opus audio
    * @param languageCode Two-letter representation of input audio language
    * @param sampleRate Sample frequency of audio recording in hertz
+   * @param encoding Encoding of the audio content
    * @return transcribed text of audio input
    */
   private static String getAudioLanguage(
-      SpeechClient speechClient, byte[] data, String languageCode, int sampleRate) {
-    RecognitionConfig.AudioEncoding encoding = RecognitionConfig.AudioEncoding.LINEAR16;
+      SpeechClient speechClient,
+      ByteString content,
+      String languageCode,
+      int sampleRate,
+      RecognitionConfig.AudioEncoding encoding) {
     RecognitionConfig config =
         RecognitionConfig.newBuilder()
             .setLanguageCode(languageCode)
             .setSampleRateHertz(sampleRate)
             .setEncoding(encoding)
             .build();
-    ByteString content = ByteString.copyFrom(data);
     RecognitionAudio audio = RecognitionAudio.newBuilder().setContent(content).build();
     RecognizeRequest request =
         RecognizeRequest.newBuilder().setConfig(config).setAudio(audio).build();
-    RecognizeResponse response = speechClient.recognize(request);
+    RecognizeResponse response;
+    try (Tracer.Span span = Tracer.start("api.speech")) {
+      response = speechClient.recognize(request);
+    }
     for (SpeechRecognitionResult result : response.getResultsList()) {
       SpeechRecognitionAlternative alternative = result.getAlternativesList().get(0);
       return alternative.getTranscript();
@@ -31,8 +31,6 @@ import com.google.gson.*;
 import com.google.sps.data.Book;
 import com.google.sps.data.BookQuery;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -101,7 +99,9 @@ public class BookUtils {
     list.setMaxResults(Long.valueOf(40));
     list.setStartIndex(Long.valueOf(startIndex));
 
-    return list.execute();
+    try (Tracer.Span span = Tracer.start("api.books")) {
+      return list.execute();
+    }
   }
 
   /**
@@ -115,7 +115,10 @@ public class BookUtils {
     Book book = null;
     try {
       Books books = getBooksContext();
-      Volume volume = books.volumes().get(volumeId).execute();
+      Volume volume;
+      try (Tracer.Span span = Tracer.start("api.books")) {
+        volume = books.volumes().get(volumeId).execute();
+      }
       book = Book.createBook(volume);
       return book;
     } catch (IOException e) {
@@ -131,10 +134,7 @@ public class BookUtils {
    * @return Books object
    */
   private Books getBooksContext() throws IOException {
-    String apiKey =
-        new String(
-            Files.readAllBytes(
-                Paths.get(BookUtils.class.getResource("/files/apikey.txt").getFile())));
+    String apiKey = ResourceFiles.read("/files/apikey.txt");
     GsonFactory gsonFactory = new GsonFactory();
     UrlFetchTransport transport = new UrlFetchTransport();
     Books books =
@@ -201,7 +201,9 @@ public class BookUtils {
     Books.Mylibrary.Bookshelves.List list = books.mylibrary().bookshelves().list();
     list.setOauthToken(credential.getAccessToken());
     list.set$Xgafv("");
-    return list.execute();
+    try (Tracer.Span span = Tracer.start("api.books")) {
+      return list.execute();
+    }
   }
 
   /**
@@ -276,7 +278,9 @@ public class BookUtils {
     list.set$Xgafv("");
     list.setMaxResults(Long.valueOf(40));
     list.setStartIndex(Long.valueOf(startIndex));
-    return list.execute();
+    try (Tracer.Span span = Tracer.start("api.books")) {
+      return list.execute();
+    }
   }
 
   /**
@@ -335,7 +339,9 @@ public class BookUtils {
         books.mylibrary().bookshelves().addVolume(shelfId).setVolumeId(volumeId);
     request.setAccessToken(credential.getAccessToken());
     request.set$Xgafv("");
-    request.execute();
+    try (Tracer.Span span = Tracer.start("api.books")) {
+      request.execute();
+    }
     return;
   }
 
@@ -361,7 +367,9 @@ public class BookUtils {
         books.mylibrary().bookshelves().removeVolume(shelfId).setVolumeId(volumeId);
     request.setAccessToken(credential.getAccessToken());
     request.set$Xgafv("");
-    request.execute();
+    try (Tracer.Span span = Tracer.start("api.books")) {
+      request.execute();
+    }
     return;
   }
 }
@@ -21,7 +21,6 @@ import com.google.appengine.api.datastore.DatastoreService;
 import com.google.gson.*;
 import com.google.sps.data.Book;
 import java.io.BufferedReader;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import org.slf4j.Logger;
@@ -33,6 +32,22 @@ import org.slf4j.LoggerFactory;
  */
 public class BooksSetUpHelper {
   private static Logger log = LoggerFactory.getLogger(BooksSetUpHelper.class);
+  private static boolean bookLikesSetUp = false;
+
+  /**
+   * Sets up the liked books for test users once per instance, so that only the warmup request or
+   * the first request to need them pays for the Books API calls. If the set up fails, it is tried
+   * again on the next call.
+   *
+   * @param datastore DatastoreService instance used to access Book info from database
+   */
+  public static synchronized void setUpBookLikesOnce(DatastoreService datastore)
+      throws IOException {
+    if (!bookLikesSetUp) {
+      setUpBookLikes(datastore);
+      bookLikesSetUp = true;
+    }
+  }
 
   /**
    * This function sets up Datastore with liked books for test users, for demo purposes. Input is
@@ -41,14 +56,14 @@ public class BooksSetUpHelper {
    * emailToLikeVolume2, idToLikeVolume2.
    *
    * @param datastore DatastoreService instance used to access Book info from database
+   * @throws IOException If the file cannot be read or a book cannot be fetched
    */
-  public static void setUpBookLikes(DatastoreService datastore) throws FileNotFoundException {
-    BufferedReader br =
+  public static void setUpBookLikes(DatastoreService datastore) throws IOException {
+    BookUtils bookHelper = new BookUtils();
+    try (BufferedReader br =
         new BufferedReader(
             new FileReader(
-                BooksSetUpHelper.class.getResource("/files/likedbooksloader.txt").getFile()));
-    BookUtils bookHelper = new BookUtils();
-    try {
+                BooksSetUpHelper.class.getResource("/files/likedbooksloader.txt").getFile()))) {
       String line;
       Book book;
       // Get first book
@@ -70,10 +85,10 @@ public class BooksSetUpHelper {
             book = getBookFromLine(line, bookHelper);
           }
         }
-        br.close();
       }
     } catch (IOException e) {
       log.error("Could not like books in set up");
+      throw e;
     }
   }
 
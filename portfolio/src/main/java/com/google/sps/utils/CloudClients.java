@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.utils;
+
+import com.google.api.gax.core.BackgroundResource;
+import com.google.cloud.dialogflow.v2.ContextsClient;
+import com.google.cloud.dialogflow.v2.SessionsClient;
+import com.google.cloud.speech.v1.SpeechClient;
+import com.google.cloud.translate.Translate;
+import com.google.cloud.translate.TranslateOptions;
+import com.google.cloud.texttospeech.v1.TextToSpeechClient;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide registry of the Google Cloud clients used by the assistant. Each client is created
+ * on first use and then shared by all request threads, so requests reuse the client's gRPC channel
+ * instead of paying for channel setup and a TLS handshake each time. The clients are shut down when
+ * the servlet context is destroyed (see CloudClientsListener).
+ */
+public class CloudClients {
+
+  private static Logger log = LoggerFactory.getLogger(CloudClients.class);
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+  private static SessionsClient sessionsClient;
+  private static ContextsClient contextsClient;
+  private static SpeechClient speechClient;
+  private static TextToSpeechClient textToSpeechClient;
+  private static Translate translate;
+
+  /**
+   * Returns the shared Dialogflow sessions client, creating it if needed.
+   *
+   * @return Shared SessionsClient
+   */
+  public static synchronized SessionsClient getSessionsClient() throws IOException {
+    if (sessionsClient == null || sessionsClient.isShutdown()) {
+      sessionsClient = SessionsClient.create();
+    }
+    return sessionsClient;
+  }
+
+  /**
+   * Returns the shared Dialogflow contexts client, creating it if needed.
+   *
+   * @return Shared ContextsClient
+   */
+  public static synchronized ContextsClient getContextsClient() throws IOException {
+    if (contextsClient == null || contextsClient.isShutdown()) {
+      contextsClient = ContextsClient.create();
+    }
+    return contextsClient;
+  }
+
+  /**
+   * Returns the shared Speech-to-Text client, creating it if needed.
+   *
+   * @return Shared SpeechClient
+   */
+  public static synchronized SpeechClient getSpeechClient() throws IOException {
+    if (speechClient == null || speechClient.isShutdown()) {
+      speechClient = SpeechClient.create();
+    }
+    return speechClient;
+  }
+
+  /**
+   * Returns the shared Text-to-Speech client, creating it if needed.
+   *
+   * @return Shared TextToSpeechClient
+   */
+  public static synchronized TextToSpeechClient getTextToSpeechClient() throws IOException {
+    if (textToSpeechClient == null || textToSpeechClient.isShutdown()) {
+      textToSpeechClient = TextToSpeechClient.create();
+    }
+    return textToSpeechClient;
+  }
+
+  /**
+   * Returns the shared Translate service, creating it if needed. The service uses HTTP rather than
+   * a gRPC channel, so it has nothing to shut down.
+   *
+   * @return Shared Translate service
+   */
+  public static synchronized Translate getTranslate() {
+    if (translate == null) {
+      translate = TranslateOptions.getDefaultInstance().getService();
+    }
+    return translate;
+  }
+
+  /**
+   * Reports the channel state of each client: "uninitialized" if it has not been used yet, "ready"
+   * if it is serving calls, "shutdown" if it is shutting down and "terminated" once closed.
+   *
+   * @return Map of client name to channel state
+   */
+  public static synchronized Map<String, String> getHealth() {
+    Map<String, String> health = new LinkedHashMap<>();
+    health.put("dialogflow", state(sessionsClient));
+    health.put("dialogflowContexts", state(contextsClient));
+    health.put("speech", state(speechClient));
+    health.put("textToSpeech", state(textToSpeechClient));
+    health.put("translate", translate == null ? "uninitialized" : "ready");
+    return health;
+  }
+
+  /** Shuts down all created clients and waits for their channels to terminate. */
+  public static synchronized void shutdown() {
+    shutdown("dialogflow", sessionsClient);
+    shutdown("dialogflowContexts", contextsClient);
+    shutdown("speech", speechClient);
+    shutdown("textToSpeech", textToSpeechClient);
+    sessionsClient = null;
+    contextsClient = null;
+    speechClient = null;
+    textToSpeechClient = null;
+    translate = null;
+  }
+
+  /**
+   * Shuts down a single client if it was created.
+   *
+   * @param name Name of the client used for logging
+   * @param client Client to shut down, or null
+   */
+  private static void shutdown(String name, BackgroundResource client) {
+    if (client == null) {
+      return;
+    }
+    client.shutdown();
+    try {
+      if (!client.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        client.shutdownNow();
+      }
+      log.info("Shut down " + name + " client");
+    } catch (InterruptedException e) {
+      client.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static String state(BackgroundResource client) {
+    if (client == null) {
+      return "uninitialized";
+    }
+    if (client.isTerminated()) {
+      return "terminated";
+    }
+    return client.isShutdown() ? "shutdown" : "ready";
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.utils;
+
+import com.google.cloud.dialogflow.v2.QueryResult;
+import com.google.protobuf.Value;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded LRU cache of detect-intent results keyed by normalized query text and language code.
+ * Only results of an allow-list of intents that take no input contexts are cached, so a repeated
+ * query maps to the same intent and parameters whatever the conversation state. Entries expire
+ * after a fixed time to live.
+ */
+public class DetectIntentCache {
+
+  private final Set<String> intents;
+  private final long ttlMillis;
+  private final int maxEntries;
+  private final LongSupplier clock;
+  private final LinkedHashMap<String, Entry> entries;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /** Cached result and the time it expires. */
+  private static class Entry {
+    final QueryResult result;
+    final long expiresAt;
+
+    Entry(QueryResult result, long expiresAt) {
+      this.result = result;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /**
+   * DetectIntentCache constructor.
+   *
+   * @param maxEntries Maximum number of cached results
+   * @param ttlMillis Time in milliseconds after which a result is detected again
+   * @param intents Display names of the intents whose results may be cached
+   */
+  public DetectIntentCache(int maxEntries, long ttlMillis, Set<String> intents) {
+    this(maxEntries, ttlMillis, intents, System::currentTimeMillis);
+  }
+
+  /**
+   * DetectIntentCache constructor with a custom clock for testing.
+   *
+   * @param maxEntries Maximum number of cached results
+   * @param ttlMillis Time in milliseconds after which a result is detected again
+   * @param intents Display names of the intents whose results may be cached
+   * @param clock Current time in milliseconds
+   */
+  DetectIntentCache(int maxEntries, long ttlMillis, Set<String> intents, LongSupplier clock) {
+    this.maxEntries = maxEntries;
+    this.ttlMillis = ttlMillis;
+    this.intents = intents;
+    this.clock = clock;
+    entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > DetectIntentCache.this.maxEntries) {
+              evictions.incrementAndGet();
+              return true;
+            }
+            return false;
+          }
+        };
+  }
+
+  /**
+   * Looks up the result of a query.
+   *
+   * @param text User input in text form
+   * @param languageCode Language code of the input
+   * @return Cached result with the query text replaced by this input, or null if there is none
+   */
+  public QueryResult get(String text, String languageCode) {
+    String key = key(text, languageCode);
+    Entry entry;
+    synchronized (entries) {
+      entry = entries.get(key);
+      if (entry != null && entry.expiresAt <= clock.getAsLong()) {
+        entries.remove(key);
+        entry = null;
+      }
+    }
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return entry.result.toBuilder().setQueryText(text).build();
+  }
+
+  /**
+   * Stores the result of a query if it is cacheable: its intent is allow-listed, all required
+   * parameters are present, and no parameter holds a date or time, which Dialogflow resolves
+   * relative to the moment of the query.
+   *
+   * @param text User input in text form
+   * @param languageCode Language code of the input
+   * @param result Detect-intent result of the input
+   */
+  public void put(String text, String languageCode, QueryResult result) {
+    if (!isCacheable(result)) {
+      return;
+    }
+    Entry entry = new Entry(result, clock.getAsLong() + ttlMillis);
+    synchronized (entries) {
+      entries.put(key(text, languageCode), entry);
+    }
+  }
+
+  private boolean isCacheable(QueryResult result) {
+    if (result == null
+        || !intents.contains(result.getIntent().getDisplayName())
+        || !result.getAllRequiredParamsPresent()) {
+      return false;
+    }
+    for (Map.Entry<String, Value> parameter : result.getParameters().getFieldsMap().entrySet()) {
+      String name = parameter.getKey();
+      Value value = parameter.getValue();
+      boolean empty =
+          value.getKindCase() == Value.KindCase.STRING_VALUE && value.getStringValue().isEmpty();
+      if ((name.contains("date") || name.contains("time")) && !empty) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reports cache statistics: the number of cached results, lookups served from the cache, lookups
+   * that were not and results evicted to make room.
+   *
+   * @return Map of statistic name to value
+   */
+  public Map<String, Long> getStats() {
+    Map<String, Long> stats = new LinkedHashMap<>();
+    synchronized (entries) {
+      stats.put("size", (long) entries.size());
+    }
+    stats.put("hits", hits.get());
+    stats.put("misses", misses.get());
+    stats.put("evictions", evictions.get());
+    return stats;
+  }
+
+  private static String key(String text, String languageCode) {
+    return languageCode + '\0' + LocalIntentMatcher.normalize(text);
+  }
+}
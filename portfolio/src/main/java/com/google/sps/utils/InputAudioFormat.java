@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.utils;
+
+import com.google.cloud.dialogflow.v2.AudioEncoding;
+import com.google.cloud.speech.v1.RecognitionConfig;
+
+/**
+ * Encodings of recorded audio uploads, declared by the request content type. Opus audio is sent
+ * to Dialogflow and Speech as Ogg Opus without transcoding; WebM recordings are repackaged into
+ * Ogg pages by WebmOpusRemuxer because neither API accepts WebM.
+ */
+public enum InputAudioFormat {
+  LINEAR16,
+  OGG_OPUS,
+  WEBM_OPUS;
+
+  // Opus decodes at any of its supported rates, and recognition models work at 16 kHz.
+  public static final int OPUS_SAMPLE_RATE = 16000;
+
+  /**
+   * Determines the audio format of an upload.
+   *
+   * @param contentType Content type of the request, such as "audio/webm;codecs=opus"
+   * @return Format of the upload, LINEAR16 for WAV, raw PCM and undeclared content types
+   */
+  public static InputAudioFormat fromContentType(String contentType) {
+    if (contentType == null) {
+      return LINEAR16;
+    }
+    String type = contentType.toLowerCase();
+    if (type.startsWith("audio/ogg") || type.startsWith("audio/opus")) {
+      return OGG_OPUS;
+    }
+    if (type.startsWith("audio/webm")) {
+      return WEBM_OPUS;
+    }
+    return LINEAR16;
+  }
+
+  public boolean isOpus() {
+    return this != LINEAR16;
+  }
+
+  /** Returns the Dialogflow encoding of the audio as it is forwarded. */
+  public AudioEncoding getDialogflowEncoding() {
+    return isOpus()
+        ? AudioEncoding.AUDIO_ENCODING_OGG_OPUS
+        : AudioEncoding.AUDIO_ENCODING_LINEAR_16;
+  }
+
+  /** Returns the Speech encoding of the audio as it is forwarded. */
+  public RecognitionConfig.AudioEncoding getSpeechEncoding() {
+    return isOpus()
+        ? RecognitionConfig.AudioEncoding.OGG_OPUS
+        : RecognitionConfig.AudioEncoding.LINEAR16;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in milliseconds. Values below 8 ms have a bucket each; above
+ * that every power of two is split into 8 buckets, so reported percentiles are at most 12.5% above
+ * the true value.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKETS = 8;
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int POWERS = 21;
+  private static final int BUCKETS = SUB_BUCKETS + POWERS * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records a latency.
+   *
+   * @param millis Latency in milliseconds; negative values are recorded as 0
+   */
+  public void record(long millis) {
+    long value = Math.max(millis, 0);
+    counts.incrementAndGet(bucket(value));
+    count.incrementAndGet();
+    max.accumulateAndGet(value, Math::max);
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Estimates a percentile as the upper bound of the bucket holding it.
+   *
+   * @param quantile Fraction of recorded values at or below the result, between 0 and 1
+   * @return Latency in milliseconds, or 0 if nothing was recorded
+   */
+  public long getPercentile(double quantile) {
+    long total = count.get();
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max((long) Math.ceil(quantile * total), 1);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return i == BUCKETS - 1 ? max.get() : Math.min(upperBound(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Summarizes the histogram as the number of recorded values, p50, p95, p99 and maximum.
+   *
+   * @return Map of statistic name to value, in a fixed order
+   */
+  public Map<String, Long> getSummary() {
+    Map<String, Long> summary = new LinkedHashMap<>();
+    summary.put("count", getCount());
+    summary.put("p50", getPercentile(0.50));
+    summary.put("p95", getPercentile(0.95));
+    summary.put("p99", getPercentile(0.99));
+    summary.put("max", getMax());
+    return summary;
+  }
+
+  private static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int power = exponent - SUB_BUCKET_BITS;
+    if (power >= POWERS) {
+      return BUCKETS - 1;
+    }
+    int subBucket = (int) (value >>> power) - SUB_BUCKETS;
+    return SUB_BUCKETS + power * SUB_BUCKETS + subBucket;
+  }
+
+  private static long upperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int power = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+    int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+    return ((long) (SUB_BUCKETS + subBucket + 1) << power) - 1;
+  }
+}
@@ -0,0 +1,703 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.utils;
+
+import com.google.cloud.dialogflow.v2.Context;
+import com.google.cloud.dialogflow.v2.Intent;
+import com.google.cloud.dialogflow.v2.QueryResult;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process intent matcher compiled from the English training phrases and entities of the
+ * Dialogflow agent export in dialogflow/. The build packages the export as AGENT_RESOURCE.
+ *
+ * <p>Each training phrase becomes a regular expression in which annotated parts match the values of
+ * their entity. Only intents without input contexts are answered locally. Phrases of every intent
+ * are also compiled with any entity the matcher cannot enumerate treated as a wildcard, and a query
+ * is left to Dialogflow when such a phrase of another intent matches it with at least as much
+ * literal text as the best local match. Everything else, including every query that is not in
+ * English, returns null so that the caller asks Dialogflow instead.
+ */
+public class LocalIntentMatcher {
+
+  private static Logger log = LoggerFactory.getLogger(LocalIntentMatcher.class);
+  public static final String AGENT_RESOURCE = "/dialogflow-agent.zip";
+  private static final String LANGUAGE = "en";
+  private static final String WILDCARD = "(.+?)";
+  private static final String NUMBER = "(\\d{1,3}(?:,\\d{3})+(?:\\.\\d+)?|\\d+(?:\\.\\d+)?)";
+  private static final String PERCENTAGE = "(\\d+(?:\\.\\d+)?) ?(?:%|percent)";
+  private static final String INTENT_PREFIX = "intents/";
+  private static final String ENTITY_PREFIX = "entities/";
+  private static final String PHRASES_SUFFIX = "_usersays_" + LANGUAGE + ".json";
+  private static final String ENTRIES_SUFFIX = "_entries_" + LANGUAGE + ".json";
+  private static LocalIntentMatcher instance;
+
+  /**
+   * Common names of the system entities the matcher knows, each group listing the value Dialogflow
+   * returns followed by the names it is returned for.
+   */
+  private static final Map<String, String[]> SYSTEM_NAMES = new HashMap<>();
+
+  static {
+    SYSTEM_NAMES.put(
+        "@sys.currency-name",
+        new String[] {
+          "USD|$|dollar|dollars|buck|bucks|usd", "EUR|\u20ac|euro|euros|eur", "GBP|\u00a3|gbp",
+          "INR|rupee|rupees|inr", "JPY|\u00a5|yen|jpy"
+        });
+    SYSTEM_NAMES.put(
+        "@sys.unit-weight-name",
+        new String[] {
+          "kg|kilogram|kilograms|kilo|kilos", "g|gram|grams", "mg|milligram|milligrams",
+          "lb|lbs|pound|pounds", "oz|ounce|ounces", "t|ton|tons|tonne|tonnes", "st|stone|stones"
+        });
+    SYSTEM_NAMES.put(
+        "@sys.unit-length-name",
+        new String[] {
+          "km|kilometer|kilometers|kilometre|kilometres", "m|meter|meters|metre|metres",
+          "cm|centimeter|centimeters|centimetre|centimetres",
+          "mm|millimeter|millimeters|millimetre|millimetres", "mi|mile|miles", "yd|yard|yards",
+          "ft|foot|feet", "in|inch|inches"
+        });
+    SYSTEM_NAMES.put(
+        "@sys.unit-volume-name",
+        new String[] {
+          "l|liter|liters|litre|litres", "ml|milliliter|milliliters|millilitre|millilitres",
+          "gal|gallon|gallons", "qt|quart|quarts", "pt|pint|pints", "cup|cups",
+          "fl oz|fluid ounce|fluid ounces", "tbsp|tablespoon|tablespoons",
+          "tsp|teaspoon|teaspoons"
+        });
+    SYSTEM_NAMES.put(
+        "@sys.unit-speed-name",
+        new String[] {
+          "km/h|kph|kilometers per hour", "mph|miles per hour", "m/s|meters per second"
+        });
+  }
+
+  private final Map<String, Entity> entities = new HashMap<>();
+  private final List<Phrase> phrases = new ArrayList<>();
+
+  /**
+   * Returns the matcher compiled from the agent export on the classpath, compiling it on first
+   * use. If the export is missing the matcher is empty and never matches.
+   *
+   * @return Shared LocalIntentMatcher
+   */
+  public static synchronized LocalIntentMatcher getInstance() {
+    if (instance == null) {
+      try (InputStream agent = LocalIntentMatcher.class.getResourceAsStream(AGENT_RESOURCE)) {
+        if (agent == null) {
+          log.warn("No Dialogflow agent export at " + AGENT_RESOURCE);
+          instance = new LocalIntentMatcher(new HashMap<>());
+        } else {
+          instance = fromZip(agent);
+        }
+      } catch (IOException e) {
+        log.error("Could not read Dialogflow agent export", e);
+        instance = new LocalIntentMatcher(new HashMap<>());
+      }
+      log.info("Compiled " + instance.phrases.size() + " training phrases for local matching");
+    }
+    return instance;
+  }
+
+  /**
+   * Compiles a matcher from a zipped Dialogflow agent export.
+   *
+   * @param zip Zip file containing the intents/ and entities/ folders of the export
+   * @return Compiled matcher
+   */
+  public static LocalIntentMatcher fromZip(InputStream zip) throws IOException {
+    Map<String, String> files = new HashMap<>();
+    ZipInputStream in = new ZipInputStream(zip);
+    ZipEntry entry;
+    while ((entry = in.getNextEntry()) != null) {
+      if (!entry.isDirectory() && isNeeded(entry.getName())) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          content.write(buffer, 0, read);
+        }
+        files.put(entry.getName(), new String(content.toByteArray(), StandardCharsets.UTF_8));
+      }
+    }
+    return new LocalIntentMatcher(files);
+  }
+
+  /**
+   * Compiles a matcher from an unzipped Dialogflow agent export, such as the dialogflow/ folder.
+   *
+   * @param directory Folder containing the intents/ and entities/ folders of the export
+   * @return Compiled matcher
+   */
+  public static LocalIntentMatcher fromDirectory(File directory) throws IOException {
+    Map<String, String> files = new HashMap<>();
+    for (String folder : Arrays.asList(INTENT_PREFIX, ENTITY_PREFIX)) {
+      File[] children = new File(directory, folder).listFiles();
+      if (children == null) {
+        continue;
+      }
+      for (File file : children) {
+        String name = folder + file.getName();
+        if (isNeeded(name)) {
+          files.put(name, new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        }
+      }
+    }
+    return new LocalIntentMatcher(files);
+  }
+
+  private static boolean isNeeded(String name) {
+    if (!name.endsWith(".json")) {
+      return false;
+    }
+    if (name.startsWith(INTENT_PREFIX)) {
+      return !name.contains("_usersays_") || name.endsWith(PHRASES_SUFFIX);
+    }
+    if (name.startsWith(ENTITY_PREFIX)) {
+      return !name.contains("_entries_") || name.endsWith(ENTRIES_SUFFIX);
+    }
+    return false;
+  }
+
+  /**
+   * Compiles the matcher.
+   *
+   * @param files Map of export file name, such as "intents/web.search.json", to its JSON content
+   */
+  LocalIntentMatcher(Map<String, String> files) {
+    for (Map.Entry<String, String> file : files.entrySet()) {
+      String name = file.getKey();
+      if (name.startsWith(ENTITY_PREFIX) && !name.contains("_entries_")) {
+        String entries = files.get(name.substring(0, name.length() - 5) + ENTRIES_SUFFIX);
+        if (entries != null) {
+          JSONObject entity = new JSONObject(file.getValue());
+          entities.put("@" + entity.getString("name"), new Entity(entity, new JSONArray(entries)));
+        }
+      }
+    }
+    for (Map.Entry<String, String> file : files.entrySet()) {
+      String name = file.getKey();
+      if (name.startsWith(INTENT_PREFIX) && !name.contains("_usersays_")) {
+        String trainingPhrases = files.get(name.substring(0, name.length() - 5) + PHRASES_SUFFIX);
+        if (trainingPhrases != null) {
+          IntentDefinition intent = new IntentDefinition(new JSONObject(file.getValue()));
+          JSONArray phraseList = new JSONArray(trainingPhrases);
+          for (int i = 0; i < phraseList.length(); i++) {
+            Phrase phrase = compile(intent, phraseList.getJSONObject(i).getJSONArray("data"));
+            if (phrase != null) {
+              phrases.add(phrase);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Matches a text query against the compiled training phrases.
+   *
+   * @param text User input in text form
+   * @param languageCode Language code of the input, such as "en-US"
+   * @return Query result equivalent to Dialogflow's, with output contexts named by their short
+   *     name, or null if the query has no unambiguous local match and must be sent to Dialogflow
+   */
+  public QueryResult match(String text, String languageCode) {
+    if (text == null
+        || languageCode == null
+        || !languageCode.toLowerCase(Locale.ROOT).startsWith(LANGUAGE)) {
+      return null;
+    }
+    String query = normalize(text);
+    if (query.isEmpty()) {
+      return null;
+    }
+    List<Phrase> candidates = new ArrayList<>();
+    Phrase best = null;
+    Matcher bestMatcher = null;
+    for (Phrase phrase : phrases) {
+      if (!phrase.loose.matcher(query).matches()) {
+        continue;
+      }
+      candidates.add(phrase);
+      Matcher matcher = phrase.strict == null ? null : phrase.strict.matcher(query);
+      if (matcher != null
+          && matcher.matches()
+          && (best == null || phrase.literalLength > best.literalLength)) {
+        best = phrase;
+        bestMatcher = matcher;
+      }
+    }
+    if (best == null) {
+      return null;
+    }
+    // Another intent whose phrase shares at least as much literal text could be Dialogflow's pick.
+    for (Phrase candidate : candidates) {
+      if (candidate.intent != best.intent && candidate.literalLength >= best.literalLength) {
+        return null;
+      }
+    }
+    return best.intent.toQueryResult(text, best.slots, bestMatcher);
+  }
+
+  /**
+   * Compiles one training phrase.
+   *
+   * @param intent Intent of the phrase
+   * @param data Parts of the phrase, each either literal text or text annotated with an entity
+   * @return Compiled phrase, or null if the phrase cannot be matched reliably
+   */
+  private Phrase compile(IntentDefinition intent, JSONArray data) {
+    StringBuilder strict = new StringBuilder();
+    StringBuilder loose = new StringBuilder();
+    List<Slot> slots = new ArrayList<>();
+    boolean supported = true;
+    int literalLength = 0;
+    for (int i = 0; i < data.length(); i++) {
+      JSONObject part = data.getJSONObject(i);
+      String partText = part.getString("text");
+      String meta = part.optString("meta", "");
+      String alias = part.optString("alias", "");
+      if (meta.isEmpty() || (meta.equals("@sys.ignore") && alias.isEmpty())) {
+        // Ignored annotations are matched as their example text.
+        String literal = literal(partText);
+        append(strict, literal);
+        append(loose, literal);
+        literalLength += normalize(partText).length();
+        continue;
+      }
+      Entity entity = entityOf(meta);
+      String pattern = entity == null ? null : entity.pattern;
+      if (pattern == null || alias.isEmpty() || !intent.parameters.containsKey(alias)) {
+        supported = false;
+      } else {
+        append(strict, pattern);
+        slots.add(new Slot(alias, entity));
+      }
+      append(loose, entity != null && entity.enumerable ? pattern : WILDCARD);
+    }
+    // Phrases made only of entities, such as a bare location, would make every query ambiguous.
+    if (literalLength == 0) {
+      return null;
+    }
+    Phrase phrase = new Phrase();
+    phrase.intent = intent;
+    phrase.loose = Pattern.compile(loose.toString().trim());
+    phrase.strict = supported && intent.local ? Pattern.compile(strict.toString().trim()) : null;
+    phrase.slots = slots;
+    phrase.literalLength = literalLength;
+    return phrase;
+  }
+
+  /**
+   * Returns the entity of an annotation, including the system entities the matcher knows. A
+   * composite entity made only of references to other entities matches the values of those.
+   *
+   * @param meta Entity name, such as "@sys.number" or "@unit"
+   * @return Entity, or null if it is unknown
+   */
+  private Entity entityOf(String meta) {
+    switch (meta) {
+      case "@sys.number":
+      case "@sys.number-integer":
+        return new Entity(NUMBER, Entity.Kind.NUMBER);
+      case "@sys.percentage":
+        return new Entity(PERCENTAGE, Entity.Kind.PERCENTAGE);
+      case "@sys.any":
+        return new Entity(WILDCARD, Entity.Kind.TEXT);
+      default:
+        if (SYSTEM_NAMES.containsKey(meta)) {
+          Map<String, String> values = new HashMap<>();
+          for (String group : SYSTEM_NAMES.get(meta)) {
+            String[] names = group.split("\\|");
+            for (String name : names) {
+              values.put(name, names[0]);
+            }
+          }
+          return new Entity(values, false);
+        }
+        Entity entity = entities.get(meta);
+        if (entity == null || entity.references == null) {
+          return entity;
+        }
+        Map<String, String> values = new HashMap<>();
+        for (String reference : entity.references) {
+          Entity referenced = reference.equals(meta) ? null : entityOf(reference);
+          if (referenced != null && referenced.kind == Entity.Kind.VALUES) {
+            values.putAll(referenced.values);
+          }
+        }
+        Entity resolved = new Entity(values, false);
+        entities.put(meta, resolved);
+        return resolved;
+    }
+  }
+
+  /**
+   * Appends part of a phrase pattern, merging the spaces where two parts meet.
+   *
+   * @param regex Pattern built so far
+   * @param part Pattern of the next part, which may start or end with a space
+   */
+  private static void append(StringBuilder regex, String part) {
+    if (part.startsWith(" ") && (regex.length() == 0 || regex.charAt(regex.length() - 1) == ' ')) {
+      part = part.substring(1);
+    }
+    regex.append(part);
+  }
+
+  /**
+   * Turns literal phrase text into a regular expression matching its normalized form.
+   *
+   * @param text Literal text of a training phrase
+   * @return Quoted text, with a single space before and after it if the text has any
+   */
+  private static String literal(String text) {
+    String normalized = clean(text);
+    String core = normalized.trim();
+    if (core.isEmpty()) {
+      return normalized.isEmpty() ? "" : " ";
+    }
+    return (normalized.startsWith(" ") ? " " : "")
+        + Pattern.quote(core)
+        + (normalized.endsWith(" ") ? " " : "");
+  }
+
+  /**
+   * Lower-cases text, replaces the punctuation Dialogflow ignores with spaces and collapses spaces.
+   * Decimal points and thousands separators inside numbers are kept.
+   *
+   * @param text User input or phrase text
+   * @return Cleaned text, which may start or end with a space
+   */
+  private static String clean(String text) {
+    return text.toLowerCase(Locale.ROOT)
+        .replaceAll("(?<!\\d)[.,]|[.,](?!\\d)|[?!;:\"]", " ")
+        .replaceAll("\\s+", " ");
+  }
+
+  /**
+   * Normalizes a query or entity synonym for matching.
+   *
+   * @param text User input
+   * @return Cleaned and trimmed text
+   */
+  static String normalize(String text) {
+    return clean(text).trim();
+  }
+
+  /** Compiled training phrase. */
+  private static class Phrase {
+    IntentDefinition intent;
+    // Null if the phrase has entities the matcher cannot extract.
+    Pattern strict;
+    // Over-approximation of what Dialogflow could match, used to detect ambiguous queries.
+    Pattern loose;
+    List<Slot> slots;
+    int literalLength;
+  }
+
+  /** Annotated part of a training phrase. */
+  private static class Slot {
+    final String alias;
+    final Entity entity;
+
+    Slot(String alias, Entity entity) {
+      this.alias = alias;
+      this.entity = entity;
+    }
+  }
+
+  /** Entity type with the regular expression matching its values. */
+  private static class Entity {
+
+    enum Kind {
+      NUMBER,
+      PERCENTAGE,
+      TEXT,
+      VALUES
+    }
+
+    final Kind kind;
+    // One capturing group, or null if the entity cannot be matched locally.
+    final String pattern;
+    // True if the pattern covers every value Dialogflow would accept for the entity.
+    final boolean enumerable;
+    // Normalized synonym to entity value.
+    final Map<String, String> values = new HashMap<>();
+    // Entities a composite entity is made of, or null for other entities.
+    final List<String> references;
+
+    /** Creates a system entity. */
+    Entity(String pattern, Kind kind) {
+      this.pattern = pattern;
+      this.kind = kind;
+      enumerable = false;
+      references = null;
+    }
+
+    /** Creates an entity with known values. */
+    Entity(Map<String, String> synonyms, boolean enumerable) {
+      kind = Kind.VALUES;
+      for (Map.Entry<String, String> synonym : synonyms.entrySet()) {
+        addValue(synonym.getKey(), synonym.getValue());
+      }
+      pattern = alternation();
+      this.enumerable = enumerable && pattern != null;
+      references = null;
+    }
+
+    /**
+     * Creates a custom entity from its definition and English entries. Composite entities keep
+     * their references, to be resolved by the matcher. Regexp entities are not matched locally.
+     */
+    Entity(JSONObject definition, JSONArray entries) {
+      kind = Kind.VALUES;
+      boolean complete =
+          !definition.optBoolean("automatedExpansion")
+              && !definition.optBoolean("allowFuzzyExtraction");
+      if (definition.optBoolean("isRegexp")) {
+        pattern = null;
+        enumerable = false;
+        references = null;
+        return;
+      }
+      if (definition.optBoolean("isEnum")) {
+        references = new ArrayList<>();
+        for (int i = 0; i < entries.length(); i++) {
+          String value = entries.getJSONObject(i).getString("value");
+          // Only entries that are a single reference, such as "@sys.unit-weight-name:unit".
+          if (value.matches("@[\\w.-]+(:[\\w-]+)?")) {
+            references.add(value.split(":")[0]);
+          }
+        }
+        pattern = null;
+        enumerable = false;
+        return;
+      }
+      for (int i = 0; i < entries.length(); i++) {
+        JSONObject entry = entries.getJSONObject(i);
+        JSONArray synonyms = entry.getJSONArray("synonyms");
+        for (int j = 0; j < synonyms.length(); j++) {
+          complete &= addValue(synonyms.getString(j), entry.getString("value"));
+        }
+      }
+      pattern = alternation();
+      enumerable = complete && pattern != null;
+      references = null;
+    }
+
+    /** Adds a synonym, returning false if it cannot be matched as plain text. */
+    private boolean addValue(String synonym, String value) {
+      String key = normalize(synonym);
+      if (key.isEmpty() || synonym.contains("@")) {
+        return false;
+      }
+      values.putIfAbsent(key, value);
+      return true;
+    }
+
+    /** Returns a group matching any synonym, longest first, or null if there are none. */
+    private String alternation() {
+      if (values.isEmpty()) {
+        return null;
+      }
+      List<String> synonyms = new ArrayList<>(values.keySet());
+      synonyms.sort((a, b) -> b.length() - a.length());
+      StringBuilder regex = new StringBuilder("(");
+      for (String synonym : synonyms) {
+        if (regex.length() > 1) {
+          regex.append('|');
+        }
+        regex.append(Pattern.quote(synonym));
+      }
+      return regex.append(')').toString();
+    }
+
+    /** Converts matched text into the parameter value Dialogflow would return. */
+    Value toValue(String text) {
+      switch (kind) {
+        case NUMBER:
+          return Value.newBuilder()
+              .setNumberValue(Double.parseDouble(text.replace(",", "")))
+              .build();
+        case PERCENTAGE:
+          return Value.newBuilder().setStringValue(text + "%").build();
+        case VALUES:
+          return Value.newBuilder().setStringValue(values.get(text)).build();
+        default:
+          return Value.newBuilder().setStringValue(text).build();
+      }
+    }
+  }
+
+  /** The parts of an intent definition needed to build a query result. */
+  private static class IntentDefinition {
+    final String name;
+    // True if the intent may be answered locally.
+    final boolean local;
+    final Map<String, JSONObject> parameters = new LinkedHashMap<>();
+    final List<JSONObject> outputContexts = new ArrayList<>();
+    final List<String> speech;
+
+    IntentDefinition(JSONObject intent) {
+      name = intent.getString("name");
+      JSONObject response = intent.getJSONArray("responses").getJSONObject(0);
+      JSONArray parameterList = response.getJSONArray("parameters");
+      for (int i = 0; i < parameterList.length(); i++) {
+        JSONObject parameter = parameterList.getJSONObject(i);
+        parameters.put(parameter.getString("name"), parameter);
+      }
+      JSONArray contexts = response.getJSONArray("affectedContexts");
+      for (int i = 0; i < contexts.length(); i++) {
+        outputContexts.add(contexts.getJSONObject(i));
+      }
+      local =
+          intent.getJSONArray("contexts").length() == 0
+              && !intent.optBoolean("fallbackIntent")
+              && !intent.optBoolean("webhookUsed");
+      speech = textResponses(response.getJSONArray("messages"));
+    }
+
+    /** Returns the variants of the first English text response. */
+    private static List<String> textResponses(JSONArray messages) {
+      List<String> variants = new ArrayList<>();
+      for (int i = 0; i < messages.length() && variants.isEmpty(); i++) {
+        JSONObject message = messages.getJSONObject(i);
+        if (!"0".equals(String.valueOf(message.opt("type")))
+            || !LANGUAGE.equals(message.optString("lang", LANGUAGE))) {
+          continue;
+        }
+        Object speech = message.opt("speech");
+        if (speech instanceof JSONArray) {
+          for (int j = 0; j < ((JSONArray) speech).length(); j++) {
+            variants.add(((JSONArray) speech).getString(j));
+          }
+        } else if (speech instanceof String) {
+          variants.add((String) speech);
+        }
+      }
+      return variants;
+    }
+
+    /**
+     * Builds the query result of a match.
+     *
+     * @param queryText Original user input
+     * @param slots Annotated parts of the matched phrase, in order of their groups
+     * @param matcher Successful matcher of the phrase
+     * @return Query result, or null if a required parameter is missing and Dialogflow would prompt
+     */
+    QueryResult toQueryResult(String queryText, List<Slot> slots, Matcher matcher) {
+      Map<String, Value> values = new HashMap<>();
+      for (int i = 0; i < slots.size(); i++) {
+        Slot slot = slots.get(i);
+        if (!values.containsKey(slot.alias)) {
+          values.put(slot.alias, slot.entity.toValue(matcher.group(i + 1)));
+        }
+      }
+      Struct.Builder fields = Struct.newBuilder();
+      // Like Dialogflow, pick one of the response variants at random.
+      String fulfillment =
+          speech.isEmpty() ? "" : speech.get(ThreadLocalRandom.current().nextInt(speech.size()));
+      for (Map.Entry<String, JSONObject> parameter : parameters.entrySet()) {
+        String parameterName = parameter.getKey();
+        Value value = values.get(parameterName);
+        if (value == null) {
+          if (parameter.getValue().optBoolean("required")) {
+            return null;
+          }
+          value = Value.newBuilder().setStringValue("").build();
+        }
+        if (parameter.getValue().optBoolean("isList")) {
+          ListValue.Builder list = ListValue.newBuilder();
+          if (values.containsKey(parameterName)) {
+            list.addValues(value);
+          }
+          value = Value.newBuilder().setListValue(list).build();
+        }
+        fields.putFields(parameterName, value);
+      }
+      Struct parameterStruct = fields.build();
+      List<String> names = new ArrayList<>(parameters.keySet());
+      names.sort((a, b) -> b.length() - a.length());
+      for (String parameterName : names) {
+        fulfillment =
+            fulfillment.replace(
+                "$" + parameterName, textOf(parameterStruct.getFieldsOrThrow(parameterName)));
+      }
+      QueryResult.Builder result =
+          QueryResult.newBuilder()
+              .setQueryText(queryText)
+              .setLanguageCode(LANGUAGE)
+              .setIntent(Intent.newBuilder().setDisplayName(name))
+              .setIntentDetectionConfidence(1.0f)
+              .setAllRequiredParamsPresent(true)
+              .setFulfillmentText(fulfillment)
+              .setParameters(parameterStruct);
+      for (JSONObject context : outputContexts) {
+        result.addOutputContexts(
+            Context.newBuilder()
+                .setName(context.getString("name"))
+                .setLifespanCount(context.getInt("lifespan"))
+                .setParameters(parameterStruct));
+      }
+      return result.build();
+    }
+
+    private static String textOf(Value value) {
+      switch (value.getKindCase()) {
+        case NUMBER_VALUE:
+          double number = value.getNumberValue();
+          return number == Math.rint(number)
+              ? String.valueOf((long) number)
+              : String.valueOf(number);
+        case LIST_VALUE:
+          return value.getListValue().getValuesCount() == 0
+              ? ""
+              : textOf(value.getListValue().getValues(0));
+        default:
+          return value.getStringValue();
+      }
+    }
+  }
+}
@@ -28,6 +28,8 @@ import com.google.appengine.api.datastore.Query.FilterOperator;
 import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.api.datastore.Query.SortDirection;
 import com.google.appengine.api.log.InvalidRequestException;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.gson.Gson;
 import com.google.protobuf.Value;
 import com.google.sps.agents.MemoryAgent;
@@ -40,23 +42,16 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.net.URI;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.ResponseEntity;
-import org.springframework.web.client.RestTemplate;
 
 
 public class MemoryUtils {
@@ -64,6 +59,41 @@ public class MemoryUtils {
   private static Logger log = LoggerFactory.getLogger(MemoryUtils.class);
   public static final List<String> AGG_ENTITY_ID_PROPERTIES =
       Arrays.asList("userID", "timestamp", "count", "listName");
+  public static final String SAVE_COMMENT_URL = "/tasks/save-comment";
+  public static final String USER_ID_PARAMETER = "userID";
+  public static final String USER_COMMENT_PARAMETER = "userComment";
+  public static final String ASSISTANT_COMMENT_PARAMETER = "assistantComment";
+  public static final String TIMESTAMP_PARAMETER = "timestamp";
+
+  /**
+   * Queues a task that saves comment information into the comment history database, so that the
+   * writes do not delay the reply. The comments keep the time they were queued at. If the task
+   * cannot be queued, the comments are saved right away instead.
+   *
+   * @param userID String containing current user's unique ID
+   * @param datastore Datastore instance used if the comments have to be saved right away
+   * @param userComment The comment written by the user.
+   * @param assistantComment The fulfillment comment returned by the assistant.
+   */
+  public static void queueSaveComment(
+      String userID, DatastoreService datastore, String userComment, String assistantComment) {
+    if (userID == null) {
+      return;
+    }
+    long timeMillis = System.currentTimeMillis();
+    try {
+      QueueFactory.getDefaultQueue()
+          .add(
+              TaskOptions.Builder.withUrl(SAVE_COMMENT_URL)
+                  .param(USER_ID_PARAMETER, userID)
+                  .param(USER_COMMENT_PARAMETER, userComment)
+                  .param(ASSISTANT_COMMENT_PARAMETER, assistantComment)
+                  .param(TIMESTAMP_PARAMETER, Long.toString(timeMillis)));
+    } catch (RuntimeException e) {
+      log.error("Could not queue comment history write, saving it now", e);
+      saveComment(userID, datastore, userComment, assistantComment, timeMillis);
+    }
+  }
 
   /**
    * Saves comment information into comment history database if the user is logged in.
@@ -75,9 +105,28 @@ public class MemoryUtils {
    */
   public static void saveComment(
       String userID, DatastoreService datastore, String userComment, String assistantComment) {
+    saveComment(userID, datastore, userComment, assistantComment, System.currentTimeMillis());
+  }
+
+  /**
+   * Saves comment information with a given timestamp into comment history database if the user is
+   * logged in.
+   *
+   * @param userID String containing current user's unique ID
+   * @param datastore Datastore instance to used to retrieve stored comment information
+   * @param userComment The comment written by the user.
+   * @param assistantComment The fulfillment comment returned by the assistant.
+   * @param timeMillis Timestamp to assign to both comments.
+   */
+  public static void saveComment(
+      String userID,
+      DatastoreService datastore,
+      String userComment,
+      String assistantComment,
+      long timeMillis) {
     if (userID != null) {
-      makeCommentEntity(userID, datastore, userComment, true);
-      makeCommentEntity(userID, datastore, assistantComment, false);
+      makeCommentEntity(userID, datastore, userComment, true, timeMillis);
+      makeCommentEntity(userID, datastore, assistantComment, false, timeMillis);
     }
   }
 
@@ -96,7 +145,7 @@ public class MemoryUtils {
 
   /**
    * Creates a comment entity with a given timestamp and stores it in the given user's database.
-   * Should only be called for testing purposes.
+   * Used by tests and by queued comment history writes, which keep the time of the reply.
    *
    * @param userID String containing current user's unique ID
    * @param datastore Datastore instance to used to store new comments
@@ -465,36 +514,6 @@ public class MemoryUtils {
     return datastore.prepare(query).asList(FetchOptions.Builder.withDefaults());
   }
 
-  /**
-   * Stores the integer aggregate count of number of times user has placed a given item in a list.
-   *
-   * @param datastore Database entity to retrieve data from
-   * @param userID The logged-in user's ID
-   * @param stemmedListName The stemmed name of the list to store aggregation information for.
-   * @param items List of strings containing items that were newly added.
-   * @param newList Indicates whether the list is a new list (true) or updating existing (false)
-   */
-  public static void saveAggregateListData(
-      DatastoreService datastore,
-      String userID,
-      String stemmedListName,
-      List<String> items,
-      boolean newList)
-      throws InvalidRequestException {
-    log.info("making storeInfo api request");
-    RestTemplate restTemplate = new RestTemplate();
-    String urlString = "https://arliu-step-2020-3.wl.r.appspot.com/storeInfo?userID=" + userID +
-    "&stemmedListName=" + stemmedListName + "&newList=" + newList;
-    HttpEntity<List<String>> entity = new HttpEntity<>(items);
-    log.info("http entity: " + entity.getBody());
-    ResponseEntity<Void> result = restTemplate.exchange(urlString, HttpMethod.POST, entity,
-    Void.class);
-    if (result.getStatusCode() != HttpStatus.OK) {
-      throw new InvalidRequestException("Error sending info to recommendations API.");
-    }
-    log.info("storeInfo success");
-  }
-
   /**
    * Makes recommendations based on the user's past history of list items. Will only make
    * recommendations if the user has at least 3 lists of the same name. Recommendations are made
@@ -536,41 +555,6 @@ public class MemoryUtils {
     return getSuggestedItems(formattedResult);
   }
 
-  /**
-   * Calls recommendations API to get any possible list item recommendations for the user. Throws
-   * URISyntaxException if there is an error in URI creation. Otherwise, if no item suggestions
-   * exist, returns an empty list.
-   *
-   * @param methodName String name of the type of recommendation requested (pastUser or generalUser)
-   * @param userID String representing the ID of the user giving recommendations for
-   * @param stemmedListName Stemmed name of the list we are providing recommendations for.
-   * @return String containing up to 3 items to recommend to the user.
-   */
-  private static List<Pair<String, Double>> callRecommendationsAPI(
-      String methodName, String userID, String stemmedListName) throws URISyntaxException {
-    log.info("making pastUserRecs api request");
-    RestTemplate restTemplate = new RestTemplate();
-    String urlString = "https://arliu-step-2020-3.wl.r.appspot.com/" + methodName + "?userID=" +
-    userID + "&stemmedListName=" + stemmedListName;
-    URI uri = new URI(urlString);
-    ResponseEntity<List> result = restTemplate.getForEntity(uri, List.class);
-    if (result.getStatusCode() != HttpStatus.OK) {
-      throw new InvalidRequestException("Error sending info to recommendations API.");
-    }
-    log.info("pastUserRecs success");
-    List<LinkedHashMap<String, Double>> resultList = result.getBody();
-    Gson gson = new Gson();
-    List<Pair<String, Double>> formattedList = resultList.stream().map(e ->
-    makePair(e)).collect(Collectors.toList());
-    return formattedList;
-  }
-
-  private static Pair<String, Double> makePair(LinkedHashMap e) {
-    String key = (String) e.get("key");
-    double value = (double) e.get("value");
-    return new Pair<>(key, value);
-  }
-
   /**
    * Creates a formatted string of suggested items based on the elements in the PQ.
    *
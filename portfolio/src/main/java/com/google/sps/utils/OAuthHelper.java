@@ -28,8 +28,6 @@ import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.services.books.v1.BooksScopes;
 import com.google.api.services.people.v1.PeopleServiceScopes;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.HashSet;
 import java.util.Set;
 import javax.servlet.ServletException;
@@ -122,14 +120,10 @@ public class OAuthHelper {
   }
 
   public static String getClientID() throws IOException {
-    return new String(
-        Files.readAllBytes(
-            Paths.get(OAuthHelper.class.getResource("/files/clientid.txt").getFile())));
+    return ResourceFiles.read("/files/clientid.txt");
   }
 
   public static String getClientSecret() throws IOException {
-    return new String(
-        Files.readAllBytes(
-            Paths.get(OAuthHelper.class.getResource("/files/clientsecret.txt").getFile())));
+    return ResourceFiles.read("/files/clientsecret.txt");
   }
 }
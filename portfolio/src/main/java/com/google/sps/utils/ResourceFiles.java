@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.utils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads small files bundled with the application, such as the API keys and OAuth client
+ * credentials under /files, and keeps their contents for the lifetime of the instance so that they
+ * are read from disk once rather than on every request.
+ */
+public class ResourceFiles {
+
+  private static final Map<String, String> contents = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the contents of a bundled resource file, reading it on first use.
+   *
+   * @param resource Absolute resource path, such as "/files/apikey.txt"
+   * @return Contents of the file
+   */
+  public static String read(String resource) throws IOException {
+    String cached = contents.get(resource);
+    if (cached != null) {
+      return cached;
+    }
+    URL url = ResourceFiles.class.getResource(resource);
+    if (url == null) {
+      throw new FileNotFoundException(resource);
+    }
+    String content = new String(Files.readAllBytes(Paths.get(url.getFile())));
+    contents.put(resource, content);
+    return content;
+  }
+}
@@ -17,6 +17,16 @@
 package com.google.sps.utils;
 
 // Imports the Google Cloud client library
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.cloud.texttospeech.v1.AudioConfig;
 import com.google.cloud.texttospeech.v1.AudioEncoding;
 import com.google.cloud.texttospeech.v1.SsmlVoiceGender;
@@ -25,21 +35,44 @@ import com.google.cloud.texttospeech.v1.SynthesizeSpeechResponse;
 import com.google.cloud.texttospeech.v1.TextToSpeechClient;
 import com.google.cloud.texttospeech.v1.VoiceSelectionParams;
 import com.google.protobuf.ByteString;
-import java.io.FileOutputStream;
-import java.io.OutputStream;
+import java.io.File;
+import java.util.Date;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class SpeechUtils {
+
+  private static Logger log = LoggerFactory.getLogger(SpeechUtils.class);
+  private static final String AUDIO_NAMESPACE = "tts-audio";
+  private static final int SHARED_AUDIO_SECONDS = 10 * 60;
+  public static final String CACHE_DIR_PROPERTY = "tts.cacheDir";
+  public static final String CACHE_DISK_BYTES_PROPERTY = "tts.cacheMaxDiskBytes";
+  private static final long CACHE_MEMORY_BYTES = 16 * 1024 * 1024;
+  private static final SsmlVoiceGender VOICE_GENDER = SsmlVoiceGender.FEMALE;
+  private static final AudioCache audioCache = createAudioCache();
+  private static final String PHRASE_NAMESPACE = "tts-phrase";
+  private static final String PHRASE_KIND = "AudioPhrase";
+  private static final int PHRASE_SECONDS = 60 * 60;
+
   /**
-   * Demonstrates using the Text to Speech client to synthesize text or ssml.
+   * Synthesizes text into MP3 audio with the Text to Speech client. Audio of previously synthesized
+   * text in the same language is served from the audio cache without calling the API.
    *
    * @param text the raw text to be synthesized. (e.g., "Hello there!")
+   * @param languageCode Language of the synthesized speech, "en-US" if null
+   * @return MP3 audio of the text, or null if synthesis failed
    * @throws Exception on TextToSpeechClient Errors.
    */
   public static ByteString synthesizeText(String text, String languageCode) throws Exception {
     languageCode = (languageCode == null) ? "en-US" : languageCode;
+    String cacheKey = AudioCache.key(text, languageCode, VOICE_GENDER.name());
+    ByteString cached = audioCache.get(cacheKey);
+    if (cached != null) {
+      return cached;
+    }
 
-    // Instantiates a client
-    try (TextToSpeechClient textToSpeechClient = TextToSpeechClient.create()) {
+    try {
+      TextToSpeechClient textToSpeechClient = CloudClients.getTextToSpeechClient();
       // Set the text input to be synthesized
       SynthesisInput input = SynthesisInput.newBuilder().setText(text).build();
 
@@ -47,7 +80,7 @@ public class SpeechUtils {
       VoiceSelectionParams voice =
           VoiceSelectionParams.newBuilder()
               .setLanguageCode(languageCode) // languageCode = "en_us"
-              .setSsmlGender(SsmlVoiceGender.FEMALE) // ssmlVoiceGender = SsmlVoiceGender.FEMALE
+              .setSsmlGender(VOICE_GENDER)
               .build();
 
       // Select the type of audio file you want returned
@@ -57,15 +90,14 @@ public class SpeechUtils {
               .build();
 
       // Perform the text-to-speech request
-      SynthesizeSpeechResponse response =
-          textToSpeechClient.synthesizeSpeech(input, voice, audioConfig);
+      SynthesizeSpeechResponse response;
+      try (Tracer.Span span = Tracer.start("api.tts")) {
+        response = textToSpeechClient.synthesizeSpeech(input, voice, audioConfig);
+      }
 
       // Get the audio contents from the response
       ByteString audioContents = response.getAudioContent();
-
-      // Write the response to the output file.
-      OutputStream out = new FileOutputStream("output.mp3");
-      out.write(audioContents.toByteArray());
+      audioCache.put(cacheKey, audioContents);
       return audioContents;
 
     } catch (Exception e) {
@@ -73,4 +105,142 @@ public class SpeechUtils {
     }
     return null;
   }
+
+  /**
+   * Returns a handle under which the audio of a phrase can be fetched with getAudio, without
+   * synthesizing it. The phrase is kept in memcache under the handle for PHRASE_SECONDS, so that
+   * whichever instance serves the audio request can synthesize it when the audio is not cached
+   * there. Only if memcache does not take the phrase is it stored in Datastore instead, with an
+   * "expireAt" time after which getAudio ignores and deletes it. A Datastore TTL policy on
+   * AudioPhrase.expireAt removes the phrases that are never fetched.
+   *
+   * @param text the raw text to be synthesized. (e.g., "Hello there!")
+   * @param languageCode Language of the synthesized speech, "en-US" if null
+   * @return Audio handle
+   */
+  public static String registerPhrase(String text, String languageCode) {
+    languageCode = (languageCode == null) ? "en-US" : languageCode;
+    String handle = AudioCache.key(text, languageCode, VOICE_GENDER.name());
+    boolean cached;
+    try (Tracer.Span span = Tracer.start("memcache.audio-phrase")) {
+      cached =
+          MemcacheServiceFactory.getMemcacheService(PHRASE_NAMESPACE)
+              .put(
+                  handle,
+                  new String[] {text, languageCode},
+                  Expiration.byDeltaSeconds(PHRASE_SECONDS),
+                  SetPolicy.SET_ALWAYS);
+    } catch (RuntimeException e) {
+      log.error("Cannot store phrase in memcache", e);
+      cached = false;
+    }
+    if (cached) {
+      return handle;
+    }
+    Entity phrase = new Entity(PHRASE_KIND, handle);
+    phrase.setUnindexedProperty("text", new Text(text));
+    phrase.setUnindexedProperty("languageCode", languageCode);
+    phrase.setUnindexedProperty("voice", VOICE_GENDER.name());
+    phrase.setUnindexedProperty("expireAt", new Date(System.currentTimeMillis() + PHRASE_SECONDS * 1000L));
+    try (Tracer.Span span = Tracer.start("datastore.audio-phrase")) {
+      DatastoreServiceFactory.getDatastoreService().put(phrase);
+    }
+    return handle;
+  }
+
+  /**
+   * Looks up the text and language of a registered phrase, first in memcache and then in
+   * Datastore. Expired Datastore phrases are deleted and treated as unknown.
+   *
+   * @param handle Audio handle returned by registerPhrase
+   * @return Text and language code of the phrase, or null if the handle is unknown
+   */
+  private static String[] lookUpPhrase(String handle) {
+    try {
+      String[] phrase =
+          (String[]) MemcacheServiceFactory.getMemcacheService(PHRASE_NAMESPACE).get(handle);
+      if (phrase != null) {
+        return phrase;
+      }
+    } catch (RuntimeException e) {
+      log.error("Cannot read phrase from memcache", e);
+    }
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Key key = KeyFactory.createKey(PHRASE_KIND, handle);
+    Entity entity;
+    try {
+      entity = datastore.get(key);
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+    Date expireAt = (Date) entity.getProperty("expireAt");
+    if (expireAt == null || expireAt.getTime() < System.currentTimeMillis()) {
+      datastore.delete(key);
+      return null;
+    }
+    return new String[] {
+      ((Text) entity.getProperty("text")).getValue(), (String) entity.getProperty("languageCode")
+    };
+  }
+
+  /**
+   * Looks up the audio of a handle, first in the local audio cache and then in memcache. If neither
+   * has it, the phrase registered under the handle is synthesized and the audio shared through
+   * memcache for a while, since the requests for the rest of the audio, such as byte ranges, may be
+   * served by other instances.
+   *
+   * @param handle Audio handle returned by registerPhrase
+   * @return MP3 audio, or null if the handle is unknown or synthesis failed
+   */
+  public static ByteString getAudio(String handle) {
+    ByteString audio = audioCache.get(handle);
+    if (audio != null) {
+      return audio;
+    }
+    try {
+      byte[] shared =
+          (byte[]) MemcacheServiceFactory.getMemcacheService(AUDIO_NAMESPACE).get(handle);
+      if (shared != null) {
+        audio = ByteString.copyFrom(shared);
+        audioCache.put(handle, audio);
+        return audio;
+      }
+    } catch (RuntimeException e) {
+      log.error("Cannot read shared audio from memcache", e);
+    }
+    String[] phrase = lookUpPhrase(handle);
+    if (phrase == null) {
+      return null;
+    }
+    try {
+      audio = synthesizeText(phrase[0], phrase[1]);
+    } catch (Exception e) {
+      log.error("Cannot synthesize audio " + handle, e);
+      return null;
+    }
+    if (audio == null) {
+      return null;
+    }
+    try {
+      MemcacheServiceFactory.getAsyncMemcacheService(AUDIO_NAMESPACE)
+          .put(handle, audio.toByteArray(), Expiration.byDeltaSeconds(SHARED_AUDIO_SECONDS));
+    } catch (RuntimeException e) {
+      log.error("Cannot share audio through memcache", e);
+    }
+    return audio;
+  }
+
+  /**
+   * Creates the audio cache. The disk tier is enabled by setting the "tts.cacheDir" system property
+   * to a writable directory, and its size is limited by "tts.cacheMaxDiskBytes".
+   *
+   * @return AudioCache for synthesized speech
+   */
+  private static AudioCache createAudioCache() {
+    String cacheDir = System.getProperty(CACHE_DIR_PROPERTY);
+    long maxDiskBytes =
+        Long.getLong(CACHE_DISK_BYTES_PROPERTY, AudioCache.DEFAULT_MAX_DISK_BYTES);
+    return new AudioCache(
+        CACHE_MEMORY_BYTES, cacheDir == null ? null : new File(cacheDir), maxDiskBytes);
+  }
 }
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.utils;
+
+import com.google.api.gax.rpc.ClientStream;
+import com.google.api.gax.rpc.ResponseObserver;
+import com.google.api.gax.rpc.StreamController;
+import com.google.cloud.speech.v1.RecognitionConfig;
+import com.google.cloud.speech.v1.StreamingRecognitionConfig;
+import com.google.cloud.speech.v1.StreamingRecognitionResult;
+import com.google.cloud.speech.v1.StreamingRecognizeRequest;
+import com.google.cloud.speech.v1.StreamingRecognizeResponse;
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single StreamingRecognize call that receives the audio of one utterance in sequenced chunks.
+ * Each chunk is passed through an AudioStage, which trims linear PCM or turns Opus into Ogg Opus,
+ * and forwarded to the Speech API once, so recognition work grows linearly with the length of the
+ * utterance. Sessions are kept in a process-wide registry keyed by the owner, such as the HTTP
+ * session, together with the client-chosen utterance ID, so that a client can only reach its own
+ * utterances. Sessions are closed when finished or after being idle for IDLE_MILLIS; idle sessions
+ * are looked for on every registry access.
+ *
+ * <p>The registry lives in the memory of one instance, so every chunk of an utterance must reach
+ * the instance that received chunk 0. App Engine standard has no session affinity: with more than
+ * one instance serving, a chunk routed elsewhere gets no session and the client restarts the
+ * utterance. Streaming therefore only works reliably with a single serving instance, such as with
+ * manual scaling of one instance or max-instances set to 1.
+ */
+public class StreamingRecognition {
+
+  private static Logger log = LoggerFactory.getLogger(StreamingRecognition.class);
+  static final long IDLE_MILLIS = 30000;
+  static final long FINAL_RESULT_MILLIS = 2000;
+  private static final int MAX_SESSIONS = 200;
+  private static final Map<String, StreamingRecognition> sessions = new ConcurrentHashMap<>();
+  private final ClientStream<StreamingRecognizeRequest> requests;
+  private final AudioStage stage;
+  private final StringBuilder finalTranscript = new StringBuilder();
+  private String interimTranscript = "";
+  private int nextSeq = 0;
+  private long lastUsed = System.currentTimeMillis();
+  private boolean failed = false;
+  private boolean complete = false;
+
+  /** Opens the recognition session of a new utterance. */
+  public interface Opener {
+    StreamingRecognition open() throws IOException;
+  }
+
+  /**
+   * Creates a session around an open request stream, such as a stub stream in tests. open() creates
+   * sessions of real StreamingRecognize calls.
+   *
+   * @param requests Request stream of the StreamingRecognize call
+   * @param stage Stage that each chunk passes through before it is sent
+   */
+  public StreamingRecognition(ClientStream<StreamingRecognizeRequest> requests, AudioStage stage) {
+    this.requests = requests;
+    this.stage = stage;
+  }
+
+  /**
+   * Opens a StreamingRecognize call to the Speech API and sends the recognition config.
+   *
+   * @param languageCode Language of the utterance
+   * @param sampleRate Sample rate in hertz of 16-bit linear PCM audio chunks
+   * @param format Encoding of the audio chunks
+   * @return New session expecting chunk 0
+   */
+  public static StreamingRecognition open(
+      String languageCode, int sampleRate, InputAudioFormat format) throws IOException {
+    AudioStage stage;
+    if (format.isOpus()) {
+      stage = AudioUtils.opusStage(format);
+      sampleRate = InputAudioFormat.OPUS_SAMPLE_RATE;
+    } else {
+      AudioPreprocessor preprocessor = new AudioPreprocessor(sampleRate, 1);
+      stage = preprocessor;
+      sampleRate = preprocessor.getOutputSampleRate();
+    }
+    TranscriptObserver observer = new TranscriptObserver();
+    StreamingRecognition session =
+        new StreamingRecognition(
+            CloudClients.getSpeechClient().streamingRecognizeCallable().splitCall(observer),
+            stage);
+    observer.session = session;
+    RecognitionConfig config =
+        RecognitionConfig.newBuilder()
+            .setEncoding(format.getSpeechEncoding())
+            .setLanguageCode(languageCode)
+            .setSampleRateHertz(sampleRate)
+            .build();
+    session.requests.send(
+        StreamingRecognizeRequest.newBuilder()
+            .setStreamingConfig(
+                StreamingRecognitionConfig.newBuilder()
+                    .setConfig(config)
+                    .setInterimResults(true)
+                    .build())
+            .build());
+    return session;
+  }
+
+  /**
+   * Starts a new recognition session for an utterance, replacing any previous session of the same
+   * owner and utterance ID.
+   *
+   * @param ownerID ID of the client the utterance belongs to, such as its HTTP session ID
+   * @param utteranceID Client-chosen unique ID of the utterance
+   * @param opener Opens the new session, such as with open()
+   * @return New session expecting chunk 0
+   * @throws IllegalStateException if this instance already has MAX_SESSIONS open sessions
+   */
+  public static StreamingRecognition start(String ownerID, String utteranceID, Opener opener)
+      throws IOException {
+    evictIdle(System.currentTimeMillis());
+    if (sessions.size() >= MAX_SESSIONS) {
+      throw new IllegalStateException("Too many streaming recognition sessions");
+    }
+    StreamingRecognition session = opener.open();
+    StreamingRecognition previous = sessions.put(key(ownerID, utteranceID), session);
+    if (previous != null) {
+      previous.close();
+    }
+    return session;
+  }
+
+  /**
+   * Returns the open session of an utterance.
+   *
+   * @param ownerID ID of the client the utterance belongs to
+   * @param utteranceID ID of the utterance
+   * @return Session or null if this instance has no open session for the utterance
+   */
+  public static StreamingRecognition get(String ownerID, String utteranceID) {
+    evictIdle(System.currentTimeMillis());
+    return sessions.get(key(ownerID, utteranceID));
+  }
+
+  /**
+   * Ends an utterance: closes its session and waits up to FINAL_RESULT_MILLIS for the Speech API to
+   * return the results of the last audio, which it only sends after the stream is half-closed.
+   *
+   * @param ownerID ID of the client the utterance belongs to
+   * @param utteranceID ID of the utterance
+   * @return Final transcript, or null if this instance has no open session for the utterance
+   */
+  public static String finish(String ownerID, String utteranceID) {
+    StreamingRecognition session = sessions.remove(key(ownerID, utteranceID));
+    evictIdle(System.currentTimeMillis());
+    if (session == null) {
+      return null;
+    }
+    session.close();
+    return session.awaitTranscript(FINAL_RESULT_MILLIS);
+  }
+
+  /**
+   * Closes the session of an utterance if it is open, without waiting for its results.
+   *
+   * @param ownerID ID of the client the utterance belongs to
+   * @param utteranceID ID of the utterance
+   */
+  public static void discard(String ownerID, String utteranceID) {
+    StreamingRecognition session = sessions.remove(key(ownerID, utteranceID));
+    if (session != null) {
+      session.close();
+    }
+    evictIdle(System.currentTimeMillis());
+  }
+
+  /**
+   * Forwards the next audio chunk of the utterance.
+   *
+   * @param seq Sequence number of the chunk, starting at 0
+   * @param audio Next part of the recording, such as 16-bit little-endian linear PCM samples
+   * @return false if the chunk is out of order or the call has failed, in which case the client
+   *     must restart the utterance
+   */
+  public synchronized boolean send(int seq, ByteString audio) {
+    lastUsed = System.currentTimeMillis();
+    if (failed || seq != nextSeq) {
+      return false;
+    }
+    nextSeq++;
+    byte[] speech;
+    try {
+      speech = stage.process(audio.toByteArray(), 0, audio.size());
+    } catch (IOException e) {
+      log.error("Invalid audio chunk", e);
+      failed = true;
+      requests.closeSendWithError(e);
+      return false;
+    }
+    if (speech.length > 0) {
+      requests.send(
+          StreamingRecognizeRequest.newBuilder()
+              .setAudioContent(ByteString.copyFrom(speech))
+              .build());
+    }
+    return true;
+  }
+
+  /**
+   * Returns the transcript recognized so far: all final results followed by the latest interim
+   * result.
+   *
+   * @return Current transcript
+   */
+  public synchronized String getTranscript() {
+    return (finalTranscript.toString() + interimTranscript).trim();
+  }
+
+  /**
+   * Waits until the Speech API has completed the call or failed, or until the timeout passes or the
+   * thread is interrupted.
+   *
+   * @param timeoutMillis Maximum time to wait in milliseconds
+   * @return Transcript recognized by then
+   */
+  private synchronized String awaitTranscript(long timeoutMillis) {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    long remaining = timeoutMillis;
+    try {
+      while (!complete && remaining > 0) {
+        wait(remaining);
+        remaining = deadline - System.currentTimeMillis();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return getTranscript();
+  }
+
+  /**
+   * Adds a result streamed back by the Speech API.
+   *
+   * @param transcript Transcript of the result
+   * @param isFinal Whether the result is final rather than interim
+   */
+  synchronized void addResult(String transcript, boolean isFinal) {
+    if (isFinal) {
+      finalTranscript.append(transcript).append(' ');
+      interimTranscript = "";
+    } else {
+      interimTranscript = transcript;
+    }
+  }
+
+  /**
+   * Marks the call as ended by the Speech API, waking up a waiting finish.
+   *
+   * @param error Whether the call ended with an error
+   */
+  synchronized void markComplete(boolean error) {
+    failed |= error;
+    complete = true;
+    notifyAll();
+  }
+
+  private synchronized void close() {
+    if (!failed) {
+      try {
+        byte[] speech = stage.finish();
+        if (speech.length > 0) {
+          requests.send(
+              StreamingRecognizeRequest.newBuilder()
+                  .setAudioContent(ByteString.copyFrom(speech))
+                  .build());
+        }
+      } catch (IOException e) {
+        log.error("Invalid end of audio", e);
+      }
+      requests.closeSend();
+    }
+  }
+
+  /**
+   * Returns the registry key of an utterance. The owner ID is prefixed with its length, so that no
+   * choice of utterance ID can produce the key of another owner's utterance.
+   */
+  private static String key(String ownerID, String utteranceID) {
+    return ownerID.length() + ":" + ownerID + "/" + utteranceID;
+  }
+
+  /**
+   * Closes sessions that have not received audio for IDLE_MILLIS.
+   *
+   * @param now Current time in milliseconds
+   */
+  static void evictIdle(long now) {
+    for (Map.Entry<String, StreamingRecognition> entry : sessions.entrySet()) {
+      StreamingRecognition session = entry.getValue();
+      boolean idle;
+      synchronized (session) {
+        idle = now - session.lastUsed > IDLE_MILLIS;
+      }
+      if (idle && sessions.remove(entry.getKey(), session)) {
+        session.close();
+      }
+    }
+  }
+
+  /**
+   * Collects the transcripts streamed back by the Speech API into its session. The session is set
+   * before the recognition config is sent, so before any response can arrive.
+   */
+  private static class TranscriptObserver implements ResponseObserver<StreamingRecognizeResponse> {
+    private StreamingRecognition session;
+
+    @Override
+    public void onStart(StreamController controller) {}
+
+    @Override
+    public void onResponse(StreamingRecognizeResponse response) {
+      for (StreamingRecognitionResult result : response.getResultsList()) {
+        if (result.getAlternativesCount() > 0) {
+          session.addResult(result.getAlternatives(0).getTranscript(), result.getIsFinal());
+        }
+      }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      log.error("Streaming recognition failed", t);
+      session.markComplete(true);
+    }
+
+    @Override
+    public void onComplete() {
+      session.markComplete(false);
+    }
+  }
+}
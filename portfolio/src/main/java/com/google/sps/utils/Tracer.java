@@ -0,0 +1,265 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.utils;
+
+import com.google.sps.recommendations.SpanExporter;
+import com.google.sps.recommendations.TraceParent;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lightweight request tracing. Servlets begin a trace per request; spans timed while it is current
+ * are logged with the trace when it ends and written to the "portfolio" SpanExporter with their
+ * trace and parent span IDs. Work handed to another thread continues the trace by attaching the
+ * Context captured on the request thread, and calls to the recommendations API carry it in a
+ * traceparent header. Every span, traced or not, is also recorded in a latency histogram under its
+ * name. Names are prefixed by kind: "request." for whole requests, "intent." for requests by
+ * detected intent, "stage." for steps of the response, "agent." for agents and "api." for calls to
+ * external services.
+ */
+public final class Tracer {
+
+  private static Logger log = LoggerFactory.getLogger(Tracer.class);
+  private static final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+  private static final ThreadLocal<Context> current = new ThreadLocal<>();
+  private static final SpanExporter exporter = SpanExporter.create("portfolio");
+
+  private Tracer() {}
+
+  /** Trace of a single request, shared by all threads working on it. */
+  private static class Trace {
+    final String name;
+    final String traceId = TraceParent.newTraceId();
+    final long startNanos = System.nanoTime();
+    final long startMillis = System.currentTimeMillis();
+    final StringBuffer spans = new StringBuffer();
+    volatile String intent;
+
+    Trace(String name) {
+      this.name = name;
+    }
+  }
+
+  /**
+   * Position in a trace: the trace and the span that new spans become children of. Capture it with
+   * currentContext() and attach it on another thread to continue the trace there.
+   */
+  public static final class Context {
+    private final Trace trace;
+    private final String spanId;
+
+    private Context(Trace trace, String spanId) {
+      this.trace = trace;
+      this.spanId = spanId;
+    }
+  }
+
+  /** Timed section of work that is recorded when closed, nested in the span open on its thread. */
+  public static class Span implements AutoCloseable {
+    private final String name;
+    private final long startNanos = System.nanoTime();
+    private final long startMillis = System.currentTimeMillis();
+    private final Context parent;
+    private final Context context;
+
+    private Span(String name) {
+      this.name = name;
+      parent = current.get();
+      context = parent == null ? null : new Context(parent.trace, TraceParent.newSpanId());
+      if (context != null) {
+        current.set(context);
+      }
+    }
+
+    @Override
+    public void close() {
+      long millis = elapsedMillis(startNanos);
+      histogram(name).record(millis);
+      if (context != null) {
+        current.set(parent);
+        finish(context, parent.spanId, name, startMillis, millis);
+      }
+    }
+  }
+
+  /** Attachment of a Context to a thread, which restores the previous one when closed. */
+  public static class Scope implements AutoCloseable {
+    private final Context previous;
+
+    private Scope(Context previous) {
+      this.previous = previous;
+    }
+
+    @Override
+    public void close() {
+      if (previous == null) {
+        current.remove();
+      } else {
+        current.set(previous);
+      }
+    }
+  }
+
+  /**
+   * Begins the trace of a request on the current thread, replacing any trace left by an earlier
+   * request.
+   *
+   * @param name Name of the request, such as the servlet path without its slash
+   */
+  public static void beginRequest(String name) {
+    current.set(new Context(new Trace(name), TraceParent.newSpanId()));
+  }
+
+  /**
+   * Sets the detected intent of the current request so that its latency is also recorded per
+   * intent.
+   *
+   * @param intent Display name of the detected intent
+   */
+  public static void setIntent(String intent) {
+    Context context = current.get();
+    if (context != null) {
+      context.trace.intent = intent;
+    }
+  }
+
+  /**
+   * Ends the trace of the current request, recording its latency and logging its spans. Does
+   * nothing if the trace has already ended.
+   */
+  public static void endRequest() {
+    Context context = current.get();
+    if (context == null) {
+      return;
+    }
+    current.remove();
+    Trace trace = context.trace;
+    long millis = elapsedMillis(trace.startNanos);
+    histogram("request." + trace.name).record(millis);
+    if (trace.intent != null) {
+      histogram("intent." + trace.intent).record(millis);
+    }
+    exporter.export(
+        trace.traceId, context.spanId, null, "request." + trace.name, trace.startMillis, millis);
+    log.info(
+        "Trace "
+            + trace.traceId
+            + " "
+            + trace.name
+            + " ("
+            + trace.intent
+            + "): "
+            + millis
+            + " ms;"
+            + trace.spans);
+  }
+
+  /**
+   * Starts a span, to be closed with try-with-resources on the same thread.
+   *
+   * @param name Name of the span
+   * @return Span that records its duration when closed
+   */
+  public static Span start(String name) {
+    return new Span(name);
+  }
+
+  /**
+   * Records the duration of a span that was timed elsewhere and has just ended.
+   *
+   * @param name Name of the span
+   * @param millis Duration in milliseconds
+   */
+  public static void record(String name, long millis) {
+    histogram(name).record(millis);
+    Context parent = current.get();
+    if (parent != null) {
+      Context context = new Context(parent.trace, TraceParent.newSpanId());
+      finish(context, parent.spanId, name, System.currentTimeMillis() - millis, millis);
+    }
+  }
+
+  /**
+   * Captures the trace position of the current thread.
+   *
+   * @return Context of the current span, or null if no trace is current
+   */
+  public static Context currentContext() {
+    return current.get();
+  }
+
+  /**
+   * Continues a trace on the current thread until the returned scope is closed.
+   *
+   * @param context Context captured with currentContext(), which may be null
+   * @return Scope that restores the thread's previous trace position when closed
+   */
+  public static Scope attach(Context context) {
+    Scope scope = new Scope(current.get());
+    if (context == null) {
+      current.remove();
+    } else {
+      current.set(context);
+    }
+    return scope;
+  }
+
+  /**
+   * Formats the current trace position for propagation to another service.
+   *
+   * @return traceparent header value, or null if no trace is current
+   */
+  public static String getTraceParent() {
+    Context context = current.get();
+    if (context == null) {
+      return null;
+    }
+    return new TraceParent(context.trace.traceId, context.spanId).toHeader();
+  }
+
+  /**
+   * Summarizes the latency histograms of all spans recorded since startup.
+   *
+   * @return Map of span name to p50, p95, p99 and maximum latency in milliseconds, sorted by name
+   */
+  public static Map<String, Map<String, Long>> getLatencies() {
+    Map<String, Map<String, Long>> latencies = new TreeMap<>();
+    for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+      latencies.put(entry.getKey(), entry.getValue().getSummary());
+    }
+    return latencies;
+  }
+
+  private static void finish(
+      Context context, String parentSpanId, String name, long startMillis, long millis) {
+    context.trace.spans.append(' ').append(name).append('=').append(millis);
+    exporter.export(
+        context.trace.traceId, context.spanId, parentSpanId, name, startMillis, millis);
+  }
+
+  private static LatencyHistogram histogram(String name) {
+    return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+  }
+
+  private static long elapsedMillis(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+}
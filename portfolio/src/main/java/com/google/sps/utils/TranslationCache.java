@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of translated phrases keyed by text, source language, target language and
+ * model. Lookups are made in batches so that all strings of a response missing from the cache are
+ * translated with a single call to the Translator.
+ */
+public class TranslationCache {
+
+  /** Translates a batch of strings, such as with one Translate API call. */
+  public interface Translator {
+
+    /**
+     * Translates strings.
+     *
+     * @param texts Distinct strings to translate
+     * @param languageFromCode Language code of the strings
+     * @param languageToCode Language code to translate into
+     * @param model Translation model
+     * @return Translated strings in the same order
+     */
+    List<String> translate(
+        List<String> texts, String languageFromCode, String languageToCode, String model);
+  }
+
+  private final Translator translator;
+  private final int maxEntries;
+  private final LinkedHashMap<String, String> entries;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong translatorCalls = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * TranslationCache constructor.
+   *
+   * @param maxEntries Maximum number of translated phrases to keep
+   * @param translator Translator called for phrases that are not cached
+   */
+  public TranslationCache(int maxEntries, Translator translator) {
+    this.maxEntries = maxEntries;
+    this.translator = translator;
+    entries =
+        new LinkedHashMap<String, String>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            if (size() > TranslationCache.this.maxEntries) {
+              evictions.incrementAndGet();
+              return true;
+            }
+            return false;
+          }
+        };
+  }
+
+  /**
+   * Translates strings, calling the Translator at most once for all strings that are not cached.
+   * Repeated strings are translated once.
+   *
+   * @param texts Strings to translate, which may contain nulls
+   * @param languageFromCode Language code of the strings
+   * @param languageToCode Language code to translate into
+   * @param model Translation model
+   * @return Translated strings in the same order, with null for null input strings
+   */
+  public List<String> translateAll(
+      List<String> texts, String languageFromCode, String languageToCode, String model) {
+    Map<String, String> translated = new HashMap<>();
+    List<String> missing = new ArrayList<>();
+    synchronized (entries) {
+      for (String text : new LinkedHashSet<>(texts)) {
+        if (text == null) {
+          continue;
+        }
+        String cached = entries.get(key(text, languageFromCode, languageToCode, model));
+        if (cached == null) {
+          missing.add(text);
+        } else {
+          translated.put(text, cached);
+        }
+      }
+    }
+    hits.addAndGet(translated.size());
+    misses.addAndGet(missing.size());
+    if (!missing.isEmpty()) {
+      translatorCalls.incrementAndGet();
+      List<String> results = translator.translate(missing, languageFromCode, languageToCode, model);
+      synchronized (entries) {
+        for (int i = 0; i < missing.size(); i++) {
+          String text = missing.get(i);
+          translated.put(text, results.get(i));
+          entries.put(key(text, languageFromCode, languageToCode, model), results.get(i));
+        }
+      }
+    }
+    List<String> result = new ArrayList<>();
+    for (String text : texts) {
+      result.add(text == null ? null : translated.get(text));
+    }
+    return result;
+  }
+
+  /**
+   * Reports cache statistics: the number of cached phrases, lookups served from the cache, lookups
+   * that needed translation, calls made to the Translator and phrases evicted.
+   *
+   * @return Map of statistic name to value
+   */
+  public Map<String, Long> getStats() {
+    Map<String, Long> stats = new LinkedHashMap<>();
+    synchronized (entries) {
+      stats.put("size", (long) entries.size());
+    }
+    stats.put("hits", hits.get());
+    stats.put("misses", misses.get());
+    stats.put("translatorCalls", translatorCalls.get());
+    stats.put("evictions", evictions.get());
+    return stats;
+  }
+
+  private static String key(
+      String text, String languageFromCode, String languageToCode, String model) {
+    return model + '\0' + languageFromCode + '\0' + languageToCode + '\0' + text;
+  }
+}
@@ -28,8 +28,6 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.sql.Date;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -393,10 +391,7 @@ public class VideoUtils {
   }
 
   private String setKey() throws IOException {
-    String apiKey =
-        new String(
-            Files.readAllBytes(
-                Paths.get(VideoUtils.class.getResource("/files/youtubeAPIKey.txt").getFile())));
+    String apiKey = ResourceFiles.read("/files/youtubeAPIKey.txt");
     return "key=" + apiKey;
   }
 
@@ -466,15 +461,13 @@ public class VideoUtils {
    * @return JSONObject json from YouTube Data API search URL
    */
   private JSONObject readJsonFromUrl(String url) throws IOException, JSONException {
-    InputStream is = new URL(url).openStream();
-    try {
+    String jsonText;
+    try (Tracer.Span span = Tracer.start("api.youtube");
+        InputStream is = new URL(url).openStream()) {
       BufferedReader rd = new BufferedReader(new InputStreamReader(is, Charset.forName("UTF-8")));
-      String jsonText = readAll(rd);
-      JSONObject json = new JSONObject(jsonText);
-      return json;
-    } finally {
-      is.close();
+      jsonText = readAll(rd);
     }
+    return new JSONObject(jsonText);
   }
 
   /**
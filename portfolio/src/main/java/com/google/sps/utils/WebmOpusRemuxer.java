@@ -0,0 +1,348 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Repackages the Opus track of a WebM recording, as produced by browser MediaRecorders, into an
+ * Ogg Opus stream. Opus packets are copied unchanged, so no audio is decoded or re-encoded. The
+ * WebM input is parsed incrementally and may be split anywhere, including segments and clusters
+ * of unknown size that are still being recorded. Laced blocks are not supported.
+ */
+public class WebmOpusRemuxer implements AudioStage {
+
+  private static final int SEGMENT = 0x18538067;
+  private static final int CLUSTER = 0x1F43B675;
+  private static final int TRACKS = 0x1654AE6B;
+  private static final int TRACK_ENTRY = 0xAE;
+  private static final int BLOCK_GROUP = 0xA0;
+  private static final int TRACK_NUMBER = 0xD7;
+  private static final int CODEC_ID = 0x86;
+  private static final int CODEC_PRIVATE = 0x63A2;
+  private static final int SIMPLE_BLOCK = 0xA3;
+  private static final int BLOCK = 0xA1;
+  private static final int MAX_ELEMENT_SIZE = 1 << 20;
+  private static final int MAX_PAGE_SEGMENTS = 255;
+  private static final int OGG_BEGIN_OF_STREAM = 0x02;
+  private static final int OGG_END_OF_STREAM = 0x04;
+  private static final int STREAM_SERIAL = 0x4f707573;
+  private static final byte[] OPUS_TAGS = opusTags("step-capstone");
+  private static final int[] CRC_TABLE = new int[256];
+  private byte[] buffer = new byte[8192];
+  private int bufferLength = 0;
+  private long skipRemaining = 0;
+  private long opusTrack = -1;
+  private long granulePosition = 0;
+  private int pageSequence = 0;
+  private final ByteArrayOutputStream pageBody = new ByteArrayOutputStream();
+  private final byte[] pageLacing = new byte[MAX_PAGE_SEGMENTS];
+  private int pageSegments = 0;
+
+  static {
+    for (int i = 0; i < CRC_TABLE.length; i++) {
+      int remainder = i << 24;
+      for (int bit = 0; bit < 8; bit++) {
+        remainder = (remainder & 0x80000000) != 0 ? (remainder << 1) ^ 0x04C11DB7 : remainder << 1;
+      }
+      CRC_TABLE[i] = remainder;
+    }
+  }
+
+  /**
+   * Parses the next part of the WebM recording. Complete Ogg pages are returned for all Opus
+   * packets received so far.
+   *
+   * @param data WebM bytes
+   * @param offset Start of the bytes in data
+   * @param length Number of bytes to parse
+   * @return Ogg Opus bytes, possibly empty
+   * @throws IOException if the recording is not a WebM file with an Opus track
+   */
+  @Override
+  public byte[] process(byte[] data, int offset, int length) throws IOException {
+    append(data, offset, length);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int position = 0;
+    while (position < bufferLength) {
+      if (skipRemaining > 0) {
+        int skipped = (int) Math.min(skipRemaining, bufferLength - position);
+        position += skipped;
+        skipRemaining -= skipped;
+        continue;
+      }
+      int idLength = vintLength(buffer[position]);
+      if (idLength > 4) {
+        throw new IOException("Invalid WebM element ID");
+      }
+      if (position + idLength >= bufferLength) {
+        break;
+      }
+      int sizeLength = vintLength(buffer[position + idLength]);
+      int contentStart = position + idLength + sizeLength;
+      if (contentStart > bufferLength) {
+        break;
+      }
+      int id = (int) readUnsigned(position, idLength);
+      long size = readSize(position + idLength, sizeLength);
+      if (id == SEGMENT || id == CLUSTER || id == TRACKS || id == BLOCK_GROUP) {
+        // Master elements are entered rather than buffered, so their size may be unknown.
+        position = contentStart;
+        continue;
+      }
+      if (size < 0) {
+        throw new IOException("WebM element " + Integer.toHexString(id) + " has unknown size");
+      }
+      if (id != TRACK_ENTRY && id != SIMPLE_BLOCK && id != BLOCK) {
+        position = contentStart;
+        skipRemaining = size;
+        continue;
+      }
+      if (size > MAX_ELEMENT_SIZE) {
+        throw new IOException("WebM element " + Integer.toHexString(id) + " is too large");
+      }
+      if (contentStart + size > bufferLength) {
+        break;
+      }
+      if (id == TRACK_ENTRY) {
+        readTrackEntry(contentStart, (int) size, out);
+      } else {
+        readBlock(contentStart, (int) size, out);
+      }
+      position = contentStart + (int) size;
+    }
+    System.arraycopy(buffer, position, buffer, 0, bufferLength - position);
+    bufferLength -= position;
+    flushPage(out, 0);
+    return out.toByteArray();
+  }
+
+  /**
+   * Ends the recording and marks the end of the Ogg stream.
+   *
+   * @return Last Ogg page, or nothing if the recording had no Opus track
+   */
+  @Override
+  public byte[] finish() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    if (opusTrack >= 0) {
+      flushPage(out, OGG_END_OF_STREAM);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Reads a track entry and starts the Ogg stream with the Opus headers if it is the first Opus
+   * track.
+   */
+  private void readTrackEntry(int start, int length, ByteArrayOutputStream out)
+      throws IOException {
+    long number = -1;
+    String codecId = null;
+    byte[] codecPrivate = null;
+    int position = start;
+    int end = start + length;
+    while (position < end) {
+      int idLength = vintLength(buffer[position]);
+      if (position + idLength >= end) {
+        throw new IOException("Invalid WebM track entry");
+      }
+      int sizeLength = vintLength(buffer[position + idLength]);
+      int id = (int) readUnsigned(position, idLength);
+      long size = readSize(position + idLength, sizeLength);
+      int contentStart = position + idLength + sizeLength;
+      if (size < 0 || contentStart + size > end) {
+        throw new IOException("Invalid WebM track entry");
+      }
+      if (id == TRACK_NUMBER) {
+        number = readUnsigned(contentStart, (int) size);
+      } else if (id == CODEC_ID) {
+        codecId = new String(buffer, contentStart, (int) size, StandardCharsets.US_ASCII).trim();
+      } else if (id == CODEC_PRIVATE) {
+        codecPrivate = Arrays.copyOfRange(buffer, contentStart, contentStart + (int) size);
+      }
+      position = contentStart + (int) size;
+    }
+    if (opusTrack >= 0 || !"A_OPUS".equals(codecId)) {
+      return;
+    }
+    if (codecPrivate == null
+        || codecPrivate.length < 8
+        || !new String(codecPrivate, 0, 8, StandardCharsets.US_ASCII).equals("OpusHead")) {
+      throw new IOException("WebM Opus track has no OpusHead");
+    }
+    opusTrack = number;
+    addPacket(codecPrivate, 0, codecPrivate.length, false);
+    flushPage(out, OGG_BEGIN_OF_STREAM);
+    addPacket(OPUS_TAGS, 0, OPUS_TAGS.length, false);
+    flushPage(out, 0);
+  }
+
+  /** Reads a block and adds its frame to the Ogg stream if it belongs to the Opus track. */
+  private void readBlock(int start, int length, ByteArrayOutputStream out) throws IOException {
+    int trackLength = vintLength(buffer[start]);
+    if (trackLength + 3 > length) {
+      throw new IOException("Invalid WebM block");
+    }
+    long track = readSize(start, trackLength);
+    if (opusTrack < 0 || track != opusTrack) {
+      return;
+    }
+    int flags = buffer[start + trackLength + 2];
+    if ((flags & 0x06) != 0) {
+      throw new IOException("Laced WebM blocks are not supported");
+    }
+    int packetStart = start + trackLength + 3;
+    int packetLength = length - trackLength - 3;
+    if (pageSegments + packetLength / 255 + 1 > MAX_PAGE_SEGMENTS) {
+      flushPage(out, 0);
+    }
+    addPacket(buffer, packetStart, packetLength, true);
+  }
+
+  /**
+   * Adds a packet to the current Ogg page.
+   *
+   * @param data Buffer containing the packet
+   * @param offset Start of the packet
+   * @param length Length of the packet
+   * @param audio Whether the packet is audio that advances the granule position
+   */
+  private void addPacket(byte[] data, int offset, int length, boolean audio) {
+    for (int remaining = length; ; remaining -= 255) {
+      pageLacing[pageSegments++] = (byte) Math.min(remaining, 255);
+      if (remaining < 255) {
+        break;
+      }
+    }
+    pageBody.write(data, offset, length);
+    if (audio) {
+      granulePosition += packetSamples(data, offset, length);
+    }
+  }
+
+  /**
+   * Writes the current page if it has packets or flags.
+   *
+   * @param out Output for the page
+   * @param headerType Ogg header type flags of the page
+   */
+  private void flushPage(ByteArrayOutputStream out, int headerType) {
+    if (pageSegments == 0 && headerType == 0) {
+      return;
+    }
+    byte[] body = pageBody.toByteArray();
+    byte[] page = new byte[27 + pageSegments + body.length];
+    page[0] = 'O';
+    page[1] = 'g';
+    page[2] = 'g';
+    page[3] = 'S';
+    page[5] = (byte) headerType;
+    writeLittleEndian(page, 6, granulePosition, 8);
+    writeLittleEndian(page, 14, STREAM_SERIAL, 4);
+    writeLittleEndian(page, 18, pageSequence++, 4);
+    page[26] = (byte) pageSegments;
+    System.arraycopy(pageLacing, 0, page, 27, pageSegments);
+    System.arraycopy(body, 0, page, 27 + pageSegments, body.length);
+    int crc = 0;
+    for (byte b : page) {
+      crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ b) & 0xff];
+    }
+    writeLittleEndian(page, 22, crc, 4);
+    out.write(page, 0, page.length);
+    pageBody.reset();
+    pageSegments = 0;
+  }
+
+  /**
+   * Computes the duration of an Opus packet from its table-of-contents byte (RFC 6716).
+   *
+   * @return Number of samples at 48 kHz
+   */
+  static int packetSamples(byte[] data, int offset, int length) {
+    if (length == 0) {
+      return 0;
+    }
+    int toc = data[offset] & 0xff;
+    int config = toc >> 3;
+    int frameSamples;
+    if (config < 12) {
+      frameSamples = new int[] {480, 960, 1920, 2880}[config % 4];
+    } else if (config < 16) {
+      frameSamples = config % 2 == 0 ? 480 : 960;
+    } else {
+      frameSamples = 120 << (config % 4);
+    }
+    int code = toc & 0x03;
+    if (code == 0) {
+      return frameSamples;
+    }
+    if (code < 3) {
+      return 2 * frameSamples;
+    }
+    return length > 1 ? (data[offset + 1] & 0x3f) * frameSamples : 0;
+  }
+
+  private void append(byte[] data, int offset, int length) {
+    if (bufferLength + length > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, bufferLength + length));
+    }
+    System.arraycopy(data, offset, buffer, bufferLength, length);
+    bufferLength += length;
+  }
+
+  private static int vintLength(byte first) throws IOException {
+    for (int i = 0; i < 8; i++) {
+      if ((first & (0x80 >> i)) != 0) {
+        return i + 1;
+      }
+    }
+    throw new IOException("Invalid WebM variable-length integer");
+  }
+
+  private long readUnsigned(int offset, int length) {
+    long value = 0;
+    for (int i = 0; i < length; i++) {
+      value = (value << 8) | (buffer[offset + i] & 0xff);
+    }
+    return value;
+  }
+
+  /** Reads a variable-length size without its length marker, or -1 if the size is unknown. */
+  private long readSize(int offset, int length) {
+    long value = readUnsigned(offset, length) & ((1L << (7 * length)) - 1);
+    return value == (1L << (7 * length)) - 1 ? -1 : value;
+  }
+
+  private static void writeLittleEndian(byte[] data, int offset, long value, int length) {
+    for (int i = 0; i < length; i++) {
+      data[offset + i] = (byte) (value >>> (8 * i));
+    }
+  }
+
+  private static byte[] opusTags(String vendor) {
+    byte[] vendorBytes = vendor.getBytes(StandardCharsets.US_ASCII);
+    byte[] tags = new byte[8 + 4 + vendorBytes.length + 4];
+    System.arraycopy("OpusTags".getBytes(StandardCharsets.US_ASCII), 0, tags, 0, 8);
+    writeLittleEndian(tags, 8, vendorBytes.length, 4);
+    System.arraycopy(vendorBytes, 0, tags, 12, vendorBytes.length);
+    return tags;
+  }
+}
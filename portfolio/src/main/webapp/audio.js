@@ -23,6 +23,34 @@ record.addEventListener("click", startRecording);
 stop.addEventListener("click", stopRecording);
 
 var streamingStarted;
+var utteranceId;
+var chunkSeq;
+var sentSamples;
+var chunkInFlight;
+var opusRecorder;
+var opusChunks;
+var sentChunks;
+
+// Compressed recording formats in order of preference. Ogg is forwarded to the speech APIs as it
+// is and WebM is repackaged into Ogg on the server; neither is transcoded.
+const OPUS_TYPES = ['audio/ogg;codecs=opus', 'audio/webm;codecs=opus'];
+
+/**
+ * Returns the first Opus recording format this browser supports.
+ *
+ * @return MIME type of the format, or null if the browser cannot record Opus.
+ */
+function getOpusType() {
+  if (typeof MediaRecorder === 'undefined' || !MediaRecorder.isTypeSupported) {
+    return null;
+  }
+  for (var i = 0; i < OPUS_TYPES.length; i++) {
+    if (MediaRecorder.isTypeSupported(OPUS_TYPES[i])) {
+      return OPUS_TYPES[i];
+    }
+  }
+  return null;
+}
  
 /**
  * Handles recording audio once record button is clicked.
@@ -51,6 +79,12 @@ function startRecording() {
         /*  assign to gumStream for later use  */
         gumStream = stream;
         
+        var opusType = getOpusType();
+        if (opusType != null) {
+          recordOpus(stream, opusType);
+          return;
+        }
+
         /* use the stream */
         input = audioContext.createMediaStreamSource(stream);
  
@@ -64,6 +98,7 @@ function startRecording() {
         rec.record()
         console.log("Recording started");
 
+        startUtterance();
         streamingStarted = setInterval(streamAudio, 500);
  
     }).catch(function(err) {
@@ -73,36 +108,133 @@ function startRecording() {
     });
 }
 
+/**
+ * Records Opus with a MediaRecorder. Each half second of the recording is streamed as it becomes
+ * available and the whole recording is sent for fulfillment once recording stops.
+ *
+ * @param stream Microphone MediaStream.
+ * @param opusType MIME type of the recording format.
+ */
+function recordOpus(stream, opusType) {
+  opusChunks = [];
+  opusRecorder = new MediaRecorder(stream, {mimeType: opusType});
+  opusRecorder.ondataavailable = function(event) {
+    if (event.data.size > 0) {
+      opusChunks.push(event.data);
+      streamAudio();
+    }
+  };
+  opusRecorder.onstop = function() {
+    // The blob type is sent as the content type, which tells the server the encoding.
+    getResponseFromAudio(new Blob(opusChunks, {type: opusType}));
+    opusRecorder = null;
+  };
+  startUtterance();
+  opusRecorder.start(500);
+}
+
+/**
+ * Starts streaming a new utterance from the beginning of the recording.
+ */
+function startUtterance() {
+  utteranceId = Date.now() + "-" + Math.random().toString(36).substring(2);
+  chunkSeq = 0;
+  sentSamples = 0;
+  sentChunks = 0;
+  chunkInFlight = false;
+}
+
 /** 
- * Handles breaking up input audio into audio streams.
+ * Sends the audio recorded since the previous chunk to the streaming recognizer. Only one chunk
+ * is in flight at a time so that chunks arrive in order.
  */
 function streamAudio() {
-  rec.stop();
-  rec.exportWAV(getAudioStream);
-  rec.record();
+  if (chunkInFlight) {
+    return;
+  }
+  if (opusRecorder != null) {
+    if (opusRecorder.state == 'recording' && sentChunks < opusChunks.length) {
+      getAudioStream(opusChunks[sentChunks++]);
+    }
+    return;
+  }
+  rec.getBuffer(function(buffers) {
+    var samples = buffers[0];
+    if (chunkInFlight || samples.length <= sentSamples) {
+      return;
+    }
+    var chunk = floatTo16BitPCM(samples.subarray(sentSamples));
+    sentSamples = samples.length;
+    getAudioStream(chunk);
+  });
+}
+
+/**
+ * Converts float samples in [-1, 1] to 16-bit little-endian linear PCM.
+ *
+ * @param samples Float32Array of mono samples
+ * @return ArrayBuffer containing the PCM samples
+ */
+function floatTo16BitPCM(samples) {
+  var view = new DataView(new ArrayBuffer(samples.length * 2));
+  for (var i = 0; i < samples.length; i++) {
+    var s = Math.max(-1, Math.min(1, samples[i]));
+    view.setInt16(i * 2, s < 0 ? s * 0x8000 : s * 0x7FFF, true);
+  }
+  return view.buffer;
 }
 
 /**
  * Backend call to speech-to-text that handles streaming inputs while the user 
- * is talking and converts them to text.
+ * is talking and converts them to text. If the server cannot continue the
+ * utterance, it is restarted from the beginning of the recording.
  * 
- * @param blob Mini audio file containing a subset of the user's entire speech.
+ * @param chunk Audio recorded since the previous chunk as 16-bit linear PCM or an Opus Blob.
  */
-function getAudioStream(blob) {
-  fetch('/audio-stream' + '?language=' + getLanguage(), {
+function getAudioStream(chunk) {
+  chunkInFlight = true;
+  var url = '/audio-stream' + '?language=' + getLanguage() + '&utterance=' + utteranceId +
+      '&seq=' + chunkSeq + '&rate=' + audioContext.sampleRate;
+  chunkSeq++;
+  fetch(url, {
     method: 'POST',
-    body: blob
-  }).then(response => response.text()).then(stream => {
-    console.log("stream output: " + stream);
-    if (stream.includes("<")) {
-      console.log("error output");
-      return;
+    body: chunk
+  }).then(response => {
+    if (response.status == 409) {
+      startUtterance();
+      return null;
+    }
+    return response.ok ? response.text() : null;
+  }).then(stream => {
+    chunkInFlight = false;
+    if (stream != null) {
+      console.log("stream output: " + stream);
+      streamingContainer.innerHTML = "";
+      placeUserInput(stream + "...", "streaming");
     }
-    streamingContainer.innerHTML = "";
-    stream = (stream.includes(null)) ? "" : stream;
-    placeUserInput(stream + "...", "streaming");
+    if (opusRecorder != null) {
+      streamAudio();
+    }
+  }).catch(err => {
+    chunkInFlight = false;
   });
 }
+
+/**
+ * Tells the streaming recognizer that the current utterance has ended and shows the final
+ * transcript, which includes the words after the last chunk, unless the reply is already shown.
+ */
+function endUtterance() {
+  fetch('/audio-stream' + '?language=' + getLanguage() + '&utterance=' + utteranceId +
+      '&end=true', {method: 'POST'}).then(response => {
+    return response.ok ? response.text() : null;
+  }).then(transcript => {
+    if (transcript && streamingContainer.style.display != "none") {
+      streamingContainer.innerHTML = "";
+      placeUserInput(transcript, "streaming");
+    }
+  }).catch(err => {});
+}
  
 /**
  * Handles audio recording creation once stop button is clicked.
@@ -117,8 +249,17 @@ function stopRecording() {
   record.style.background = "";
   record.style.color = "";
 
+  if (opusRecorder != null) {
+    //the recorder sends the whole recording once it has stopped
+    opusRecorder.stop();
+    endUtterance();
+    gumStream.getAudioTracks()[0].stop();
+    return;
+  }
+
   //tell the recorder to stop the recording
   rec.stop();
+  endUtterance();
 
   //stop microphone access
   gumStream.getAudioTracks()[0].stop();
@@ -225,7 +366,12 @@ if (navigator.mediaDevices.getUserMedia) {
  */
 function outputAudio(stream) {
   var outputAsJson = JSON.parse(stream);
-  getAudio(outputAsJson.byteStringToByteArray);
+  if (outputAsJson.audioUrl != null) {
+    play(outputAsJson.audioUrl);
+  }
+  if (document.getElementById("sound-player") == null) {
+    return;
+  }
 
   if (outputAsJson.redirect != null) {
     var aud = document.getElementById("sound-player");
@@ -244,45 +390,6 @@ function outputAudio(stream) {
   }
 }
 
-/**
- * Converts byte array into output audio.
- *
- * @param byteArray Byte array containing audio output information 
- */
-function getAudio(byteArray) {
-  var base64 = arrayBufferToBase64(byteArray);
-  var audioURL = base64toURL(base64, "audio/mp3");
-  play(audioURL);
-}
-
-/**
- * Converts audio bytes into base64 configuration
- *
- * @param buffer Byte array containing audio output information
- * @return base64 audio representation
- */
-function arrayBufferToBase64(buffer) {
-  var binary = '';
-  var bytes = new Uint8Array(buffer);
-  var len = bytes.byteLength;
-  for (var i = 0; i < len; i++) {
-    binary += String.fromCharCode( bytes[ i ] );
-  }
-  return window.btoa(binary);
-}
- 
-/**
- * Converts base64 representation into an audio url
- *
- * @param b64Data Audio output in base 64 configuration
- * @param type Audio type as mp3
- * @return String representing audio url
- */
-function base64toURL(b64Data, type) {
-  var audioURL = "data:" + type + ";base64," + b64Data;
-  return audioURL;
-}
- 
 /**
  * Plays the audio file to the user.
  * @param src url to the audio output file
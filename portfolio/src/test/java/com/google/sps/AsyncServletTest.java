@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.sps.servlets;
+
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for handing requests from container threads to the request executor */
+@RunWith(JUnit4.class)
+public final class AsyncServletTest {
+
+  /** Servlet that records the thread its handler ran on. */
+  private static class RecordingServlet extends AsyncServlet {
+    private final AtomicReference<Thread> handlerThread = new AtomicReference<>();
+    private final boolean fail;
+
+    RecordingServlet(boolean fail) {
+      this.fail = fail;
+    }
+
+    @Override
+    public void doPost(HttpServletRequest request, HttpServletResponse response)
+        throws IOException {
+      dispatch(
+          request,
+          response,
+          (req, resp) -> {
+            handlerThread.set(Thread.currentThread());
+            if (fail) {
+              throw new IOException("handler failed");
+            }
+          });
+    }
+  }
+
+  @Test
+  public void testRunsOnCallingThreadWithoutAsyncSupport() throws Exception {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    RecordingServlet servlet = new RecordingServlet(false);
+
+    servlet.doPost(request, response);
+
+    Assert.assertEquals(Thread.currentThread(), servlet.handlerThread.get());
+    verify(request, never()).startAsync(request, response);
+  }
+
+  @Test
+  public void testRunsOnExecutorAndCompletes() throws Exception {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    AsyncContext async = mock(AsyncContext.class);
+    when(request.isAsyncSupported()).thenReturn(true);
+    when(request.startAsync(request, response)).thenReturn(async);
+    RecordingServlet servlet = new RecordingServlet(false);
+
+    servlet.doPost(request, response);
+
+    verify(async, timeout(5000)).complete();
+    Assert.assertNotEquals(Thread.currentThread(), servlet.handlerThread.get());
+    verify(response, never()).sendError(anyInt());
+  }
+
+  @Test
+  public void testFailedHandlerSendsServerError() throws Exception {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    AsyncContext async = mock(AsyncContext.class);
+    when(request.isAsyncSupported()).thenReturn(true);
+    when(request.startAsync(request, response)).thenReturn(async);
+    RecordingServlet servlet = new RecordingServlet(true);
+
+    servlet.doPost(request, response);
+
+    verify(async, timeout(5000)).complete();
+    verify(response).sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+  }
+}
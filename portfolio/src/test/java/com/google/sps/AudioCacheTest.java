@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.utils;
+
+import com.google.protobuf.ByteString;
+import java.io.File;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for caching synthesized speech audio */
+@RunWith(JUnit4.class)
+public final class AudioCacheTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private static ByteString audio(int size) {
+    return ByteString.copyFrom(new byte[size]);
+  }
+
+  @Test
+  public void testMemoryEviction() {
+    AudioCache cache = new AudioCache(100, null);
+    String created = AudioCache.key("Created!", "en-US", "FEMALE");
+    String updated = AudioCache.key("Updated!", "en-US", "FEMALE");
+    String fallback = AudioCache.key("I'm sorry", "en-US", "FEMALE");
+    cache.put(created, audio(40));
+    cache.put(updated, audio(40));
+    Assert.assertNotNull(cache.get(created));
+    cache.put(fallback, audio(40));
+
+    Assert.assertNotNull(cache.get(created));
+    Assert.assertNull(cache.get(updated));
+    Assert.assertNotNull(cache.get(fallback));
+    Assert.assertEquals(2, cache.memoryEntries());
+    Assert.assertEquals(80, cache.memoryBytes());
+  }
+
+  @Test
+  public void testLanguageInKey() {
+    AudioCache cache = new AudioCache(100, null);
+    cache.put(AudioCache.key("Created!", "en-US", "FEMALE"), audio(10));
+    Assert.assertNull(cache.get(AudioCache.key("Created!", "fr", "FEMALE")));
+  }
+
+  @Test
+  public void testDiskTier() throws Exception {
+    File directory = folder.newFolder("tts");
+    String key = AudioCache.key("Created!", "en-US", "FEMALE");
+    new AudioCache(100, directory).put(key, ByteString.copyFromUtf8("mp3"));
+
+    AudioCache restarted = new AudioCache(100, directory);
+    Assert.assertEquals("mp3", restarted.get(key).toStringUtf8());
+    Assert.assertEquals(1, restarted.memoryEntries());
+  }
+
+  @Test
+  public void testDiskEviction() throws Exception {
+    File directory = folder.newFolder("tts");
+    String created = AudioCache.key("Created!", "en-US", "FEMALE");
+    String updated = AudioCache.key("Updated!", "en-US", "FEMALE");
+    String fallback = AudioCache.key("I'm sorry", "en-US", "FEMALE");
+    AudioCache cache = new AudioCache(0, directory, 100);
+    cache.put(created, audio(40));
+    cache.put(updated, audio(40));
+    Assert.assertNotNull(cache.get(created));
+    cache.put(fallback, audio(40));
+
+    Assert.assertNotNull(cache.get(created));
+    Assert.assertNull(cache.get(updated));
+    Assert.assertNotNull(cache.get(fallback));
+    Assert.assertEquals(2, directory.list().length);
+    Assert.assertEquals(80, cache.diskBytes());
+
+    AudioCache restarted = new AudioCache(0, directory, 40);
+    Assert.assertEquals(1, restarted.diskEntries());
+    Assert.assertEquals(1, directory.list().length);
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.servlets;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for parsing byte ranges of audio output requests */
+@RunWith(JUnit4.class)
+public final class AudioOutputTest {
+
+  @Test
+  public void testRanges() {
+    Assert.assertArrayEquals(new int[] {0, 99}, AudioOutputServlet.parseRange("bytes=0-", 100));
+    Assert.assertArrayEquals(new int[] {10, 19}, AudioOutputServlet.parseRange("bytes=10-19", 100));
+    Assert.assertArrayEquals(
+        new int[] {90, 99}, AudioOutputServlet.parseRange("bytes=90-500", 100));
+    Assert.assertArrayEquals(new int[] {80, 99}, AudioOutputServlet.parseRange("bytes=-20", 100));
+    Assert.assertArrayEquals(new int[] {0, 99}, AudioOutputServlet.parseRange("bytes=-500", 100));
+  }
+
+  @Test
+  public void testInvalidRanges() {
+    Assert.assertNull(AudioOutputServlet.parseRange("bytes=100-", 100));
+    Assert.assertNull(AudioOutputServlet.parseRange("bytes=20-10", 100));
+    Assert.assertNull(AudioOutputServlet.parseRange("bytes=-0", 100));
+    Assert.assertNull(AudioOutputServlet.parseRange("bytes=-", 100));
+    Assert.assertNull(AudioOutputServlet.parseRange("bytes=0-1,5-6", 100));
+    Assert.assertNull(AudioOutputServlet.parseRange("items=0-1", 100));
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.utils;
+
+import com.google.protobuf.ByteString;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for resampling and silence trimming of recorded audio */
+@RunWith(JUnit4.class)
+public final class AudioPreprocessorTest {
+
+  /**
+   * Creates interleaved 16-bit PCM with silence around a tone in every channel.
+   *
+   * @param sampleRate Sample rate in hertz
+   * @param channels Number of channels
+   * @param silenceMillis Length of the silence before and after the tone
+   * @param toneMillis Length of the tone
+   * @return Little-endian PCM bytes
+   */
+  private static byte[] toneInSilence(
+      int sampleRate, int channels, int silenceMillis, int toneMillis) {
+    int silence = sampleRate * silenceMillis / 1000;
+    int tone = sampleRate * toneMillis / 1000;
+    int frames = 2 * silence + tone;
+    byte[] pcm = new byte[frames * channels * 2];
+    for (int i = silence; i < silence + tone; i++) {
+      short sample = (short) (8000 * Math.sin(2 * Math.PI * 440 * i / sampleRate));
+      for (int c = 0; c < channels; c++) {
+        int offset = (i * channels + c) * 2;
+        pcm[offset] = (byte) sample;
+        pcm[offset + 1] = (byte) (sample >> 8);
+      }
+    }
+    return pcm;
+  }
+
+  /**
+   * Creates mono 16-bit PCM of a tone.
+   *
+   * @param sampleRate Sample rate in hertz
+   * @param frequency Frequency of the tone in hertz
+   * @param millis Length of the tone
+   * @return Little-endian PCM bytes
+   */
+  private static byte[] tone(int sampleRate, double frequency, int millis) {
+    int samples = sampleRate * millis / 1000;
+    byte[] pcm = new byte[samples * 2];
+    for (int i = 0; i < samples; i++) {
+      short sample = (short) (8000 * Math.sin(2 * Math.PI * frequency * i / sampleRate));
+      pcm[2 * i] = (byte) sample;
+      pcm[2 * i + 1] = (byte) (sample >> 8);
+    }
+    return pcm;
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    return ByteString.readFrom(in).toByteArray();
+  }
+
+  @Test
+  public void testSilenceIsRejected() throws IOException {
+    AudioStageInputStream speech =
+        AudioPreprocessor.open(new ByteArrayInputStream(new byte[96000]), 48000);
+
+    Assert.assertFalse(speech.hasAudio());
+    Assert.assertEquals(-1, speech.read());
+  }
+
+  @Test
+  public void testResamplesAndTrimsSilence() throws IOException {
+    byte[] pcm = toneInSilence(48000, 2, 2000, 1000);
+    AudioPreprocessor preprocessor = new AudioPreprocessor(48000, 2);
+
+    ByteString.Output out = ByteString.newOutput();
+    out.write(preprocessor.process(pcm, 0, pcm.length));
+    out.write(preprocessor.finish());
+
+    // One second of 16 kHz mono tone plus at most 200 ms of silence before and 300 ms after.
+    Assert.assertEquals(16000, preprocessor.getOutputSampleRate());
+    Assert.assertTrue(preprocessor.hasSpeech());
+    Assert.assertTrue(out.size() >= 16000 * 2);
+    Assert.assertTrue(out.size() <= (16000 + 8000) * 2);
+  }
+
+  @Test
+  public void testSamplesSplitAcrossChunks() throws IOException {
+    byte[] pcm = toneInSilence(44100, 1, 500, 500);
+    AudioPreprocessor whole = new AudioPreprocessor(44100, 1);
+    AudioPreprocessor split = new AudioPreprocessor(44100, 1);
+
+    ByteString.Output wholeOut = ByteString.newOutput();
+    wholeOut.write(whole.process(pcm, 0, pcm.length));
+    wholeOut.write(whole.finish());
+    ByteString.Output splitOut = ByteString.newOutput();
+    for (int offset = 0; offset < pcm.length; offset += 333) {
+      splitOut.write(split.process(pcm, offset, Math.min(333, pcm.length - offset)));
+    }
+    splitOut.write(split.finish());
+
+    Assert.assertEquals(wholeOut.toByteString(), splitOut.toByteString());
+  }
+
+  @Test
+  public void testToneAboveOutputNyquistIsRemoved() {
+    // Without an anti-aliasing filter these tones would fold down to 4 kHz and 6.1 kHz.
+    for (int sampleRate : new int[] {48000, 44100}) {
+      byte[] pcm = tone(sampleRate, sampleRate == 48000 ? 12000 : 10000, 1000);
+      AudioPreprocessor preprocessor = new AudioPreprocessor(sampleRate, 1);
+      preprocessor.process(pcm, 0, pcm.length);
+      preprocessor.finish();
+
+      Assert.assertFalse(preprocessor.hasSpeech());
+    }
+  }
+
+  @Test
+  public void testSpeechBandToneIsKept() {
+    byte[] pcm = tone(44100, 1000, 1000);
+    AudioPreprocessor preprocessor = new AudioPreprocessor(44100, 1);
+    byte[] speech = preprocessor.process(pcm, 0, pcm.length);
+
+    // The tone keeps its RMS level of 8000 / sqrt(2).
+    double sum = 0;
+    int samples = speech.length / 2;
+    for (int i = 0; i < samples; i++) {
+      double sample = (short) ((speech[2 * i] & 0xff) | (speech[2 * i + 1] << 8));
+      sum += sample * sample;
+    }
+    Assert.assertTrue(preprocessor.hasSpeech());
+    Assert.assertEquals(8000 / Math.sqrt(2), Math.sqrt(sum / samples), 200);
+  }
+
+  @Test
+  public void testLowSampleRateIsKept() {
+    AudioPreprocessor preprocessor = new AudioPreprocessor(8000, 1);
+
+    Assert.assertEquals(8000, preprocessor.getOutputSampleRate());
+  }
+
+  @Test
+  public void testWavHeader() throws IOException {
+    AudioStageInputStream speech =
+        AudioPreprocessor.open(new FileInputStream("resources/book_a_room.wav"), 0);
+
+    Assert.assertEquals(16000, speech.getSampleRate());
+    Assert.assertTrue(speech.hasAudio());
+    Assert.assertTrue(readAll(speech).length > 0);
+  }
+}
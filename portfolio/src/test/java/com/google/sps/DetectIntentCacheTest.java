@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.sps.utils;
+
+import com.google.cloud.dialogflow.v2.Intent;
+import com.google.cloud.dialogflow.v2.QueryResult;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for the detect-intent result cache */
+@RunWith(JUnit4.class)
+public final class DetectIntentCacheTest {
+
+  private final AtomicLong now = new AtomicLong(0);
+  private final DetectIntentCache cache =
+      new DetectIntentCache(
+          2, 1000, new HashSet<>(Arrays.asList("web.search", "weather")), now::get);
+
+  private static QueryResult result(String intent, String parameter, String value) {
+    return QueryResult.newBuilder()
+        .setQueryText("original")
+        .setIntent(Intent.newBuilder().setDisplayName(intent))
+        .setAllRequiredParamsPresent(true)
+        .setParameters(
+            Struct.newBuilder()
+                .putFields(parameter, Value.newBuilder().setStringValue(value).build()))
+        .build();
+  }
+
+  @Test
+  public void testHitIgnoresCaseAndPunctuation() {
+    cache.put("Search for cats", "en-US", result("web.search", "q", "cats"));
+
+    QueryResult cached = cache.get("search for cats?", "en-US");
+
+    Assert.assertNotNull(cached);
+    Assert.assertEquals("web.search", cached.getIntent().getDisplayName());
+    Assert.assertEquals("search for cats?", cached.getQueryText());
+    Assert.assertNull(cache.get("search for cats", "es"));
+  }
+
+  @Test
+  public void testEntriesExpire() {
+    cache.put("search for cats", "en-US", result("web.search", "q", "cats"));
+
+    now.set(999);
+    Assert.assertNotNull(cache.get("search for cats", "en-US"));
+    now.set(1000);
+    Assert.assertNull(cache.get("search for cats", "en-US"));
+    Assert.assertEquals(0L, (long) cache.getStats().get("size"));
+  }
+
+  @Test
+  public void testOnlyAllowListedIntentsAreCached() {
+    cache.put("next", "en-US", result("web.search - next", "q", ""));
+
+    Assert.assertNull(cache.get("next", "en-US"));
+  }
+
+  @Test
+  public void testRelativeDatesAreNotCached() {
+    cache.put("weather tomorrow", "en-US", result("weather", "date-time", "2020-08-01"));
+    cache.put("weather", "en-US", result("weather", "date-time", ""));
+
+    Assert.assertNull(cache.get("weather tomorrow", "en-US"));
+    Assert.assertNotNull(cache.get("weather", "en-US"));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEntryIsEvicted() {
+    cache.put("a", "en-US", result("web.search", "q", "a"));
+    cache.put("b", "en-US", result("web.search", "q", "b"));
+    cache.get("a", "en-US");
+    cache.put("c", "en-US", result("web.search", "q", "c"));
+
+    Assert.assertNotNull(cache.get("a", "en-US"));
+    Assert.assertNull(cache.get("b", "en-US"));
+    Assert.assertEquals(1L, (long) cache.getStats().get("evictions"));
+  }
+}
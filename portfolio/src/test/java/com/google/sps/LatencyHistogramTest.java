@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.sps.utils;
+
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for the latency histogram and the tracer that records into it */
+@RunWith(JUnit4.class)
+public final class LatencyHistogramTest {
+
+  @Test
+  public void testEmptyHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    Assert.assertEquals(0, histogram.getCount());
+    Assert.assertEquals(0, histogram.getPercentile(0.99));
+  }
+
+  @Test
+  public void testSmallValuesAreExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long millis = 1; millis <= 5; millis++) {
+      histogram.record(millis);
+    }
+
+    Assert.assertEquals(3, histogram.getPercentile(0.5));
+    Assert.assertEquals(5, histogram.getPercentile(0.99));
+    Assert.assertEquals(5, histogram.getMax());
+  }
+
+  @Test
+  public void testPercentilesWithinBucketError() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long millis = 1; millis <= 1000; millis++) {
+      histogram.record(millis);
+    }
+
+    assertWithin(500, histogram.getPercentile(0.50));
+    assertWithin(950, histogram.getPercentile(0.95));
+    assertWithin(990, histogram.getPercentile(0.99));
+    Assert.assertEquals(1000, histogram.getPercentile(1.0));
+  }
+
+  @Test
+  public void testVeryLargeValuesAreCapped() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(Long.MAX_VALUE);
+
+    Assert.assertEquals(Long.MAX_VALUE, histogram.getPercentile(0.5));
+  }
+
+  @Test
+  public void testTracerRecordsRequestAndIntent() {
+    Tracer.beginRequest("test-request");
+    Tracer.setIntent("test.intent");
+    try (Tracer.Span span = Tracer.start("api.test")) {
+      // Nothing to time.
+    }
+    Tracer.endRequest();
+    Tracer.endRequest();
+
+    Map<String, Map<String, Long>> latencies = Tracer.getLatencies();
+    Assert.assertEquals(1L, (long) latencies.get("request.test-request").get("count"));
+    Assert.assertEquals(1L, (long) latencies.get("intent.test.intent").get("count"));
+    Assert.assertEquals(1L, (long) latencies.get("api.test").get("count"));
+  }
+
+  @Test
+  public void testTraceParentFollowsSpansAcrossThreads() throws Exception {
+    Assert.assertNull(Tracer.getTraceParent());
+    Tracer.beginRequest("test-propagation");
+    String root = Tracer.getTraceParent();
+    String traceId = root.split("-")[1];
+    Tracer.Context context;
+    try (Tracer.Span span = Tracer.start("stage.test")) {
+      String child = Tracer.getTraceParent();
+      Assert.assertEquals(traceId, child.split("-")[1]);
+      Assert.assertNotEquals(root, child);
+      context = Tracer.currentContext();
+    }
+    Assert.assertEquals(root, Tracer.getTraceParent());
+
+    String[] onWorker = new String[2];
+    Thread worker =
+        new Thread(
+            () -> {
+              try (Tracer.Scope scope = Tracer.attach(context)) {
+                onWorker[0] = Tracer.getTraceParent();
+              }
+              onWorker[1] = Tracer.getTraceParent();
+            });
+    worker.start();
+    worker.join();
+    Tracer.endRequest();
+
+    Assert.assertEquals(traceId, onWorker[0].split("-")[1]);
+    Assert.assertNull(onWorker[1]);
+    Assert.assertNull(Tracer.getTraceParent());
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    Assert.assertTrue(actual + " < " + expected, actual >= expected);
+    Assert.assertTrue(actual + " > " + expected + " + 12.5%", actual <= expected * 1.125);
+  }
+}
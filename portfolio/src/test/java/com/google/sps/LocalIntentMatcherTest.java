@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.sps.utils;
+
+import com.google.cloud.dialogflow.v2.QueryResult;
+import com.google.protobuf.Value;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for matching formulaic queries against the Dialogflow agent export */
+@RunWith(JUnit4.class)
+public final class LocalIntentMatcherTest {
+
+  private static LocalIntentMatcher matcher;
+
+  @BeforeClass
+  public static void compileAgent() throws IOException {
+    matcher = LocalIntentMatcher.fromDirectory(new File("../dialogflow"));
+  }
+
+  @Test
+  public void testTipCalculation() {
+    QueryResult result = matcher.match("100 dollars plus 15% tip for 3 people", "en-US");
+
+    Assert.assertEquals("calculator.tips", result.getIntent().getDisplayName());
+    Map<String, Value> parameters = result.getParameters().getFieldsMap();
+    Assert.assertEquals("15%", parameters.get("tip-percentage").getStringValue());
+    Assert.assertEquals(100.0, parameters.get("amount-without-tip").getNumberValue(), 0.001);
+    Assert.assertEquals("USD", parameters.get("currency").getStringValue());
+    Assert.assertEquals(3.0, parameters.get("people-number").getNumberValue(), 0.001);
+    Assert.assertTrue(result.getAllRequiredParamsPresent());
+    Assert.assertEquals("calculator-tips", result.getOutputContexts(0).getName());
+  }
+
+  @Test
+  public void testWebSearch() {
+    QueryResult result = matcher.match("Find apple pie recipes on the Internet?", "en");
+
+    Assert.assertEquals("web.search", result.getIntent().getDisplayName());
+    Assert.assertEquals(
+        "apple pie recipes", result.getParameters().getFieldsOrThrow("q").getStringValue());
+    Assert.assertEquals("Find apple pie recipes on the Internet?", result.getQueryText());
+  }
+
+  @Test
+  public void testUnitConversion() {
+    QueryResult result = matcher.match("how much is 2 lbs in kilos", "en-US");
+
+    Assert.assertEquals("units.convert", result.getIntent().getDisplayName());
+    Map<String, Value> parameters = result.getParameters().getFieldsMap();
+    Assert.assertEquals(2.0, parameters.get("amount").getNumberValue(), 0.001);
+    Assert.assertEquals("lb", parameters.get("unit-from").getStringValue());
+    Assert.assertEquals("kg", parameters.get("unit-to").getStringValue());
+  }
+
+  @Test
+  public void testShowList() {
+    QueryResult result = matcher.match("show me my grocery list", "en-US");
+
+    Assert.assertEquals("memory.list - show", result.getIntent().getDisplayName());
+    Assert.assertEquals(
+        "grocery", result.getParameters().getFieldsOrThrow("list-name").getStringValue());
+    Assert.assertEquals("", result.getParameters().getFieldsOrThrow("number").getStringValue());
+  }
+
+  @Test
+  public void testOtherLanguagesGoToDialogflow() {
+    Assert.assertNull(matcher.match("100 dollars plus 15% tip for 3 people", "es"));
+  }
+
+  @Test
+  public void testAmbiguousQueryGoesToDialogflow() {
+    // Both welcome intents are trained on "hi".
+    Assert.assertNull(matcher.match("hi", "en-US"));
+  }
+
+  @Test
+  public void testFollowUpIntentGoesToDialogflow() {
+    Assert.assertNull(matcher.match("next", "en-US"));
+  }
+
+  @Test
+  public void testUnsupportedEntityGoesToDialogflow() {
+    Assert.assertNull(matcher.match("what's the weather in Paris", "en-US"));
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.data;
+
+import com.google.sps.recommendations.proto.StoreInfoBatch;
+import com.google.sps.recommendations.proto.StoreInfoResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for the recommendations client backends */
+@RunWith(JUnit4.class)
+public final class RecommendationsClientTest {
+
+  /** Remote backend that records batches instead of sending them. */
+  private static class RecordingBackend extends RemoteRecommendationsBackend {
+    private final List<StoreInfoBatch> batches = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch sent;
+    private volatile long firstBatchDelayMillis = 0;
+
+    RecordingBackend(int expectedBatches) {
+      super("http://localhost/");
+      sent = new CountDownLatch(expectedBatches);
+    }
+
+    @Override
+    protected StoreInfoResponse storeInfo(StoreInfoBatch batch) {
+      long delayMillis = firstBatchDelayMillis;
+      firstBatchDelayMillis = 0;
+      try {
+        Thread.sleep(delayMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      batches.add(batch);
+      sent.countDown();
+      return StoreInfoResponse.newBuilder().setStored(batch.getEventsCount()).build();
+    }
+  }
+
+  @Test
+  public void testCoalescedStoreInfo() throws Exception {
+    RecordingBackend backend = new RecordingBackend(1);
+    RecommendationsClient client = new RecommendationsClient(backend);
+    client.setUserID("1");
+    client.saveAggregateListData("groceri", Arrays.asList("milk"), true, true);
+    client.saveAggregateListData("groceri", Arrays.asList("egg"), false, true);
+    client.saveAggregateListData("groceri", Arrays.asList("bread"), false, false);
+
+    Assert.assertTrue(backend.sent.await(5, TimeUnit.SECONDS));
+    Assert.assertEquals(1, backend.batches.size());
+    StoreInfoBatch batch = backend.batches.get(0);
+    Assert.assertEquals(3, batch.getEventsCount());
+    Assert.assertEquals("milk", batch.getEvents(0).getItems(0));
+    Assert.assertTrue(batch.getEvents(0).getNewList());
+    Assert.assertFalse(batch.getEvents(2).getPositiveFeedback());
+  }
+
+  @Test
+  public void testUserOrderKeptAcrossFlushes() throws Exception {
+    RecordingBackend backend = new RecordingBackend(2);
+    backend.firstBatchDelayMillis = 500;
+    RecommendationsClient client = new RecommendationsClient(backend);
+    client.setUserID("1");
+    client.saveAggregateListData("groceri", Arrays.asList("milk"), true, true);
+    Thread.sleep(200);
+    client.saveAggregateListData("groceri", Arrays.asList("egg"), false, true);
+
+    Assert.assertTrue(backend.sent.await(5, TimeUnit.SECONDS));
+    Assert.assertEquals(2, backend.batches.size());
+    Assert.assertEquals("milk", backend.batches.get(0).getEvents(0).getItems(0));
+    Assert.assertEquals("egg", backend.batches.get(1).getEvents(0).getItems(0));
+  }
+
+  /** Backend returning a fixed result after a delay, or failing if the result is null. */
+  private static class FakeBackend implements RecommendationsBackend {
+    private volatile List<Pair<String, Double>> result;
+    private volatile long delayMillis = 0;
+    private volatile int calls = 0;
+
+    @Override
+    public void storeInfo(
+        String userID,
+        String stemmedListName,
+        List<String> items,
+        boolean newList,
+        boolean positiveFeedback) {}
+
+    @Override
+    public List<Pair<String, Double>> getPastRecommendations(
+        String userID, String stemmedListName) {
+      calls++;
+      try {
+        Thread.sleep(delayMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (result == null) {
+        throw new IllegalStateException("Recommendations service unavailable");
+      }
+      return result;
+    }
+
+    @Override
+    public List<Pair<String, Double>> getUserRecommendations(
+        String userID, String stemmedListName) {
+      return getPastRecommendations(userID, stemmedListName);
+    }
+  }
+
+  @Test
+  public void testDeadlineFallsBackToCache() throws Exception {
+    FakeBackend fake = new FakeBackend();
+    fake.result = Arrays.asList(new Pair<>("milk", 1.0));
+    RecommendationsClient client =
+        new RecommendationsClient(new GuardedRecommendationsBackend(fake, 200));
+    client.setUserID("1");
+    Assert.assertEquals("milk", client.getPastRecommendations("groceri").get(0).getKey());
+
+    fake.result = Arrays.asList(new Pair<>("egg", 1.0));
+    fake.delayMillis = 2000;
+    long start = System.currentTimeMillis();
+    List<Pair<String, Double>> items = client.getPastRecommendations("groceri");
+    Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+    Assert.assertEquals("milk", items.get(0).getKey());
+    Assert.assertTrue(client.getUserRecommendations("groceri").isEmpty());
+  }
+
+  @Test
+  public void testCircuitBreakerOpens() throws Exception {
+    FakeBackend fake = new FakeBackend();
+    GuardedRecommendationsBackend guarded = new GuardedRecommendationsBackend(fake, 200);
+    RecommendationsClient client = new RecommendationsClient(guarded);
+    client.setUserID("1");
+    for (int i = 0; i < 5; i++) {
+      Assert.assertTrue(client.getPastRecommendations("groceri").isEmpty());
+    }
+    Assert.assertEquals(CircuitBreaker.State.OPEN, guarded.getBreakerState());
+    client.getPastRecommendations("groceri");
+    Assert.assertEquals(5, fake.calls);
+  }
+
+  @Test
+  public void testInterruptedFetchesKeepBreakerClosed() throws Exception {
+    FakeBackend fake = new FakeBackend();
+    fake.result = Arrays.asList(new Pair<>("milk", 1.0));
+    fake.delayMillis = 100;
+    GuardedRecommendationsBackend guarded = new GuardedRecommendationsBackend(fake, 200);
+    for (int i = 0; i < 5; i++) {
+      Thread.currentThread().interrupt();
+      Assert.assertTrue(guarded.getPastRecommendations("1", "groceri").isEmpty());
+      Assert.assertTrue(Thread.interrupted());
+    }
+    Assert.assertEquals(CircuitBreaker.State.CLOSED, guarded.getBreakerState());
+  }
+
+  @Test
+  public void testAbandonedTrialFreesHalfOpen() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker(1, 0);
+    breaker.recordFailure();
+    Assert.assertTrue(breaker.allowRequest());
+    breaker.recordAbandoned();
+    Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    Assert.assertTrue(breaker.allowRequest());
+  }
+
+  @Test
+  public void testCircuitBreakerHalfOpen() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker(1, 0);
+    breaker.recordFailure();
+    Assert.assertTrue(breaker.allowRequest());
+    Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    Assert.assertFalse(breaker.allowRequest());
+    breaker.recordSuccess();
+    Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void testMetrics() {
+    Assert.assertTrue(
+        RemoteRecommendationsBackend.getMetrics()
+            .containsKey("recommendations.client.inFlightRequests"));
+  }
+}
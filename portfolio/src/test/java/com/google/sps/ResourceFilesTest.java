@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.sps.utils;
+
+import java.io.FileNotFoundException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for reading and keeping bundled resource files */
+@RunWith(JUnit4.class)
+public final class ResourceFilesTest {
+
+  @Test
+  public void testFileIsReadOnce() throws Exception {
+    String first = ResourceFiles.read("/joke.wav");
+    String second = ResourceFiles.read("/joke.wav");
+
+    Assert.assertFalse(first.isEmpty());
+    Assert.assertSame(first, second);
+  }
+
+  @Test
+  public void testMissingFileThrows() throws Exception {
+    try {
+      ResourceFiles.read("/files/missing.txt");
+      Assert.fail("Should have thrown FileNotFoundException");
+    } catch (FileNotFoundException e) {
+      // Expected.
+    }
+  }
+}
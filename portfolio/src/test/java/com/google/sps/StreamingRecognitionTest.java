@@ -0,0 +1,229 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.utils;
+
+import static org.mockito.Mockito.*;
+
+import com.google.api.gax.rpc.ClientStream;
+import com.google.cloud.speech.v1.StreamingRecognizeRequest;
+import com.google.protobuf.ByteString;
+import com.google.sps.servlets.AudioInputStreamServlet;
+import java.io.ByteArrayInputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for streaming recognition sessions of chunked utterances */
+@RunWith(JUnit4.class)
+public final class StreamingRecognitionTest {
+
+  /**
+   * Request stream that records what is sent instead of calling the Speech API. Once its session is
+   * set, half-closing the stream answers with a final result and completes the call, as the Speech
+   * API does.
+   */
+  private static class RecordingStream implements ClientStream<StreamingRecognizeRequest> {
+    private final List<ByteString> audio = new ArrayList<>();
+    private boolean closed = false;
+    private StreamingRecognition session;
+
+    @Override
+    public void send(StreamingRecognizeRequest request) {
+      audio.add(request.getAudioContent());
+    }
+
+    @Override
+    public void closeSendWithError(Throwable t) {
+      closed = true;
+    }
+
+    @Override
+    public void closeSend() {
+      closed = true;
+      if (session != null) {
+        session.addResult("world", true);
+        session.markComplete(false);
+      }
+    }
+
+    @Override
+    public boolean isSendReady() {
+      return true;
+    }
+  }
+
+  /** Stage that forwards audio unchanged. */
+  private static class PassThroughStage implements AudioStage {
+    @Override
+    public byte[] process(byte[] data, int offset, int length) {
+      return Arrays.copyOfRange(data, offset, offset + length);
+    }
+
+    @Override
+    public byte[] finish() {
+      return new byte[0];
+    }
+  }
+
+  /** Streaming servlet whose sessions send to a recording stream. */
+  private static class RecordingServlet extends AudioInputStreamServlet {
+    private final RecordingStream stream = new RecordingStream();
+
+    @Override
+    protected StreamingRecognition openSession(
+        String languageCode, int sampleRate, InputAudioFormat format) {
+      return new StreamingRecognition(stream, new PassThroughStage());
+    }
+  }
+
+  private static ByteString chunk(int value) {
+    return ByteString.copyFrom(new byte[] {(byte) value});
+  }
+
+  @Test
+  public void testChunksForwardedInOrder() throws Exception {
+    RecordingStream stream = new RecordingStream();
+    StreamingRecognition session = new StreamingRecognition(stream, new PassThroughStage());
+    Assert.assertTrue(session.send(0, chunk(0)));
+    Assert.assertTrue(session.send(1, chunk(1)));
+    Assert.assertFalse(session.send(3, chunk(3)));
+    Assert.assertFalse(session.send(1, chunk(1)));
+    Assert.assertEquals(Arrays.asList(chunk(0), chunk(1)), stream.audio);
+  }
+
+  @Test
+  public void testSessionsScopedToOwner() throws Exception {
+    RecordingStream stream = new RecordingStream();
+    StreamingRecognition session = new StreamingRecognition(stream, new PassThroughStage());
+    StreamingRecognition.start("owner", "utterance", () -> session);
+
+    Assert.assertSame(session, StreamingRecognition.get("owner", "utterance"));
+    Assert.assertNull(StreamingRecognition.get("other", "utterance"));
+    Assert.assertNull(StreamingRecognition.finish("other", "utterance"));
+    Assert.assertFalse(stream.closed);
+    StreamingRecognition.discard("owner", "utterance");
+    Assert.assertTrue(stream.closed);
+    Assert.assertNull(StreamingRecognition.get("owner", "utterance"));
+  }
+
+  @Test
+  public void testFinishReturnsFinalTranscript() throws Exception {
+    RecordingStream stream = new RecordingStream();
+    StreamingRecognition session = new StreamingRecognition(stream, new PassThroughStage());
+    stream.session = session;
+    StreamingRecognition.start("owner", "final", () -> session);
+    Assert.assertTrue(session.send(0, chunk(0)));
+    session.addResult("hello", true);
+    session.addResult("wor", false);
+    Assert.assertEquals("hello wor", session.getTranscript());
+
+    // The result of the last audio only arrives after the stream is half-closed.
+    Assert.assertEquals("hello world", StreamingRecognition.finish("owner", "final"));
+    Assert.assertTrue(stream.closed);
+    Assert.assertNull(StreamingRecognition.get("owner", "final"));
+  }
+
+  @Test
+  public void testIdleSessionsEvicted() throws Exception {
+    RecordingStream stream = new RecordingStream();
+    StreamingRecognition.start(
+        "owner", "idle", () -> new StreamingRecognition(stream, new PassThroughStage()));
+
+    StreamingRecognition.evictIdle(
+        System.currentTimeMillis() + StreamingRecognition.IDLE_MILLIS + 1000);
+    Assert.assertTrue(stream.closed);
+    Assert.assertNull(StreamingRecognition.get("owner", "idle"));
+  }
+
+  @Test
+  public void testOutOfOrderChunkConflicts() throws Exception {
+    RecordingServlet servlet = new RecordingServlet();
+    Assert.assertEquals(200, post(servlet, "0", chunk(0)));
+    Assert.assertEquals(200, post(servlet, "1", chunk(1)));
+    Assert.assertEquals(HttpServletResponse.SC_CONFLICT, post(servlet, "3", chunk(3)));
+    Assert.assertTrue(servlet.stream.closed);
+    // The session was closed, so the client has to restart the utterance from chunk 0.
+    Assert.assertEquals(HttpServletResponse.SC_CONFLICT, post(servlet, "2", chunk(2)));
+    Assert.assertEquals(Arrays.asList(chunk(0), chunk(1)), servlet.stream.audio);
+  }
+
+  /**
+   * Posts a chunk of the utterance "servlet-utterance" and returns the response status.
+   *
+   * @param servlet Servlet to post to
+   * @param seq Sequence number of the chunk
+   * @param audio Audio of the chunk
+   * @return Status set on the response, or 200 if none was set
+   */
+  private static int post(AudioInputStreamServlet servlet, String seq, ByteString audio)
+      throws Exception {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    HttpSession session = mock(HttpSession.class);
+    ByteArrayInputStream body = new ByteArrayInputStream(audio.toByteArray());
+    when(request.getInputStream())
+        .thenReturn(
+            new ServletInputStream() {
+              @Override
+              public int read() {
+                return body.read();
+              }
+
+              @Override
+              public boolean isFinished() {
+                return body.available() == 0;
+              }
+
+              @Override
+              public boolean isReady() {
+                return true;
+              }
+
+              @Override
+              public void setReadListener(ReadListener listener) {}
+            });
+    when(request.getSession()).thenReturn(session);
+    when(session.getId()).thenReturn("servlet-session");
+    when(request.getParameter("language")).thenReturn("English");
+    when(request.getParameter("utterance")).thenReturn("servlet-utterance");
+    when(request.getParameter("seq")).thenReturn(seq);
+    when(request.getParameter("rate")).thenReturn("16000");
+    when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+
+    int[] status = {200};
+    doAnswer(
+            invocation -> {
+              status[0] = invocation.getArgument(0);
+              return null;
+            })
+        .when(response)
+        .setStatus(anyInt());
+    servlet.doPost(request, response);
+    return status[0];
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.sps.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for the translated phrase cache */
+@RunWith(JUnit4.class)
+public final class TranslationCacheTest {
+
+  /** Translator that records its calls and upper-cases its input. */
+  private static class FakeTranslator implements TranslationCache.Translator {
+    private final List<List<String>> calls = new ArrayList<>();
+
+    @Override
+    public List<String> translate(
+        List<String> texts, String languageFromCode, String languageToCode, String model) {
+      calls.add(new ArrayList<>(texts));
+      List<String> result = new ArrayList<>();
+      for (String text : texts) {
+        result.add(languageToCode + ":" + text.toUpperCase());
+      }
+      return result;
+    }
+  }
+
+  @Test
+  public void testMissesAreTranslatedInOneCall() {
+    FakeTranslator translator = new FakeTranslator();
+    TranslationCache cache = new TranslationCache(10, translator);
+
+    List<String> result = cache.translateAll(Arrays.asList("a", "b", "a"), "es", "en", "nmt");
+
+    Assert.assertEquals(Arrays.asList("en:A", "en:B", "en:A"), result);
+    Assert.assertEquals(1, translator.calls.size());
+    Assert.assertEquals(Arrays.asList("a", "b"), translator.calls.get(0));
+  }
+
+  @Test
+  public void testHitsAreNotTranslatedAgain() {
+    FakeTranslator translator = new FakeTranslator();
+    TranslationCache cache = new TranslationCache(10, translator);
+
+    cache.translateAll(Arrays.asList("a", "b"), "es", "en", "nmt");
+    List<String> result = cache.translateAll(Arrays.asList("b", "c"), "es", "en", "nmt");
+
+    Assert.assertEquals(Arrays.asList("en:B", "en:C"), result);
+    Assert.assertEquals(Arrays.asList("c"), translator.calls.get(1));
+    Assert.assertEquals(3L, (long) cache.getStats().get("misses"));
+    Assert.assertEquals(1L, (long) cache.getStats().get("hits"));
+    Assert.assertEquals(2L, (long) cache.getStats().get("translatorCalls"));
+  }
+
+  @Test
+  public void testAllCachedMakesNoCall() {
+    FakeTranslator translator = new FakeTranslator();
+    TranslationCache cache = new TranslationCache(10, translator);
+
+    cache.translateAll(Arrays.asList("a"), "es", "en", "nmt");
+    cache.translateAll(Arrays.asList("a", "a"), "es", "en", "nmt");
+
+    Assert.assertEquals(1, translator.calls.size());
+  }
+
+  @Test
+  public void testKeyIncludesLanguagesAndModel() {
+    FakeTranslator translator = new FakeTranslator();
+    TranslationCache cache = new TranslationCache(10, translator);
+
+    cache.translateAll(Arrays.asList("a"), "es", "en", "nmt");
+    Assert.assertEquals(
+        Arrays.asList("fr:A"), cache.translateAll(Arrays.asList("a"), "es", "fr", "nmt"));
+    cache.translateAll(Arrays.asList("a"), "de", "en", "nmt");
+    cache.translateAll(Arrays.asList("a"), "es", "en", "base");
+
+    Assert.assertEquals(4, translator.calls.size());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() {
+    FakeTranslator translator = new FakeTranslator();
+    TranslationCache cache = new TranslationCache(2, translator);
+
+    cache.translateAll(Arrays.asList("a", "b"), "es", "en", "nmt");
+    cache.translateAll(Arrays.asList("a"), "es", "en", "nmt");
+    cache.translateAll(Arrays.asList("c"), "es", "en", "nmt");
+    cache.translateAll(Arrays.asList("a"), "es", "en", "nmt");
+    cache.translateAll(Arrays.asList("b"), "es", "en", "nmt");
+
+    Assert.assertEquals(3, translator.calls.size());
+    Assert.assertEquals(Arrays.asList("b"), translator.calls.get(2));
+    Assert.assertEquals(2L, (long) cache.getStats().get("size"));
+    Assert.assertEquals(2L, (long) cache.getStats().get("evictions"));
+  }
+
+  @Test
+  public void testNullsArePreserved() {
+    FakeTranslator translator = new FakeTranslator();
+    TranslationCache cache = new TranslationCache(10, translator);
+
+    List<String> result = cache.translateAll(Arrays.asList(null, "a"), "es", "en", "nmt");
+
+    Assert.assertEquals(Arrays.asList(null, "en:A"), result);
+    Assert.assertEquals(Arrays.asList("a"), translator.calls.get(0));
+  }
+}
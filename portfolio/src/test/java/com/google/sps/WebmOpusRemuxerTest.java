@@ -0,0 +1,196 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for repackaging WebM Opus recordings into Ogg Opus */
+@RunWith(JUnit4.class)
+public final class WebmOpusRemuxerTest {
+
+  private static final int PACKETS = 50;
+
+  private static byte[] element(int id, byte[] body, boolean unknownSize) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int shift = 24; shift >= 0; shift -= 8) {
+      if ((id >>> shift) != 0) {
+        out.write(id >>> shift);
+      }
+    }
+    if (unknownSize) {
+      out.write(new byte[] {1, -1, -1, -1, -1, -1, -1, -1}, 0, 8);
+    } else {
+      out.write(0x10);
+      out.write(body.length >> 16);
+      out.write(body.length >> 8);
+      out.write(body.length);
+    }
+    out.write(body, 0, body.length);
+    return out.toByteArray();
+  }
+
+  private static byte[] concat(byte[]... parts) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (byte[] part : parts) {
+      out.write(part, 0, part.length);
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] ascii(String text) {
+    return text.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /** Returns a 20 ms CELT Opus packet with distinct content. */
+  private static byte[] packet(int index) {
+    byte[] packet = new byte[40 + index];
+    Arrays.fill(packet, (byte) index);
+    packet[0] = (byte) 0xF8;
+    return packet;
+  }
+
+  /** Builds a live-recording style WebM file with an Opus track and unknown-size clusters. */
+  private static byte[] webm() {
+    byte[] opusHead =
+        concat(ascii("OpusHead"), new byte[] {1, 1, 56, 1, -128, -69, 0, 0, 0, 0, 0});
+    byte[] track =
+        element(
+            0xAE,
+            concat(
+                element(0xD7, new byte[] {1}, false),
+                element(0x86, ascii("A_OPUS"), false),
+                element(0x63A2, opusHead, false)),
+            false);
+    byte[] blocks = element(0xE7, new byte[] {0}, false);
+    for (int i = 0; i < PACKETS; i++) {
+      byte[] block = concat(new byte[] {(byte) 0x81, 0, 0, -128}, packet(i));
+      blocks = concat(blocks, element(0xA3, block, false));
+    }
+    byte[] segment =
+        concat(
+            element(0x1549A966, element(0x2AD7B1, new byte[] {15, 66, 64}, false), false),
+            element(0x1654AE6B, track, false),
+            element(0x1F43B675, blocks, true));
+    return concat(
+        element(0x1A45DFA3, element(0x4282, ascii("webm"), false), false),
+        element(0x18538067, segment, true));
+  }
+
+  /** Splits Ogg pages into packets. */
+  private static List<byte[]> readOgg(byte[] ogg) {
+    List<byte[]> packets = new ArrayList<>();
+    ByteArrayOutputStream packet = new ByteArrayOutputStream();
+    int position = 0;
+    while (position < ogg.length) {
+      Assert.assertEquals("OggS", new String(ogg, position, 4, StandardCharsets.US_ASCII));
+      int segments = ogg[position + 26] & 0xff;
+      int body = position + 27 + segments;
+      for (int i = 0; i < segments; i++) {
+        int lacing = ogg[position + 27 + i] & 0xff;
+        packet.write(ogg, body, lacing);
+        body += lacing;
+        if (lacing < 255) {
+          packets.add(packet.toByteArray());
+          packet.reset();
+        }
+      }
+      position = body;
+    }
+    return packets;
+  }
+
+  /** Returns the granule position of the last Ogg page. */
+  private static long lastGranule(byte[] ogg) {
+    int position = 0;
+    long granule = 0;
+    while (position < ogg.length) {
+      granule = 0;
+      for (int i = 7; i >= 0; i--) {
+        granule = (granule << 8) | (ogg[position + 6 + i] & 0xff);
+      }
+      int segments = ogg[position + 26] & 0xff;
+      int body = position + 27 + segments;
+      for (int i = 0; i < segments; i++) {
+        body += ogg[position + 27 + i] & 0xff;
+      }
+      position = body;
+    }
+    return granule;
+  }
+
+  @Test
+  public void testRemuxesPacketsUnchanged() throws IOException {
+    byte[] webm = webm();
+    WebmOpusRemuxer remuxer = new WebmOpusRemuxer();
+    byte[] ogg = concat(remuxer.process(webm, 0, webm.length), remuxer.finish());
+
+    List<byte[]> packets = readOgg(ogg);
+    Assert.assertEquals(PACKETS + 2, packets.size());
+    Assert.assertEquals("OpusHead", new String(packets.get(0), 0, 8, StandardCharsets.US_ASCII));
+    Assert.assertEquals("OpusTags", new String(packets.get(1), 0, 8, StandardCharsets.US_ASCII));
+    for (int i = 0; i < PACKETS; i++) {
+      Assert.assertArrayEquals(packet(i), packets.get(i + 2));
+    }
+    // Each packet holds one 20 ms frame, which is 960 samples at 48 kHz.
+    Assert.assertEquals(PACKETS * 960, lastGranule(ogg));
+  }
+
+  @Test
+  public void testInputSplitAnywhere() throws IOException {
+    byte[] webm = webm();
+    WebmOpusRemuxer remuxer = new WebmOpusRemuxer();
+    ByteArrayOutputStream ogg = new ByteArrayOutputStream();
+    for (int offset = 0; offset < webm.length; offset += 7) {
+      byte[] pages = remuxer.process(webm, offset, Math.min(7, webm.length - offset));
+      ogg.write(pages, 0, pages.length);
+    }
+    byte[] last = remuxer.finish();
+    ogg.write(last, 0, last.length);
+
+    List<byte[]> packets = readOgg(ogg.toByteArray());
+    Assert.assertEquals(PACKETS + 2, packets.size());
+    Assert.assertArrayEquals(packet(PACKETS - 1), packets.get(PACKETS + 1));
+  }
+
+  @Test
+  public void testNoOpusTrack() throws IOException {
+    byte[] webm = element(0x1A45DFA3, element(0x4282, ascii("webm"), false), false);
+    WebmOpusRemuxer remuxer = new WebmOpusRemuxer();
+
+    Assert.assertEquals(0, remuxer.process(webm, 0, webm.length).length);
+    Assert.assertEquals(0, remuxer.finish().length);
+  }
+
+  @Test
+  public void testContentTypes() {
+    Assert.assertEquals(
+        InputAudioFormat.WEBM_OPUS, InputAudioFormat.fromContentType("audio/webm;codecs=opus"));
+    Assert.assertEquals(
+        InputAudioFormat.OGG_OPUS, InputAudioFormat.fromContentType("audio/ogg; codecs=opus"));
+    Assert.assertEquals(InputAudioFormat.LINEAR16, InputAudioFormat.fromContentType("audio/wav"));
+    Assert.assertEquals(InputAudioFormat.LINEAR16, InputAudioFormat.fromContentType(null));
+  }
+}
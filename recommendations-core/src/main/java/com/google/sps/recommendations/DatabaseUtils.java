@@ -31,6 +31,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -46,6 +47,65 @@ public class DatabaseUtils {
   public static final List<String> AGG_ENTITY_ID_PROPERTIES =
       Arrays.asList("userID", "timestamp", "count", "listName");
 
+  /**
+   * Stores new user info regarding their list and items into database. Added items update the
+   * aggregate counts, while rejected recommendations only lower the fractional aggregation.
+   *
+   * @param datastore Database entity to retrieve data from
+   * @param userID String containing current user's unique ID
+   * @param stemmedListName Stemmed name of the list that user is storing info into.
+   * @param items List of strings containing items to add to list.
+   * @param newList Whether this is the beginning of a new list.
+   * @param positiveFeedback Whether items are being added (true) or rejected (false).
+   * @return false if negative feedback was given for a list that does not exist, true otherwise
+   */
+  public static boolean storeInfo(
+      DatastoreService datastore,
+      String userID,
+      String stemmedListName,
+      List<String> items,
+      boolean newList,
+      boolean positiveFeedback) {
+    return storeInfo(datastore, userID, stemmedListName, items, newList, positiveFeedback, true);
+  }
+
+  /**
+   * Stores new user info regarding their list and items into database, optionally leaving the
+   * retraining of the list's recommendations to the caller.
+   *
+   * @param datastore Database entity to retrieve data from
+   * @param userID String containing current user's unique ID
+   * @param stemmedListName Stemmed name of the list that user is storing info into.
+   * @param items List of strings containing items to add to list.
+   * @param newList Whether this is the beginning of a new list.
+   * @param positiveFeedback Whether items are being added (true) or rejected (false).
+   * @param retrain Whether to retrain the list's recommendations before returning
+   * @return false if negative feedback was given for a list that does not exist, true otherwise
+   */
+  public static boolean storeInfo(
+      DatastoreService datastore,
+      String userID,
+      String stemmedListName,
+      List<String> items,
+      boolean newList,
+      boolean positiveFeedback,
+      boolean retrain) {
+    if (positiveFeedback) {
+      storeUserListInformation(datastore, userID, stemmedListName, items, newList, retrain);
+      return true;
+    }
+    long listCount;
+    try {
+      Entity e = datastore.get(KeyFactory.createKey(stemmedListName, userID));
+      listCount = (long) e.getProperty("count");
+    } catch (EntityNotFoundException e) {
+      return false;
+    }
+    updateFractionalAggregation(
+        datastore, userID, stemmedListName, items, listCount, false, positiveFeedback, retrain);
+    return true;
+  }
+
   /**
    * Stores the integer aggregate count of number of times user has placed a given item in a list.
    *
@@ -61,6 +121,27 @@ public class DatabaseUtils {
       String stemmedListName,
       List<String> items,
       boolean newList) {
+    storeUserListInformation(datastore, userID, stemmedListName, items, newList, true);
+  }
+
+  /**
+   * Stores the integer aggregate count of number of times user has placed a given item in a list,
+   * optionally leaving the retraining of the list's recommendations to the caller.
+   *
+   * @param datastore Database entity to retrieve data from
+   * @param userID String containing current user's unique ID
+   * @param stemmedListName The name of the list to store aggregation information for.
+   * @param items List of strings containing items to add to list
+   * @param newList Indicates whether the list is a new list (true) or updating existing (false)
+   * @param retrain Whether to retrain the list's recommendations before returning
+   */
+  public static void storeUserListInformation(
+      DatastoreService datastore,
+      String userID,
+      String stemmedListName,
+      List<String> items,
+      boolean newList,
+      boolean retrain) {
     if (items == null || items.isEmpty()) {
       return; // Do not store aggregate info for lists with no items.
     }
@@ -93,7 +174,8 @@ public class DatabaseUtils {
     aggregateEntity.setProperty("listName", stemmedListName);
     log.info("created aggregate entity: " + aggregateEntity);
     datastore.put(aggregateEntity);
-    updateFractionalAggregation(datastore, userID, stemmedListName, items, count, count == 1, true);
+    updateFractionalAggregation(
+        datastore, userID, stemmedListName, items, count, count == 1, true, retrain);
   }
 
   /**
@@ -118,6 +200,34 @@ public class DatabaseUtils {
       long listCount,
       boolean firstList,
       boolean positiveFeedback) {
+    updateFractionalAggregation(
+        datastore, userID, stemmedListName, items, listCount, firstList, positiveFeedback, true);
+  }
+
+  /**
+   * Stores the fractional integer aggregate count of number of times user has placed a given item
+   * in a list, optionally leaving the retraining of the list's recommendations to the caller.
+   *
+   * @param datastore Database entity to retrieve data from
+   * @param userID String containing current user's unique ID
+   * @param stemmedListName Stemmed name of the list for which we are recording unique items
+   * @param items List of strings containing items to add to list
+   * @param listCount Number of lists of this name that the user has made
+   * @param firstList Boolean representing true if updating fractions for the first list of a name
+   *     type
+   * @param positiveFeedback Boolean indicating if items are being added to list or rejected
+   *     recommendations.
+   * @param retrain Whether to retrain the list's recommendations before returning
+   */
+  public static void updateFractionalAggregation(
+      DatastoreService datastore,
+      String userID,
+      String stemmedListName,
+      List<String> items,
+      long listCount,
+      boolean firstList,
+      boolean positiveFeedback,
+      boolean retrain) {
     if (items == null) {
       return;
     }
@@ -146,9 +256,11 @@ public class DatabaseUtils {
     fracEntity.setProperty("count", listCount);
     log.info("frac entity here" + fracEntity);
     datastore.put(fracEntity);
+    if (!retrain) {
+      return;
+    }
     try {
       RecommendationUtils.updateUserRecommendations(datastore, stemmedListName);
-
     } catch (EntityNotFoundException | IllegalStateException e) {
       log.error("Recommendation error: " + e);
     }
@@ -200,6 +312,7 @@ public class DatabaseUtils {
     }
     entity.setProperty("items", updatedUniqueItems);
     datastore.put(entity);
+    ItemHasher.recordItems(datastore, stemmedListName, items);
   }
 
   /**
@@ -215,10 +328,12 @@ public class DatabaseUtils {
     Arrays.sort(allDBFiles);
     Gson gson = new Gson();
     boolean checkExisting = true;
+    List<String> categoryNames = new ArrayList<>();
     for (File file : allDBFiles) {
       String fileName = file.getName();
       log.info("file: " + fileName);
       String categoryName = fileName.split("\\.")[0];
+      categoryNames.add(categoryName);
       try (BufferedReader br = new BufferedReader(new FileReader(file))) {
         String line;
         while ((line = br.readLine()) != null) {
@@ -259,12 +374,8 @@ public class DatabaseUtils {
         log.error("Error trying to read file: " + e);
         continue;
       }
-      try {
-        RecommendationUtils.updateUserRecommendations(datastore, categoryName);
-      } catch (EntityNotFoundException | IllegalStateException e) {
-        log.error("Recommendation error: " + e);
-      }
     }
+    RecommendationUtils.retrainLists(datastore, categoryNames);
   }
 
   /**
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.recommendations;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maps stemmed list items into a fixed number of hash buckets so that the recommender matrix and
+ * prediction entities have a bounded width regardless of how many distinct items users enter.
+ * Hashing is enabled per list through a "RecommenderConfig" entity, and the most frequent items of
+ * each bucket are kept in an "ItemBuckets-<list>" side table so predictions can be unhashed.
+ */
+public class ItemHasher {
+
+  private static Logger log = LoggerFactory.getLogger(ItemHasher.class);
+  // Stemmed items never contain whitespace, so no item can be mistaken for a bucket label.
+  public static final String BUCKET_PREFIX = "hash bucket ";
+  private static final int MAX_ITEMS_PER_BUCKET = 5;
+  private static final int MAX_TRANSACTION_ATTEMPTS = 5;
+  private final int numBuckets;
+
+  /**
+   * ItemHasher constructor.
+   *
+   * @param numBuckets Number of buckets that items are hashed into
+   */
+  public ItemHasher(int numBuckets) {
+    if (numBuckets <= 0) {
+      throw new IllegalArgumentException("Number of hash buckets must be positive.");
+    }
+    this.numBuckets = numBuckets;
+  }
+
+  public int getNumBuckets() {
+    return numBuckets;
+  }
+
+  /**
+   * Returns the bucket label for a stemmed item.
+   *
+   * @param stemmedItem Stemmed name of the item to hash
+   * @return Property name of the bucket that the item falls into
+   */
+  public String bucketOf(String stemmedItem) {
+    return BUCKET_PREFIX + Math.floorMod(stemmedItem.hashCode(), numBuckets);
+  }
+
+  /**
+   * Returns the labels of all buckets in index order.
+   *
+   * @return List of bucket property names
+   */
+  public List<String> bucketLabels() {
+    List<String> labels = new ArrayList<>();
+    for (int i = 0; i < numBuckets; i++) {
+      labels.add(BUCKET_PREFIX + i);
+    }
+    return labels;
+  }
+
+  /**
+   * Checks whether a prediction property name refers to a hash bucket rather than an item. Bucket
+   * labels are the prefix followed by the bucket index.
+   *
+   * @param property Property name of a prediction entity
+   * @return true if the property is a bucket label
+   */
+  public static boolean isBucket(String property) {
+    if (!property.startsWith(BUCKET_PREFIX) || property.length() == BUCKET_PREFIX.length()) {
+      return false;
+    }
+    for (int i = BUCKET_PREFIX.length(); i < property.length(); i++) {
+      if (!Character.isDigit(property.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Retrieves the hasher configured for the given list. Returns null if hashing is not enabled for
+   * the list.
+   *
+   * @param datastore Database instance
+   * @param stemmedListName Stemmed name of the list
+   * @return ItemHasher for the list or null if items are not hashed
+   */
+  public static ItemHasher forList(DatastoreService datastore, String stemmedListName) {
+    try {
+      Entity config = datastore.get(KeyFactory.createKey("RecommenderConfig", stemmedListName));
+      Object buckets = config.getProperty("hashBuckets");
+      if (buckets == null || ((Number) buckets).intValue() <= 0) {
+        return null;
+      }
+      return new ItemHasher(((Number) buckets).intValue());
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Enables or disables hashing for the given list. When enabling, the bucket side table is seeded
+   * from the list's existing unique items so that predictions can be unhashed immediately.
+   *
+   * @param datastore Database instance
+   * @param stemmedListName Stemmed name of the list to configure
+   * @param numBuckets Number of buckets to hash items into, or 0 to disable hashing
+   */
+  public static void configure(DatastoreService datastore, String stemmedListName, int numBuckets) {
+    Entity config = new Entity("RecommenderConfig", stemmedListName);
+    config.setProperty("hashBuckets", (long) Math.max(numBuckets, 0));
+    datastore.put(config);
+    if (numBuckets <= 0) {
+      return;
+    }
+    try {
+      Entity uniqueItems = datastore.get(KeyFactory.createKey("UniqueItems", stemmedListName));
+      Object items = uniqueItems.getProperty("items");
+      if (items != null) {
+        recordItems(datastore, stemmedListName, (Collection<String>) items);
+      }
+    } catch (EntityNotFoundException e) {
+      log.info("No unique items to seed buckets for list: " + stemmedListName);
+    }
+  }
+
+  /**
+   * Records sightings of stemmed items in the bucket side table of a hashed list. Each bucket keeps
+   * at most MAX_ITEMS_PER_BUCKET items; a new item in a full bucket replaces the least frequent one
+   * and inherits its count so that it can still overtake the others. Each bucket is updated in its
+   * own transaction, so concurrent stores to the same list do not lose sightings. Does nothing if
+   * hashing is not enabled for the list.
+   *
+   * @param datastore Database instance
+   * @param stemmedListName Stemmed name of the list
+   * @param stemmedItems Stemmed items that were added to the list
+   * @throws ConcurrentModificationException if a bucket is still contended after
+   *     MAX_TRANSACTION_ATTEMPTS attempts
+   */
+  public static void recordItems(
+      DatastoreService datastore, String stemmedListName, Collection<String> stemmedItems) {
+    ItemHasher hasher = forList(datastore, stemmedListName);
+    if (hasher == null) {
+      return;
+    }
+    Map<String, List<String>> itemsByBucket = new HashMap<>();
+    for (String stemmedItem : stemmedItems) {
+      itemsByBucket
+          .computeIfAbsent(hasher.bucketOf(stemmedItem), bucket -> new ArrayList<>())
+          .add(stemmedItem);
+    }
+    for (Map.Entry<String, List<String>> entry : itemsByBucket.entrySet()) {
+      updateBucket(datastore, stemmedListName, entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Records sightings of stemmed items of one bucket in a transaction, retrying it when another
+   * store changed the bucket concurrently.
+   *
+   * @param datastore Database instance
+   * @param stemmedListName Stemmed name of the list
+   * @param bucket Bucket label that all items fall into
+   * @param stemmedItems Stemmed items that were added to the list
+   */
+  private static void updateBucket(
+      DatastoreService datastore, String stemmedListName, String bucket, List<String> stemmedItems) {
+    Key key = KeyFactory.createKey("ItemBuckets-" + stemmedListName, bucket);
+    for (int attempt = 1; ; attempt++) {
+      Transaction transaction = datastore.beginTransaction();
+      try {
+        Entity entity;
+        try {
+          entity = datastore.get(transaction, key);
+        } catch (EntityNotFoundException e) {
+          entity = new Entity(key);
+        }
+        for (String stemmedItem : stemmedItems) {
+          Object count = entity.getProperty(stemmedItem);
+          if (count != null) {
+            entity.setProperty(stemmedItem, ((Number) count).longValue() + 1);
+          } else if (entity.getProperties().size() < MAX_ITEMS_PER_BUCKET) {
+            entity.setProperty(stemmedItem, 1L);
+          } else {
+            entity.setProperty(stemmedItem, evictLeastFrequent(entity) + 1);
+          }
+        }
+        datastore.put(transaction, entity);
+        transaction.commit();
+        return;
+      } catch (ConcurrentModificationException e) {
+        if (attempt >= MAX_TRANSACTION_ATTEMPTS) {
+          log.error("Could not update " + bucket + " of list " + stemmedListName);
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  /**
+   * Finds the most frequent item of each given bucket in a single batch lookup.
+   *
+   * @param datastore Database instance
+   * @param stemmedListName Stemmed name of the list
+   * @param buckets Bucket labels to unhash
+   * @return Map of bucket label to its most frequent stemmed item. Buckets without any recorded
+   *     items are left out.
+   */
+  public static Map<String, String> unhash(
+      DatastoreService datastore, String stemmedListName, Collection<String> buckets) {
+    List<Key> keys = new ArrayList<>();
+    for (String bucket : buckets) {
+      keys.add(KeyFactory.createKey("ItemBuckets-" + stemmedListName, bucket));
+    }
+    Map<String, String> items = new HashMap<>();
+    for (Entity entity : datastore.get(keys).values()) {
+      String topItem = null;
+      long topCount = 0;
+      for (Map.Entry<String, Object> entry : entity.getProperties().entrySet()) {
+        long count = ((Number) entry.getValue()).longValue();
+        if (count > topCount) {
+          topItem = entry.getKey();
+          topCount = count;
+        }
+      }
+      if (topItem != null) {
+        items.put(entity.getKey().getName(), topItem);
+      }
+    }
+    return items;
+  }
+
+  /**
+   * Removes the least frequent item of a bucket.
+   *
+   * @param entity Side table entity for a bucket
+   * @return Count of the removed item
+   */
+  private static long evictLeastFrequent(Entity entity) {
+    String minItem = null;
+    long minCount = Long.MAX_VALUE;
+    for (Map.Entry<String, Object> entry : entity.getProperties().entrySet()) {
+      long count = ((Number) entry.getValue()).longValue();
+      if (count < minCount) {
+        minItem = entry.getKey();
+        minCount = count;
+      }
+    }
+    entity.removeProperty(minItem);
+    return minCount;
+  }
+}
@@ -16,11 +16,13 @@
 
 package com.google.sps.recommendations;
 
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.Query.CompositeFilter;
 import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
@@ -28,19 +30,31 @@ import com.google.appengine.api.datastore.Query.Filter;
 import com.google.appengine.api.datastore.Query.FilterOperator;
 import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.apphosting.api.ApiProxy;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class RecommendationUtils {
 
   private static Logger log = LoggerFactory.getLogger(RecommendationUtils.class);
+  private static final int MAX_RETRAIN_THREADS = 4;
+  private static final int LOAD_CHUNK_SIZE = 200;
 
   /**
    * Makes recommendations based on the user's past history of list items. Will only make
@@ -59,7 +73,7 @@ public class RecommendationUtils {
     if ((long) entity.getProperty("count") < 3) {
       throw new IllegalStateException("Not enough past lists to make recommendations.");
     }
-    return getSortedListItems(userID, datastore, entity);
+    return getSortedListItems(userID, datastore, entity, stemmedListName);
   }
 
   /**
@@ -81,19 +95,29 @@ public class RecommendationUtils {
     Entity entity =
         datastore.get(KeyFactory.createKey("UserPredictions-" + stemmedListName, userID));
     log.info("found entity: " + entity);
-    return getSortedListItems(userID, datastore, entity);
+    return getSortedListItems(userID, datastore, entity, stemmedListName);
   }
 
   /**
-   * Retrieves sorted prediction items and values values from datastore for the given user.
+   * Retrieves sorted prediction items and values values from datastore for the given user. Hashed
+   * bucket predictions are mapped back to the most frequent item of each bucket.
    *
    * @param userID String containing current user's unique ID
    * @param datastore Datastore instance to used to retrieve user's stem conversions.
    * @param entity Item prediction entity corresponding to the current user
+   * @param stemmedListName Name of the list the predictions were made for.
    */
   private static List<Pair<String, Double>> getSortedListItems(
-      String userID, DatastoreService datastore, Entity entity)
+      String userID, DatastoreService datastore, Entity entity, String stemmedListName)
       throws IllegalStateException, EntityNotFoundException {
+    List<String> buckets =
+        entity.getProperties().keySet().stream()
+            .filter(ItemHasher::isBucket)
+            .collect(Collectors.toList());
+    Map<String, String> unhashedItems =
+        buckets.isEmpty()
+            ? Collections.emptyMap()
+            : ItemHasher.unhash(datastore, stemmedListName, buckets);
     PriorityQueue<Pair<String, Double>> pq =
         new PriorityQueue<>(
             new Comparator<Pair<String, Double>>() {
@@ -106,9 +130,14 @@ public class RecommendationUtils {
       if (DatabaseUtils.AGG_ENTITY_ID_PROPERTIES.contains(item)) {
         continue;
       }
+      String stemmedItem = ItemHasher.isBucket(item) ? unhashedItems.get(item) : item;
+      if (stemmedItem == null) {
+        continue; // Bucket has no recorded items to recommend.
+      }
       pq.add(
           new Pair<String, Double>(
-              StemUtils.unstem(userID, datastore, item), (Double) entity.getProperty(item)));
+              StemUtils.unstem(userID, datastore, stemmedItem),
+              (Double) entity.getProperty(item)));
     }
     if (pq.isEmpty()) {
       throw new IllegalStateException("No items in PQ");
@@ -129,15 +158,95 @@ public class RecommendationUtils {
   public static void updateUserRecommendations(DatastoreService datastore, String stemmedListName)
       throws EntityNotFoundException, IllegalStateException {
     Set<String> uniqueItems = getUniqueItems(datastore, stemmedListName);
-    List<Entity> allUserEntities = getAllEntities(datastore, "Frac-" + stemmedListName);
-    if (allUserEntities.size() < 4) {
+    ItemHasher hasher = ItemHasher.forList(datastore, stemmedListName);
+    SparseRatings ratings = SparseRatings.forItems(uniqueItems, hasher);
+    loadRatings(datastore, "Frac-" + stemmedListName, ratings);
+    if (ratings.numRows() < 4) {
       throw new IllegalStateException(
           "Cannot make recommendations when there are less than 3 other users.");
     }
     Recommender rec =
         new Recommender(
-            (int) Math.ceil(Math.sqrt(Math.min(allUserEntities.size(), uniqueItems.size()))));
-    rec.makeRecommendations(datastore, stemmedListName, allUserEntities, uniqueItems);
+            (int) Math.ceil(Math.sqrt(Math.min(ratings.numRows(), ratings.numCols()))), hasher);
+    rec.makeRecommendations(datastore, stemmedListName, ratings);
+  }
+
+  /**
+   * Retrains recommendations for every list that has recorded unique items. See retrainLists.
+   *
+   * @param datastore Database instance
+   * @return RetrainReport with per-list training times and failed lists
+   */
+  public static RetrainReport retrainAllLists(DatastoreService datastore) {
+    Query query = new Query("UniqueItems").setKeysOnly();
+    List<String> stemmedListNames = new ArrayList<>();
+    for (Entity entity : datastore.prepare(query).asIterable()) {
+      stemmedListNames.add(entity.getKey().getName());
+    }
+    return retrainLists(datastore, stemmedListNames);
+  }
+
+  /**
+   * Retrains recommendations for the given lists concurrently on a bounded thread pool. Lists are
+   * independent of each other, so the total time is close to that of the largest list. Lists that
+   * cannot be trained (e.g. too few users) are recorded as failures and do not stop the others.
+   *
+   * @param datastore Database instance
+   * @param stemmedListNames Stemmed names of the lists to retrain
+   * @return RetrainReport with per-list training times and failed lists
+   */
+  public static RetrainReport retrainLists(
+      DatastoreService datastore, List<String> stemmedListNames) {
+    RetrainReport report = new RetrainReport();
+    if (stemmedListNames.isEmpty()) {
+      return report;
+    }
+    long start = System.currentTimeMillis();
+    int total = stemmedListNames.size();
+    AtomicInteger completed = new AtomicInteger();
+    // Worker threads need the request's API environment to make datastore calls.
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    ExecutorService executor =
+        Executors.newFixedThreadPool(Math.min(MAX_RETRAIN_THREADS, total));
+    List<Pair<String, Future<?>>> tasks = new ArrayList<>();
+    for (String stemmedListName : stemmedListNames) {
+      Future<?> future =
+          executor.submit(
+              () -> {
+                if (environment != null) {
+                  ApiProxy.setEnvironmentForCurrentThread(environment);
+                }
+                long listStart = System.currentTimeMillis();
+                try {
+                  updateUserRecommendations(datastore, stemmedListName);
+                  long millis = System.currentTimeMillis() - listStart;
+                  report.addSuccess(stemmedListName, millis);
+                  log.info("Retrained list " + stemmedListName + " in " + millis + " ms");
+                } catch (EntityNotFoundException | IllegalStateException e) {
+                  report.addFailure(stemmedListName);
+                  log.error("Recommendation error for list " + stemmedListName + ": " + e);
+                } finally {
+                  log.info("Retrain progress: " + completed.incrementAndGet() + "/" + total);
+                  ApiProxy.clearEnvironmentForCurrentThread();
+                }
+              });
+      tasks.add(new Pair<>(stemmedListName, future));
+    }
+    for (Pair<String, Future<?>> task : tasks) {
+      try {
+        task.getValue().get();
+      } catch (ExecutionException e) {
+        report.addFailure(task.getKey());
+        log.error("Unexpected retrain error for list " + task.getKey() + ": " + e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    executor.shutdownNow();
+    report.setTotalMillis(System.currentTimeMillis() - start);
+    log.info(report.toString());
+    return report;
   }
 
   /**
@@ -158,15 +267,30 @@ public class RecommendationUtils {
   }
 
   /**
-   * Returns a list of all entities in the fractional aggregation database for a given list.
+   * Streams all entities in the fractional aggregation database for a given list into the ratings
+   * builder. Entities are fetched in key order in cursor-based chunks so that only one chunk of
+   * entity objects is held in memory at a time.
    *
    * @param datastore DatastoreService instance
    * @param category String representing category to fetch from datastore
-   * @return List of entities containing the fractional aggregate properties for each user
+   * @param ratings Ratings builder that each user entity is added to
    */
-  private static List<Entity> getAllEntities(DatastoreService datastore, String category) {
-    Query query = new Query(category).addSort("userID", SortDirection.ASCENDING);
-    return datastore.prepare(query).asList(FetchOptions.Builder.withDefaults());
+  private static void loadRatings(
+      DatastoreService datastore, String category, SparseRatings ratings) {
+    // Unsorted, the query returns all entities in key order, even those without an indexed userID.
+    PreparedQuery preparedQuery = datastore.prepare(new Query(category));
+    FetchOptions options = FetchOptions.Builder.withLimit(LOAD_CHUNK_SIZE);
+    while (true) {
+      QueryResultList<Entity> chunk = preparedQuery.asQueryResultList(options);
+      for (Entity entity : chunk) {
+        ratings.addEntity(entity);
+      }
+      Cursor cursor = chunk.getCursor();
+      if (chunk.size() < LOAD_CHUNK_SIZE || cursor == null) {
+        return;
+      }
+      options = FetchOptions.Builder.withLimit(LOAD_CHUNK_SIZE).startCursor(cursor);
+    }
   }
 
   /**
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ 
+package com.google.sps.recommendations;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.ejml.simple.SimpleMatrix;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class Recommender {
+
+  private static Logger log = LoggerFactory.getLogger(Recommender.class);
+
+  public static final int DEFAULT_STEPS = 10000;
+  public static final double DEFAULT_ALPHA_START = 0.1;
+  public static final double DEFAULT_BETA = 0.02;
+  private static final int PUT_BATCH_SIZE = 500;
+  private int K;
+  private final int STEPS;
+  private final double ALPHA_START;
+  private final double BETA;
+  private ItemHasher hasher;
+
+ /**
+  * Recommender constructor with a custom number of latent features.
+  *
+  * @param k Number of latent features to use in matrix factorization
+  */
+  public Recommender(int k) {
+    this(k, null);
+  }
+
+ /**
+  * Recommender constructor with a custom number of latent features that factorizes hashed item
+  * buckets instead of individual items.
+  *
+  * @param k Number of latent features to use in matrix factorization
+  * @param hasher ItemHasher mapping items to matrix columns, or null to use one column per item
+  */
+  public Recommender(int k, ItemHasher hasher) {
+    this(k, DEFAULT_STEPS, DEFAULT_ALPHA_START, DEFAULT_BETA, hasher);
+  }
+
+ /**
+  * Recommender constructor with custom training hyperparameters.
+  *
+  * @param k Number of latent features to use in matrix factorization
+  * @param steps Maximum number of gradient descent passes over the ratings
+  * @param alphaStart Initial learning rate, decayed by the square root of the step
+  * @param beta Regularization weight of the feature matrices
+  * @param hasher ItemHasher mapping items to matrix columns, or null to use one column per item
+  */
+  public Recommender(int k, int steps, double alphaStart, double beta, ItemHasher hasher) {
+    K = k;
+    STEPS = steps;
+    ALPHA_START = alphaStart;
+    BETA = beta;
+    this.hasher = hasher;
+  }
+
+ /** 
+  * Recommender constructor with default 2 latent features.
+  */
+  public Recommender() {
+    this(2);
+  }
+
+  /**
+   * Generates recommendations from the given ratings and stores the predictions for every user.
+   *
+   * @param datastore Datastore instance
+   * @param stemmedListName stemmed name of the list
+   * @param ratings Observed fractional ratings of all users in the list.
+   */
+  public void makeRecommendations(
+      DatastoreService datastore, String stemmedListName, SparseRatings ratings)
+      throws IllegalStateException {
+    Pair<SimpleMatrix, SimpleMatrix> features = train(ratings);
+    savePredictions(datastore, stemmedListName, ratings, features.getKey(), features.getValue());
+  }
+
+  /**
+   * Trains user and item feature matrices on the given ratings without storing any predictions.
+   *
+   * @param ratings Observed fractional ratings of all users in the list.
+   * @return Pair of the trained user feature matrix and item feature matrix
+   */
+  public Pair<SimpleMatrix, SimpleMatrix> train(SparseRatings ratings)
+      throws IllegalStateException {
+    SimpleMatrix userFeatures = SimpleMatrix.random_DDRM(ratings.numRows(), K, -2.0, 2.0, new Random(1));
+    SimpleMatrix itemFeatures = SimpleMatrix.random_DDRM(K, ratings.numCols(), -2.0, 2.0, new Random(1));
+    factorize(ratings, userFeatures, itemFeatures);
+    return new Pair<>(userFeatures, itemFeatures);
+  }
+
+  /**
+   * Converts database entities into fully populated data matrix.
+   *
+   * @param entities List of fractional aggregate entities containing all entities except the
+   *     current user's in the database.
+   * @param uniqueItems Set of all unique property items in all entities.
+   * @return Matrix containing values for each user as rows, items as columns, and fractional number
+   *     of times an item has appeared on the user's list as values. 0.0 if user never listed an
+   *     item. If items are hashed, columns are buckets and values are summed over bucket items.
+   */
+  SimpleMatrix createMatrixFromDatabaseEntities(List<Entity> entities, Set<String> uniqueItems) {
+    SparseRatings ratings = SparseRatings.forItems(uniqueItems, hasher);
+    for (Entity entity : entities) {
+      ratings.addEntity(entity);
+    }
+    return ratings.toMatrix();
+  }
+
+  /**
+   * Uses matrix factorization to compute the predicted result matrix for a dense data matrix. See
+   * factorize for details.
+   *
+   * @param dataMatrix Matrix with real data values for user list item history.
+   * @param userFeatures Matrix with guesses for how much each user is affiliated with the K
+   *     features
+   * @param itemFeatures Matrix with guesses for how much each item is affiliated with the K
+   *     features
+   * @return Matrix with the final best prediction for userFeatures * itemFeatures
+   */
+  SimpleMatrix matrixFactorization(
+      SimpleMatrix dataMatrix, SimpleMatrix userFeatures, SimpleMatrix itemFeatures)
+      throws IllegalStateException {
+    factorize(SparseRatings.fromMatrix(dataMatrix), userFeatures, itemFeatures);
+    return userFeatures.mult(itemFeatures);
+  }
+
+  /**
+   * Uses matrix factorization to fit userFeatures * itemFeatures to the observed ratings. Based on
+   * the error between feature matrix product and each observed rating, it increments/adjusts the
+   * feature matrices in place and tries again until error reaches threshold of 0.001 or STEPS
+   * iterations has been completed. Only observed ratings are visited, so each step costs time
+   * proportional to the number of ratings rather than users times items.
+   *
+   * @param ratings Observed ratings for user list item history.
+   * @param userFeatures Matrix with guesses for how much each user is affiliated with the K
+   *     features
+   * @param itemFeatures Matrix with guesses for how much each item is affiliated with the K
+   *     features
+   */
+  void factorize(SparseRatings ratings, SimpleMatrix userFeatures, SimpleMatrix itemFeatures)
+      throws IllegalStateException {
+    log.info(
+        "Factorizing " + ratings.size() + " ratings for " + ratings.numRows() + " users and "
+            + ratings.numCols() + " items");
+    for (int step = 0; step < STEPS; step++) {
+      double updatedLearningRate = Math.max(ALPHA_START / (Math.sqrt(step + 1)), 0.005);
+      for (int i = 0; i < ratings.size(); i++) {
+        int row = ratings.getRow(i);
+        int col = ratings.getCol(i);
+        double error = ratings.getValue(i) - dot(userFeatures, itemFeatures, row, col);
+        for (int k = 0; k < K; k++) {
+          double userFeatures_ik = userFeatures.get(row, k);
+          double itemFeatures_kj = itemFeatures.get(k, col);
+          userFeatures.set(
+              row, k, increment(userFeatures_ik, itemFeatures_kj, error, updatedLearningRate));
+          itemFeatures.set(
+              k, col, increment(itemFeatures_kj, userFeatures_ik, error, updatedLearningRate));
+        }
+      }
+      double totalError = 0.0;
+      for (int i = 0; i < ratings.size(); i++) {
+        int row = ratings.getRow(i);
+        int col = ratings.getCol(i);
+        totalError +=
+            Math.pow(ratings.getValue(i) - dot(userFeatures, itemFeatures, row, col), 2);
+        for (int k = 0; k < K; k++) {
+          totalError +=
+              (BETA / 2)
+                  * (Math.pow(userFeatures.get(row, k), 2) + Math.pow(itemFeatures.get(k, col), 2));
+        }
+      }
+      if (Double.isNaN(totalError) || Double.isInfinite(totalError)) {
+        log.error("Failure at step: " + step);
+        log.error("User feature matrix: " + userFeatures);
+        log.error("Item feature matrix: " + itemFeatures);
+        throw new IllegalStateException("NaN error in matrix factorization.");
+      }
+      if (totalError < 0.001) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Computes the predicted rating of a single user and item.
+   *
+   * @param userFeatures User feature matrix
+   * @param itemFeatures Item feature matrix
+   * @param row User row
+   * @param col Item column
+   * @return Dot product of the user's feature row and the item's feature column
+   */
+  static double dot(SimpleMatrix userFeatures, SimpleMatrix itemFeatures, int row, int col) {
+    double result = 0.0;
+    for (int k = 0; k < userFeatures.numCols(); k++) {
+      result += userFeatures.get(row, k) * itemFeatures.get(k, col);
+    }
+    return result;
+  }
+
+  /**
+   * Increments each element based on the error at that element.
+   *
+   * @param e1 The value being adjusted.
+   * @param e2 Corresponding value in the other matrix
+   * @param error Error between the product at this value and the real data matrix at the
+   *     corresponding value.
+   * @param alpha Current alpha learning rate
+   * @return Double representing the incremental adjustment for e1.
+   */
+  private double increment(double e1, double e2, double error, double alpha) {
+    return e1 + alpha * (2 * error * e2 - BETA * e1);
+  }
+
+  /**
+   * Stores results of matrix factorization into database. Predictions are computed one user at a
+   * time and written in batches, so the full prediction matrix is never held in memory.
+   *
+   * @param datastore Datastore instance
+   * @param stemmedListName Stemmed name of the list that predictions were calculated for
+   * @param ratings Ratings that were factorized, used for user IDs and column names
+   * @param userFeatures Trained user feature matrix
+   * @param itemFeatures Trained item feature matrix
+   */
+  private void savePredictions(
+      DatastoreService datastore,
+      String stemmedListName,
+      SparseRatings ratings,
+      SimpleMatrix userFeatures,
+      SimpleMatrix itemFeatures) {
+    List<Entity> batch = new ArrayList<>();
+    for (int i = 0; i < ratings.numRows(); i++) {
+      Entity entity = new Entity("UserPredictions-" + stemmedListName, ratings.getUserID(i));
+      for (int j = 0; j < ratings.numCols(); j++) {
+        entity.setProperty(ratings.getColumn(j), dot(userFeatures, itemFeatures, i, j));
+      }
+      batch.add(entity);
+      if (batch.size() == PUT_BATCH_SIZE) {
+        datastore.put(batch);
+        batch = new ArrayList<>();
+      }
+    }
+    if (!batch.isEmpty()) {
+      datastore.put(batch);
+    }
+    log.info("Stored " + ratings.numRows() + " prediction entities for " + stemmedListName);
+  }
+}
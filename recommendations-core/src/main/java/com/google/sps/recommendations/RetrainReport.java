@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.recommendations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Summary of a bulk retrain over several lists. */
+public class RetrainReport {
+
+  private final Map<String, Long> listMillis = Collections.synchronizedMap(new TreeMap<>());
+  private final List<String> failedLists = Collections.synchronizedList(new ArrayList<>());
+  private long totalMillis;
+
+  /**
+   * Records a list that was retrained successfully.
+   *
+   * @param stemmedListName Stemmed name of the retrained list
+   * @param millis Training time of the list in milliseconds
+   */
+  public void addSuccess(String stemmedListName, long millis) {
+    listMillis.put(stemmedListName, millis);
+  }
+
+  /**
+   * Records a list whose retrain failed.
+   *
+   * @param stemmedListName Stemmed name of the list
+   */
+  public void addFailure(String stemmedListName) {
+    failedLists.add(stemmedListName);
+  }
+
+  public void setTotalMillis(long totalMillis) {
+    this.totalMillis = totalMillis;
+  }
+
+  public Map<String, Long> getListMillis() {
+    return listMillis;
+  }
+
+  public List<String> getFailedLists() {
+    return failedLists;
+  }
+
+  public long getTotalMillis() {
+    return totalMillis;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "Retrained %d lists (%d failed) in %d ms: %s",
+        listMillis.size(), failedLists.size(), totalMillis, listMillis);
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.recommendations;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends finished spans to a local file as one JSON object per line, so that a slow request can
+ * be broken down across the portfolio and the recommendations API by joining the span files of
+ * both services on the trace ID. Exporting is off unless a directory is configured, since the local
+ * disk of an App Engine instance is backed by its memory. The file is rotated to a single ".1"
+ * backup when it grows past its size limit, so a service keeps at most twice that much. Spans are
+ * written by a background thread; when it falls behind by more than MAX_QUEUED_SPANS spans, new
+ * spans are dropped rather than slowing requests down.
+ */
+public class SpanExporter {
+
+  private static Logger log = LoggerFactory.getLogger(SpanExporter.class);
+  public static final String DIRECTORY_PROPERTY = "tracing.exportDir";
+  public static final String MAX_BYTES_PROPERTY = "tracing.exportMaxBytes";
+  public static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+  private static final int MAX_QUEUED_SPANS = 10000;
+  private final String service;
+  private final File file;
+  private final long maxBytes;
+  private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(MAX_QUEUED_SPANS);
+  private final AtomicLong droppedSpans = new AtomicLong();
+
+  /**
+   * SpanExporter constructor. Starts the writer thread unless file is null, in which case spans
+   * are discarded.
+   *
+   * @param service Name of the service recorded with every span
+   * @param file File to append spans to, or null to disable exporting
+   * @param maxBytes Size in bytes past which the file is rotated
+   */
+  public SpanExporter(String service, File file, long maxBytes) {
+    this.service = service;
+    this.file = file;
+    this.maxBytes = maxBytes;
+    if (file != null) {
+      Thread writer = new Thread(this::writeSpans, service + "-span-exporter");
+      writer.setDaemon(true);
+      writer.start();
+    }
+  }
+
+  /**
+   * Creates the exporter of a service writing to "service-spans.jsonl" in the directory given by
+   * the "tracing.exportDir" system property, rotating the file past "tracing.exportMaxBytes". If
+   * the directory property is not set or empty, spans are discarded.
+   *
+   * @param service Name of the service
+   * @return SpanExporter for the service
+   */
+  public static SpanExporter create(String service) {
+    String directory = System.getProperty(DIRECTORY_PROPERTY);
+    long maxBytes = Long.getLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES);
+    if (directory == null || directory.isEmpty()) {
+      return new SpanExporter(service, null, maxBytes);
+    }
+    return new SpanExporter(service, new File(directory, service + "-spans.jsonl"), maxBytes);
+  }
+
+  /**
+   * Queues a finished span to be written.
+   *
+   * @param traceId ID of the trace the span belongs to
+   * @param spanId ID of the span
+   * @param parentSpanId ID of the parent span, or null for the root span of a trace
+   * @param name Name of the span
+   * @param startMillis Wall-clock start time in milliseconds since the epoch
+   * @param durationMillis Duration in milliseconds
+   */
+  public void export(
+      String traceId,
+      String spanId,
+      String parentSpanId,
+      String name,
+      long startMillis,
+      long durationMillis) {
+    if (file == null) {
+      return;
+    }
+    JSONObject span = new JSONObject();
+    span.put("service", service);
+    span.put("traceId", traceId);
+    span.put("spanId", spanId);
+    if (parentSpanId != null) {
+      span.put("parentSpanId", parentSpanId);
+    }
+    span.put("name", name);
+    span.put("startMillis", startMillis);
+    span.put("durationMillis", durationMillis);
+    if (!queue.offer(span.toString())) {
+      droppedSpans.incrementAndGet();
+    }
+  }
+
+  public long getDroppedSpans() {
+    return droppedSpans.get();
+  }
+
+  /**
+   * Writes queued spans to the file, flushing whenever the queue is empty and rotating the file
+   * when it has grown past maxBytes.
+   */
+  private void writeSpans() {
+    while (true) {
+      long bytes = file.length();
+      try (BufferedWriter writer =
+          Files.newBufferedWriter(
+              file.toPath(),
+              StandardCharsets.UTF_8,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.APPEND)) {
+        while (bytes < maxBytes) {
+          String span = queue.take();
+          writer.write(span);
+          writer.newLine();
+          // Spans are ASCII apart from names, so characters approximate bytes well enough.
+          bytes += span.length() + 1;
+          if (queue.isEmpty()) {
+            writer.flush();
+          }
+        }
+      } catch (IOException e) {
+        log.error("Could not write spans to " + file, e);
+        try {
+          Thread.sleep(1000);
+        } catch (InterruptedException interrupted) {
+          return;
+        }
+        continue;
+      } catch (InterruptedException e) {
+        return;
+      }
+      rotate();
+    }
+  }
+
+  /** Replaces the backup file with the current file, so that the next write starts a new file. */
+  private void rotate() {
+    File backup = new File(file.getPath() + ".1");
+    try {
+      Files.move(file.toPath(), backup.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      log.error("Could not rotate span file " + file, e);
+      if (!file.delete()) {
+        log.error("Could not delete span file " + file);
+      }
+    }
+  }
+}
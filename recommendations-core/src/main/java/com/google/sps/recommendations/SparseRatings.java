@@ -0,0 +1,218 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.recommendations;
+
+import com.google.appengine.api.datastore.Entity;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.ejml.simple.SimpleMatrix;
+
+/**
+ * User-item ratings stored as parallel (row, column, value) arrays so that memory grows with the
+ * number of observed ratings rather than users times items. Rows are users in the order they were
+ * added and columns are either items or hash buckets. Ratings within DELTA of zero are treated as
+ * unobserved and are not stored.
+ */
+public class SparseRatings {
+
+  private static final double DELTA = 0.01;
+  private static final int INITIAL_CAPACITY = 64;
+  private final List<String> columns;
+  private final Map<String, Integer> columnIndex = new HashMap<>();
+  private final ItemHasher hasher;
+  private final List<String> userIDs = new ArrayList<>();
+  private int[] rows = new int[INITIAL_CAPACITY];
+  private int[] cols = new int[INITIAL_CAPACITY];
+  private double[] values = new double[INITIAL_CAPACITY];
+  private int size = 0;
+
+  /**
+   * SparseRatings constructor.
+   *
+   * @param columns Names of the matrix columns in index order
+   * @param hasher ItemHasher mapping item properties to bucket columns, or null if columns are
+   *     items
+   */
+  public SparseRatings(List<String> columns, ItemHasher hasher) {
+    this.columns = columns;
+    this.hasher = hasher;
+    for (int i = 0; i < columns.size(); i++) {
+      columnIndex.put(columns.get(i), i);
+    }
+  }
+
+  /**
+   * Creates an empty ratings builder for the given item space.
+   *
+   * @param uniqueItems Set of all unique property items in all entities
+   * @param hasher ItemHasher for the list, or null to use one sorted column per unique item
+   * @return Empty SparseRatings with the list's columns
+   */
+  public static SparseRatings forItems(Set<String> uniqueItems, ItemHasher hasher) {
+    if (hasher != null) {
+      return new SparseRatings(hasher.bucketLabels(), hasher);
+    }
+    List<String> columns = new ArrayList<>(uniqueItems);
+    Collections.sort(columns);
+    return new SparseRatings(columns, null);
+  }
+
+  /**
+   * Creates ratings from a dense matrix, with row and column indices as user IDs and column names.
+   *
+   * @param matrix Dense matrix where values near zero are unobserved
+   * @return SparseRatings containing the observed values of the matrix
+   */
+  public static SparseRatings fromMatrix(SimpleMatrix matrix) {
+    List<String> columns = new ArrayList<>();
+    for (int col = 0; col < matrix.numCols(); col++) {
+      columns.add(String.valueOf(col));
+    }
+    SparseRatings ratings = new SparseRatings(columns, null);
+    for (int row = 0; row < matrix.numRows(); row++) {
+      ratings.userIDs.add(String.valueOf(row));
+      for (int col = 0; col < matrix.numCols(); col++) {
+        ratings.add(row, col, matrix.get(row, col));
+      }
+    }
+    return ratings;
+  }
+
+  /**
+   * Adds a fractional aggregate entity as the next user row. See addRow.
+   *
+   * @param entity Fractional aggregate entity of a single user
+   */
+  public void addEntity(Entity entity) {
+    Map<String, Double> itemValues = new HashMap<>();
+    for (Map.Entry<String, Object> property : entity.getProperties().entrySet()) {
+      if (!DatabaseUtils.AGG_ENTITY_ID_PROPERTIES.contains(property.getKey())) {
+        itemValues.put(property.getKey(), ((Number) property.getValue()).doubleValue());
+      }
+    }
+    addRow((String) entity.getProperty("userID"), itemValues);
+  }
+
+  /**
+   * Adds the item ratings of a user as the next row. Items that are not part of the column space
+   * are ignored and items hashed into the same bucket are summed.
+   *
+   * @param userID String containing the user's unique ID
+   * @param itemValues Map of stemmed item to fractional rating
+   */
+  public void addRow(String userID, Map<String, Double> itemValues) {
+    int row = userIDs.size();
+    userIDs.add(userID);
+    TreeMap<Integer, Double> rowValues = new TreeMap<>();
+    for (Map.Entry<String, Double> itemValue : itemValues.entrySet()) {
+      String item = itemValue.getKey();
+      Integer col = columnIndex.get(hasher == null ? item : hasher.bucketOf(item));
+      if (col == null) {
+        continue;
+      }
+      rowValues.merge(col, itemValue.getValue(), Double::sum);
+    }
+    for (Map.Entry<Integer, Double> entry : rowValues.entrySet()) {
+      add(row, entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Creates ratings with the same users and columns as this instance but no observed values.
+   *
+   * @return Empty SparseRatings sharing this instance's row and column space
+   */
+  public SparseRatings emptyCopy() {
+    SparseRatings copy = new SparseRatings(columns, hasher);
+    copy.userIDs.addAll(userIDs);
+    return copy;
+  }
+
+  /**
+   * Appends a single rating if it is observed.
+   *
+   * @param row User row of the rating
+   * @param col Item column of the rating
+   * @param value Rating value
+   */
+  void add(int row, int col, double value) {
+    if (Math.abs(value) <= DELTA) {
+      return;
+    }
+    if (size == values.length) {
+      rows = Arrays.copyOf(rows, size * 2);
+      cols = Arrays.copyOf(cols, size * 2);
+      values = Arrays.copyOf(values, size * 2);
+    }
+    rows[size] = row;
+    cols[size] = col;
+    values[size] = value;
+    size++;
+  }
+
+  /**
+   * Converts the ratings into a dense matrix with 0.0 for unobserved ratings.
+   *
+   * @return Matrix with users as rows and columns as items or buckets
+   */
+  public SimpleMatrix toMatrix() {
+    SimpleMatrix matrix = new SimpleMatrix(numRows(), numCols());
+    for (int i = 0; i < size; i++) {
+      matrix.set(rows[i], cols[i], values[i]);
+    }
+    return matrix;
+  }
+
+  public int numRows() {
+    return userIDs.size();
+  }
+
+  public int numCols() {
+    return columns.size();
+  }
+
+  /** Returns the number of observed ratings. */
+  public int size() {
+    return size;
+  }
+
+  public int getRow(int index) {
+    return rows[index];
+  }
+
+  public int getCol(int index) {
+    return cols[index];
+  }
+
+  public double getValue(int index) {
+    return values[index];
+  }
+
+  public String getUserID(int row) {
+    return userIDs.get(row);
+  }
+
+  public String getColumn(int col) {
+    return columns.get(col);
+  }
+}
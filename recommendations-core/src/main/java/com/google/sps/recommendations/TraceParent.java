@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.recommendations;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Trace ID and parent span ID carried between services in a W3C Trace Context "traceparent"
+ * header, such as "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01". Used by the portfolio
+ * to propagate its traces to the recommendations API.
+ */
+public final class TraceParent {
+
+  public static final String HEADER = "traceparent";
+  private static final Pattern FORMAT =
+      Pattern.compile("00-([0-9a-f]{32})-([0-9a-f]{16})-[0-9a-f]{2}");
+  private final String traceId;
+  private final String spanId;
+
+  /**
+   * TraceParent constructor.
+   *
+   * @param traceId 32 lowercase hexadecimal digits identifying the trace
+   * @param spanId 16 lowercase hexadecimal digits identifying the parent span
+   */
+  public TraceParent(String traceId, String spanId) {
+    this.traceId = traceId;
+    this.spanId = spanId;
+  }
+
+  /**
+   * Parses a traceparent header.
+   *
+   * @param header Header value, which may be null
+   * @return TraceParent, or null if the header is missing or malformed
+   */
+  public static TraceParent parse(String header) {
+    if (header == null) {
+      return null;
+    }
+    Matcher matcher = FORMAT.matcher(header.trim());
+    if (!matcher.matches()) {
+      return null;
+    }
+    return new TraceParent(matcher.group(1), matcher.group(2));
+  }
+
+  /**
+   * Generates a random trace ID.
+   *
+   * @return 32 lowercase hexadecimal digits
+   */
+  public static String newTraceId() {
+    return randomHex() + randomHex();
+  }
+
+  /**
+   * Generates a random span ID.
+   *
+   * @return 16 lowercase hexadecimal digits
+   */
+  public static String newSpanId() {
+    return randomHex();
+  }
+
+  public String getTraceId() {
+    return traceId;
+  }
+
+  public String getSpanId() {
+    return spanId;
+  }
+
+  /**
+   * Formats this trace position as a sampled traceparent header value.
+   *
+   * @return Header value
+   */
+  public String toHeader() {
+    return "00-" + traceId + "-" + spanId + "-01";
+  }
+
+  private static String randomHex() {
+    long value = ThreadLocalRandom.current().nextLong();
+    if (value == 0) {
+      value = 1;
+    }
+    return String.format("%016x", value);
+  }
+}
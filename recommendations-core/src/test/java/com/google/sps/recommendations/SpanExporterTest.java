@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.recommendations;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class SpanExporterTest {
+
+  /** Checks that the span file is rotated once it passes its size limit. */
+  @Test
+  public void testRotation() throws Exception {
+    File directory = Files.createTempDirectory("spans").toFile();
+    File file = new File(directory, "test-spans.jsonl");
+    File backup = new File(directory, "test-spans.jsonl.1");
+    SpanExporter exporter = new SpanExporter("test", file, 1000);
+    for (int i = 0; i < 20; i++) {
+      exporter.export(TraceParent.newTraceId(), TraceParent.newSpanId(), null, "span", 0, i);
+    }
+
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!backup.isFile() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(backup.isFile());
+    assertTrue(backup.length() < 1000 + 200);
+    assertEquals(0, exporter.getDroppedSpans());
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.recommendations;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TraceParentTest {
+
+  /** Checks that a generated position survives formatting and parsing. */
+  @Test
+  public void testRoundTrip() {
+    TraceParent traceParent = new TraceParent(TraceParent.newTraceId(), TraceParent.newSpanId());
+    TraceParent parsed = TraceParent.parse(traceParent.toHeader());
+    assertEquals(32, parsed.getTraceId().length());
+    assertEquals(16, parsed.getSpanId().length());
+    assertEquals(traceParent.getTraceId(), parsed.getTraceId());
+    assertEquals(traceParent.getSpanId(), parsed.getSpanId());
+  }
+
+  /** Checks the example header of the W3C Trace Context specification. */
+  @Test
+  public void testParseSpecificationExample() {
+    TraceParent parsed =
+        TraceParent.parse("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01");
+    assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", parsed.getTraceId());
+    assertEquals("00f067aa0ba902b7", parsed.getSpanId());
+  }
+
+  /** Checks that missing and malformed headers start a new trace instead. */
+  @Test
+  public void testParseInvalid() {
+    assertNull(TraceParent.parse(null));
+    assertNull(TraceParent.parse(""));
+    assertNull(TraceParent.parse("00-4bf92f3577b34da6-00f067aa0ba902b7-01"));
+    assertNull(TraceParent.parse("00-4BF92F3577B34DA6A3CE929D0E0E4736-00f067aa0ba902b7-01"));
+  }
+}
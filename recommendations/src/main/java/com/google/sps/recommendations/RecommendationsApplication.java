@@ -18,6 +18,8 @@ package com.google.sps.recommendations;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.converter.protobuf.ProtobufHttpMessageConverter;
 
 @SpringBootApplication
 public class RecommendationsApplication {
@@ -30,4 +32,15 @@ public class RecommendationsApplication {
   public static void main(String[] args) {
     SpringApplication.run(RecommendationsApplication.class, args);
   }
+
+  /**
+   * Registers the message converter for application/x-protobuf request and response bodies used by
+   * the binary /rpc endpoints.
+   *
+   * @return ProtobufHttpMessageConverter instance
+   */
+  @Bean
+  public ProtobufHttpMessageConverter protobufHttpMessageConverter() {
+    return new ProtobufHttpMessageConverter();
+  }
 }
@@ -18,9 +18,13 @@ package com.google.sps.recommendations;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
-import com.google.appengine.api.datastore.KeyFactory;
+import com.google.sps.recommendations.proto.ItemScore;
+import com.google.sps.recommendations.proto.RecommendationsRequest;
+import com.google.sps.recommendations.proto.RecommendationsResponse;
+import com.google.sps.recommendations.proto.StoreInfoBatch;
+import com.google.sps.recommendations.proto.StoreInfoRequest;
+import com.google.sps.recommendations.proto.StoreInfoResponse;
 import java.util.Collections;
 import java.util.List;
 import org.slf4j.Logger;
@@ -28,6 +32,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
@@ -39,6 +44,7 @@ import org.springframework.web.bind.annotation.RestController;
 public class RecommendationsController {
 
   private static Logger log = LoggerFactory.getLogger(RecommendationsController.class);
+  private static final String PROTOBUF = "application/x-protobuf";
   private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
 
   /**
@@ -60,24 +66,42 @@ public class RecommendationsController {
       @RequestBody List<String> items) {
     log.info("storing user info");
     boolean positiveFeedback = userFeedback.equals("true");
-    if (positiveFeedback) {
-      DatabaseUtils.storeUserListInformation(
-          datastore, userID, stemmedListName, items, newList.equals("true"));
-    } else {
-      long listCount;
-      try {
-        Entity e = datastore.get(KeyFactory.createKey(stemmedListName, userID));
-        listCount = (long) e.getProperty("count");
-      } catch (EntityNotFoundException e) {
-        return new ResponseEntity(HttpStatus.BAD_REQUEST);
-      }
-      DatabaseUtils.updateFractionalAggregation(
-          datastore, userID, stemmedListName, items, listCount, false, positiveFeedback);
+    if (!DatabaseUtils.storeInfo(
+        datastore, userID, stemmedListName, items, newList.equals("true"), positiveFeedback)) {
+      return new ResponseEntity(HttpStatus.BAD_REQUEST);
     }
     log.info("success");
     return new ResponseEntity(HttpStatus.OK);
   }
 
+  /**
+   * Binary POST method that stores a batch of list events in order. Events for lists the user has
+   * never created are rejected without failing the rest of the batch.
+   *
+   * @param batch StoreInfoBatch protobuf message containing the events to store.
+   * @return StoreInfoResponse with the number of stored and rejected events.
+   */
+  @PostMapping(value = "/rpc/storeInfo", consumes = PROTOBUF, produces = PROTOBUF)
+  public StoreInfoResponse storeInfoRpc(@RequestBody StoreInfoBatch batch) {
+    log.info("storing " + batch.getEventsCount() + " user info events");
+    int stored = 0;
+    for (StoreInfoRequest event : batch.getEventsList()) {
+      if (DatabaseUtils.storeInfo(
+          datastore,
+          event.getUserId(),
+          event.getStemmedListName(),
+          event.getItemsList(),
+          event.getNewList(),
+          event.getPositiveFeedback())) {
+        stored++;
+      }
+    }
+    return StoreInfoResponse.newBuilder()
+        .setStored(stored)
+        .setRejected(batch.getEventsCount() - stored)
+        .build();
+  }
+
   /**
    * GET method that retrieves past user recommendations.
    *
@@ -97,6 +121,17 @@ public class RecommendationsController {
     }
   }
 
+  /**
+   * Binary POST method that retrieves past user recommendations.
+   *
+   * @param request RecommendationsRequest protobuf message with the user and list
+   * @return RecommendationsResponse with items sorted by descending score
+   */
+  @PostMapping(value = "/rpc/pastUserRecs", consumes = PROTOBUF, produces = PROTOBUF)
+  public RecommendationsResponse pastUserRecsRpc(@RequestBody RecommendationsRequest request) {
+    return toResponse(pastUserRecs(request.getUserId(), request.getStemmedListName()));
+  }
+
   /**
    * GET method that retrieves general user recommendations.
    *
@@ -116,6 +151,63 @@ public class RecommendationsController {
     }
   }
 
+  /**
+   * Binary POST method that retrieves general user recommendations.
+   *
+   * @param request RecommendationsRequest protobuf message with the user and list
+   * @return RecommendationsResponse with items sorted by descending score
+   */
+  @PostMapping(value = "/rpc/generalUserRecs", consumes = PROTOBUF, produces = PROTOBUF)
+  public RecommendationsResponse generalUserRecsRpc(@RequestBody RecommendationsRequest request) {
+    return toResponse(generalUserRecs(request.getUserId(), request.getStemmedListName()));
+  }
+
+  /**
+   * Converts item and score pairs into a RecommendationsResponse message.
+   *
+   * @param items List of pairs of item name and score
+   * @return RecommendationsResponse containing the items in the same order
+   */
+  private RecommendationsResponse toResponse(List<Pair<String, Double>> items) {
+    RecommendationsResponse.Builder response = RecommendationsResponse.newBuilder();
+    for (Pair<String, Double> item : items) {
+      response.addItems(
+          ItemScore.newBuilder().setItem(item.getKey()).setScore(item.getValue()).build());
+    }
+    return response.build();
+  }
+
+  /**
+   * POST method that enables or disables feature hashing of items for a list and retrains the
+   * list's recommendations with the new item space.
+   *
+   * @param stemmedListName Stemmed name of the list to configure
+   * @param hashBuckets Number of buckets to hash items into, or 0 to use one column per item
+   */
+  @RequestMapping(value = "/configureList", method = RequestMethod.POST)
+  public ResponseEntity configureList(
+      @RequestParam(value = "stemmedListName") String stemmedListName,
+      @RequestParam(value = "hashBuckets") int hashBuckets) {
+    log.info("configuring list " + stemmedListName + " with " + hashBuckets + " hash buckets");
+    ItemHasher.configure(datastore, stemmedListName, hashBuckets);
+    try {
+      RecommendationUtils.updateUserRecommendations(datastore, stemmedListName);
+    } catch (EntityNotFoundException | IllegalStateException e) {
+      log.error("Recommendation error: " + e);
+    }
+    return new ResponseEntity(HttpStatus.OK);
+  }
+
+  /**
+   * GET method that retrains recommendations for all lists concurrently and reports the training
+   * time of each list.
+   */
+  @GetMapping("/retrainAll")
+  public RetrainReport retrainAll() {
+    log.info("retraining all lists");
+    return RecommendationUtils.retrainAllLists(datastore);
+  }
+
   /**
    * POST method that resets database to default demo values
    *
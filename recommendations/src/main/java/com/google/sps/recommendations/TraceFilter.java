@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.recommendations;
+
+import java.io.IOException;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Records a server span for every request. The span continues the trace of the caller's
+ * traceparent header, so that the time spent in the recommendations API shows up under the
+ * portfolio request that caused it; requests without the header start a new trace. Spans are
+ * written to the "recommendations" SpanExporter.
+ */
+@Component
+public class TraceFilter extends OncePerRequestFilter {
+
+  private static Logger log = LoggerFactory.getLogger(TraceFilter.class);
+  private static final SpanExporter exporter = SpanExporter.create("recommendations");
+
+  @Override
+  protected void doFilterInternal(
+      HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+      throws ServletException, IOException {
+    TraceParent parent = TraceParent.parse(request.getHeader(TraceParent.HEADER));
+    String traceId = parent == null ? TraceParent.newTraceId() : parent.getTraceId();
+    String spanId = TraceParent.newSpanId();
+    long startMillis = System.currentTimeMillis();
+    try {
+      chain.doFilter(request, response);
+    } finally {
+      long durationMillis = System.currentTimeMillis() - startMillis;
+      String name = request.getMethod() + " " + request.getRequestURI();
+      exporter.export(
+          traceId,
+          spanId,
+          parent == null ? null : parent.getSpanId(),
+          name,
+          startMillis,
+          durationMillis);
+      log.info("Trace " + traceId + ": " + name + " " + durationMillis + " ms");
+    }
+  }
+}
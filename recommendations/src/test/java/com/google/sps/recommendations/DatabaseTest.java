@@ -7,9 +7,11 @@ import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.util.Arrays;
 import java.util.List;
 import org.junit.After;
 import org.junit.Before;
@@ -50,6 +52,34 @@ public class DatabaseTest {
     testHelper("Frac-groceri");
   }
 
+  /** Test that retraining all lists discovers the seeded list and stores its predictions. */
+  @Test
+  public void testRetrainAllLists() throws Exception {
+    DatabaseUtils.resetDatabase(datastore);
+    RetrainReport report = RecommendationUtils.retrainAllLists(datastore);
+    assertTrue(report.getListMillis().containsKey("groceri"));
+    assertTrue(report.getFailedLists().isEmpty());
+    Query query = new Query("UserPredictions-groceri");
+    List<Entity> results = datastore.prepare(query).asList(FetchOptions.Builder.withDefaults());
+    assertEquals(5, results.size());
+  }
+
+  /** Test that item sightings of a hashed list accumulate in its buckets across stores. */
+  @Test
+  public void testRecordHashedItems() throws Exception {
+    ItemHasher.configure(datastore, "groceri", 4);
+    ItemHasher hasher = new ItemHasher(4);
+    ItemHasher.recordItems(datastore, "groceri", Arrays.asList("appl", "milk"));
+    ItemHasher.recordItems(datastore, "groceri", Arrays.asList("appl"));
+    Entity bucket =
+        datastore.get(KeyFactory.createKey("ItemBuckets-groceri", hasher.bucketOf("appl")));
+    assertEquals(2L, bucket.getProperty("appl"));
+    assertEquals(
+        "appl",
+        ItemHasher.unhash(datastore, "groceri", Arrays.asList(hasher.bucketOf("appl")))
+            .get(hasher.bucketOf("appl")));
+  }
+
   private void testHelper(String category) throws Exception {
     DatabaseUtils.resetDatabase(datastore);
     Query query = new Query(category);
@@ -0,0 +1,473 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.recommendations;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import org.ejml.simple.SimpleMatrix;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Offline evaluation of recommender settings. Splits a Frac dataset into training and held-out
+ * item ratings, trains a recommender per setting and reports held-out RMSE, precision@3, training
+ * wall time and estimated training memory, marking the settings on the Pareto front. Settings that
+ * hash items are trained on bucket sums and their predictions are unhashed back to items before
+ * scoring, so that every setting is measured against the same held-out item ratings.
+ *
+ * <p>This is an offline tool kept with the tests rather than shipped in the war. Run it from the
+ * recommendations directory with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.google.sps.recommendations.RecommenderEvaluator}.
+ */
+public class RecommenderEvaluator {
+
+  private static Logger log = LoggerFactory.getLogger(RecommenderEvaluator.class);
+  private static final int TOP_N = 3;
+  private static final double HOLDOUT_FRACTION = 0.2;
+  private static final long SPLIT_SEED = 7;
+
+  /** Hyperparameters and item space of a single evaluated recommender. */
+  public static class Setting {
+    private final int k;
+    private final int steps;
+    private final double alphaStart;
+    private final double beta;
+    private final int hashBuckets;
+
+    /**
+     * Setting constructor.
+     *
+     * @param k Number of latent features
+     * @param steps Maximum number of training steps
+     * @param alphaStart Initial learning rate
+     * @param beta Regularization weight
+     * @param hashBuckets Number of item hash buckets, or 0 for one column per item
+     */
+    public Setting(int k, int steps, double alphaStart, double beta, int hashBuckets) {
+      this.k = k;
+      this.steps = steps;
+      this.alphaStart = alphaStart;
+      this.beta = beta;
+      this.hashBuckets = hashBuckets;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "K=%d steps=%d alpha=%.3f beta=%.3f %s",
+          k, steps, alphaStart, beta, hashBuckets > 0 ? "hashed(" + hashBuckets + ")" : "items");
+    }
+  }
+
+  /** Evaluation outcome of a single setting. */
+  public static class Result {
+    private final Setting setting;
+    private final double rmse;
+    private final double precision;
+    private final long trainMillis;
+    private final long modelBytes;
+    private boolean pareto;
+
+    Result(Setting setting, double rmse, double precision, long trainMillis, long modelBytes) {
+      this.setting = setting;
+      this.rmse = rmse;
+      this.precision = precision;
+      this.trainMillis = trainMillis;
+      this.modelBytes = modelBytes;
+    }
+
+    public double getRmse() {
+      return rmse;
+    }
+
+    public double getPrecision() {
+      return precision;
+    }
+
+    public long getTrainMillis() {
+      return trainMillis;
+    }
+
+    public long getModelBytes() {
+      return modelBytes;
+    }
+
+    public boolean isPareto() {
+      return pareto;
+    }
+
+    /**
+     * Checks whether this result is at least as good as the other on every measure and strictly
+     * better on one.
+     *
+     * @param other Result to compare against
+     * @return true if this result dominates the other
+     */
+    boolean dominates(Result other) {
+      boolean noWorse =
+          rmse <= other.rmse
+              && precision >= other.precision
+              && trainMillis <= other.trainMillis
+              && modelBytes <= other.modelBytes;
+      boolean better =
+          rmse < other.rmse
+              || precision > other.precision
+              || trainMillis < other.trainMillis
+              || modelBytes < other.modelBytes;
+      return noWorse && better;
+    }
+  }
+
+  /**
+   * Runs the default settings grid against the seed dataset and a synthetic dataset and prints a
+   * table for each.
+   *
+   * @param args Optional classpath resource of a seed file, defaults to /dbEntities/groceri.txt
+   */
+  public static void main(String[] args) throws IOException {
+    String seedFile = args.length > 0 ? args[0] : "/dbEntities/groceri.txt";
+    List<Setting> settings = new ArrayList<>();
+    for (int k : Arrays.asList(2, 3, 4)) {
+      for (int steps : Arrays.asList(1000, 5000, Recommender.DEFAULT_STEPS)) {
+        for (int buckets : Arrays.asList(0, 8)) {
+          settings.add(
+              new Setting(
+                  k, steps, Recommender.DEFAULT_ALPHA_START, Recommender.DEFAULT_BETA, buckets));
+        }
+      }
+    }
+    System.out.println("Seed dataset " + seedFile);
+    System.out.println(formatTable(evaluateAll(loadSeedDataset(seedFile), settings)));
+    System.out.println("Synthetic dataset (200 users, 60 items, rank 3, density 0.2)");
+    System.out.println(
+        formatTable(evaluateAll(syntheticDataset(200, 60, 3, 0.2, SPLIT_SEED), settings)));
+  }
+
+  /**
+   * Reads the Frac entities of a seed file into a dataset.
+   *
+   * @param resourcePath Classpath resource of a seed file in the dbEntities format
+   * @return Map of user ID to that user's stemmed item ratings
+   */
+  public static Map<String, Map<String, Double>> loadSeedDataset(String resourcePath)
+      throws IOException {
+    Map<String, Map<String, Double>> dataset = new LinkedHashMap<>();
+    InputStream stream = RecommenderEvaluator.class.getResourceAsStream(resourcePath);
+    if (stream == null) {
+      throw new IOException("Seed file not found: " + resourcePath);
+    }
+    try (BufferedReader br = new BufferedReader(new InputStreamReader(stream, "UTF-8"))) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (!line.startsWith("{")) {
+          continue;
+        }
+        JSONObject json = new JSONObject(line);
+        if (!json.getJSONObject("key").getString("kind").startsWith("Frac-")) {
+          continue;
+        }
+        JSONObject properties = json.getJSONObject("propertyMap");
+        Map<String, Double> itemValues = new HashMap<>();
+        Iterator<String> items = properties.keys();
+        while (items.hasNext()) {
+          String item = items.next();
+          if (!DatabaseUtils.AGG_ENTITY_ID_PROPERTIES.contains(item)) {
+            itemValues.put(item, properties.getDouble(item));
+          }
+        }
+        dataset.put(properties.getString("userID"), itemValues);
+      }
+    }
+    return dataset;
+  }
+
+  /**
+   * Generates a dataset from random low-rank user and item factors with a fraction of ratings
+   * observed.
+   *
+   * @param numUsers Number of users
+   * @param numItems Number of items
+   * @param rank Number of latent factors used to generate ratings
+   * @param density Probability that a rating is observed
+   * @param seed Random seed
+   * @return Map of user ID to that user's item ratings, scaled to between 0 and 1
+   */
+  public static Map<String, Map<String, Double>> syntheticDataset(
+      int numUsers, int numItems, int rank, double density, long seed) {
+    Random random = new Random(seed);
+    SimpleMatrix users = SimpleMatrix.random_DDRM(numUsers, rank, 0.0, 1.0, random);
+    SimpleMatrix items = SimpleMatrix.random_DDRM(rank, numItems, 0.0, 1.0, random);
+    Map<String, Map<String, Double>> dataset = new LinkedHashMap<>();
+    for (int u = 0; u < numUsers; u++) {
+      Map<String, Double> itemValues = new HashMap<>();
+      for (int i = 0; i < numItems; i++) {
+        if (random.nextDouble() < density) {
+          itemValues.put("item" + i, Recommender.dot(users, items, u, i) / rank);
+        }
+      }
+      dataset.put("user" + u, itemValues);
+    }
+    return dataset;
+  }
+
+  /**
+   * Evaluates every setting on the dataset and marks the results on the Pareto front.
+   *
+   * @param dataset Map of user ID to that user's item ratings
+   * @param settings Settings to evaluate
+   * @return One result per setting in the same order
+   */
+  public static List<Result> evaluateAll(
+      Map<String, Map<String, Double>> dataset, List<Setting> settings) {
+    List<Result> results = new ArrayList<>();
+    for (Setting setting : settings) {
+      Result result = evaluate(dataset, setting);
+      log.info(setting + ": " + result.rmse + " RMSE in " + result.trainMillis + " ms");
+      results.add(result);
+    }
+    markPareto(results);
+    return results;
+  }
+
+  /**
+   * Marks the results that no other result dominates.
+   *
+   * @param results Results to compare with each other
+   */
+  static void markPareto(List<Result> results) {
+    for (Result result : results) {
+      result.pareto = results.stream().noneMatch(other -> other.dominates(result));
+    }
+  }
+
+  /**
+   * Trains a recommender with the given setting on the training split of the dataset and measures
+   * it against the held-out split.
+   *
+   * @param dataset Map of user ID to that user's item ratings
+   * @param setting Setting to evaluate
+   * @return Result of the evaluation
+   */
+  public static Result evaluate(Map<String, Map<String, Double>> dataset, Setting setting) {
+    Set<String> uniqueItems = new HashSet<>();
+    for (Map<String, Double> itemValues : dataset.values()) {
+      uniqueItems.addAll(itemValues.keySet());
+    }
+    SparseRatings ratings = SparseRatings.forItems(uniqueItems, null);
+    for (Map.Entry<String, Map<String, Double>> user : dataset.entrySet()) {
+      ratings.addRow(user.getKey(), user.getValue());
+    }
+    Pair<SparseRatings, SparseRatings> split = split(ratings, HOLDOUT_FRACTION, SPLIT_SEED);
+    SparseRatings train = split.getKey();
+    SparseRatings test = split.getValue();
+    ItemHasher hasher = setting.hashBuckets > 0 ? new ItemHasher(setting.hashBuckets) : null;
+    SparseRatings trainColumns = hasher == null ? train : hashed(train, uniqueItems, hasher);
+
+    Recommender rec =
+        new Recommender(setting.k, setting.steps, setting.alphaStart, setting.beta, null);
+    long start = System.nanoTime();
+    Pair<SimpleMatrix, SimpleMatrix> features = rec.train(trainColumns);
+    long trainMillis = (System.nanoTime() - start) / 1000000;
+    long modelBytes =
+        trainColumns.size() * (Integer.BYTES * 2L + Double.BYTES)
+            + (long) Double.BYTES * setting.k * (trainColumns.numRows() + trainColumns.numCols());
+    SimpleMatrix predictions = itemPredictions(train, hasher, features);
+    return new Result(
+        setting,
+        rmse(test, predictions),
+        precisionAtN(train, test, predictions),
+        trainMillis,
+        modelBytes);
+  }
+
+  /**
+   * Sums item ratings into the hash buckets of the hasher, keeping the same user rows.
+   *
+   * @param itemRatings Ratings with one column per item
+   * @param uniqueItems Set of all unique items
+   * @param hasher ItemHasher mapping items to buckets
+   * @return Ratings with one column per bucket
+   */
+  private static SparseRatings hashed(
+      SparseRatings itemRatings, Set<String> uniqueItems, ItemHasher hasher) {
+    List<Map<String, Double>> rowValues = new ArrayList<>();
+    for (int row = 0; row < itemRatings.numRows(); row++) {
+      rowValues.add(new HashMap<>());
+    }
+    for (int i = 0; i < itemRatings.size(); i++) {
+      rowValues
+          .get(itemRatings.getRow(i))
+          .put(itemRatings.getColumn(itemRatings.getCol(i)), itemRatings.getValue(i));
+    }
+    SparseRatings bucketRatings = SparseRatings.forItems(uniqueItems, hasher);
+    for (int row = 0; row < itemRatings.numRows(); row++) {
+      bucketRatings.addRow(itemRatings.getUserID(row), rowValues.get(row));
+    }
+    return bucketRatings;
+  }
+
+  /**
+   * Computes the predicted rating of every user for every item. Without hashing this is the product
+   * of the trained features. With hashing the predicted bucket sum is unhashed by giving each item
+   * of the bucket its share of the bucket's training ratings, so that the item the recommender
+   * would unhash a bucket to gets the largest part of the prediction.
+   *
+   * @param itemTrain Training ratings with one column per item
+   * @param hasher ItemHasher the features were trained with, or null if columns are items
+   * @param features Trained user features and column features
+   * @return Matrix of predicted ratings with the same rows and columns as itemTrain
+   */
+  private static SimpleMatrix itemPredictions(
+      SparseRatings itemTrain, ItemHasher hasher, Pair<SimpleMatrix, SimpleMatrix> features) {
+    SimpleMatrix columnPredictions = features.getKey().mult(features.getValue());
+    if (hasher == null) {
+      return columnPredictions;
+    }
+    int[] bucketOfItem = new int[itemTrain.numCols()];
+    List<String> buckets = hasher.bucketLabels();
+    for (int col = 0; col < itemTrain.numCols(); col++) {
+      bucketOfItem[col] = buckets.indexOf(hasher.bucketOf(itemTrain.getColumn(col)));
+    }
+    double[] itemTotals = new double[itemTrain.numCols()];
+    double[] bucketTotals = new double[buckets.size()];
+    for (int i = 0; i < itemTrain.size(); i++) {
+      itemTotals[itemTrain.getCol(i)] += itemTrain.getValue(i);
+      bucketTotals[bucketOfItem[itemTrain.getCol(i)]] += itemTrain.getValue(i);
+    }
+    SimpleMatrix predictions = new SimpleMatrix(itemTrain.numRows(), itemTrain.numCols());
+    for (int col = 0; col < itemTrain.numCols(); col++) {
+      int bucket = bucketOfItem[col];
+      double share = bucketTotals[bucket] > 0 ? itemTotals[col] / bucketTotals[bucket] : 0.0;
+      for (int row = 0; row < itemTrain.numRows(); row++) {
+        predictions.set(row, col, columnPredictions.get(row, bucket) * share);
+      }
+    }
+    return predictions;
+  }
+
+  /**
+   * Randomly splits ratings into a training set and a held-out set with the same users and columns.
+   *
+   * @param ratings Ratings to split
+   * @param holdoutFraction Probability that a rating is held out
+   * @param seed Random seed
+   * @return Pair of training ratings and held-out ratings
+   */
+  static Pair<SparseRatings, SparseRatings> split(
+      SparseRatings ratings, double holdoutFraction, long seed) {
+    Random random = new Random(seed);
+    SparseRatings train = ratings.emptyCopy();
+    SparseRatings test = ratings.emptyCopy();
+    for (int i = 0; i < ratings.size(); i++) {
+      SparseRatings target = random.nextDouble() < holdoutFraction ? test : train;
+      target.add(ratings.getRow(i), ratings.getCol(i), ratings.getValue(i));
+    }
+    return new Pair<>(train, test);
+  }
+
+  /** Computes the root mean squared error of item predictions on the held-out ratings. */
+  private static double rmse(SparseRatings test, SimpleMatrix predictions) {
+    if (test.size() == 0) {
+      return Double.NaN;
+    }
+    double squaredError = 0.0;
+    for (int i = 0; i < test.size(); i++) {
+      double error = test.getValue(i) - predictions.get(test.getRow(i), test.getCol(i));
+      squaredError += error * error;
+    }
+    return Math.sqrt(squaredError / test.size());
+  }
+
+  /**
+   * Computes the mean fraction of each user's top TOP_N predicted items, excluding items in the
+   * user's training ratings, that appear in the user's held-out ratings. Users without held-out
+   * ratings are skipped.
+   */
+  private static double precisionAtN(
+      SparseRatings train, SparseRatings test, SimpleMatrix predictions) {
+    Map<Integer, Set<Integer>> trainColumns = columnsByRow(train);
+    Map<Integer, Set<Integer>> testColumns = columnsByRow(test);
+    double totalPrecision = 0.0;
+    for (Map.Entry<Integer, Set<Integer>> user : testColumns.entrySet()) {
+      int row = user.getKey();
+      Set<Integer> seen = trainColumns.getOrDefault(row, new HashSet<>());
+      PriorityQueue<Pair<Integer, Double>> top =
+          new PriorityQueue<>((p1, p2) -> p1.getValue().compareTo(p2.getValue()));
+      for (int col = 0; col < train.numCols(); col++) {
+        if (seen.contains(col)) {
+          continue;
+        }
+        top.add(new Pair<>(col, predictions.get(row, col)));
+        if (top.size() > TOP_N) {
+          top.poll();
+        }
+      }
+      long hits = top.stream().filter(p -> user.getValue().contains(p.getKey())).count();
+      totalPrecision += (double) hits / TOP_N;
+    }
+    return testColumns.isEmpty() ? Double.NaN : totalPrecision / testColumns.size();
+  }
+
+  /** Groups the columns of observed ratings by row. */
+  private static Map<Integer, Set<Integer>> columnsByRow(SparseRatings ratings) {
+    Map<Integer, Set<Integer>> columns = new HashMap<>();
+    for (int i = 0; i < ratings.size(); i++) {
+      columns.computeIfAbsent(ratings.getRow(i), row -> new HashSet<>()).add(ratings.getCol(i));
+    }
+    return columns;
+  }
+
+  /**
+   * Formats results as a plain text table with Pareto-optimal settings marked by an asterisk.
+   *
+   * @param results Results to format
+   * @return Table with one line per result
+   */
+  public static String formatTable(List<Result> results) {
+    StringBuilder table = new StringBuilder();
+    table.append(
+        String.format(
+            "%-45s %8s %8s %10s %12s %s%n",
+            "setting", "rmse", "prec@" + TOP_N, "train ms", "model bytes", "pareto"));
+    for (Result result : results) {
+      table.append(
+          String.format(
+              "%-45s %8.4f %8.3f %10d %12d %s%n",
+              result.setting,
+              result.rmse,
+              result.precision,
+              result.trainMillis,
+              result.modelBytes,
+              result.pareto ? "*" : ""));
+    }
+    return table.toString();
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sps.recommendations;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class RecommenderEvaluatorTest {
+
+  /** Checks that the held-out split partitions the ratings over the same users and columns. */
+  @Test
+  public void testSplit() throws Exception {
+    Map<String, Map<String, Double>> dataset =
+        RecommenderEvaluator.syntheticDataset(20, 10, 2, 0.5, 1);
+    Set<String> items = new HashSet<>();
+    for (int i = 0; i < 10; i++) {
+      items.add("item" + i);
+    }
+    SparseRatings ratings = SparseRatings.forItems(items, null);
+    for (Map.Entry<String, Map<String, Double>> user : dataset.entrySet()) {
+      ratings.addRow(user.getKey(), user.getValue());
+    }
+    Pair<SparseRatings, SparseRatings> split = RecommenderEvaluator.split(ratings, 0.2, 1);
+    assertEquals(ratings.size(), split.getKey().size() + split.getValue().size());
+    assertEquals(20, split.getValue().numRows());
+    assertEquals(10, split.getValue().numCols());
+  }
+
+  /** Checks that hashed and per-item settings are scored on the same held-out items. */
+  @Test
+  public void testEvaluateAll() throws Exception {
+    List<RecommenderEvaluator.Setting> settings =
+        Arrays.asList(
+            new RecommenderEvaluator.Setting(2, 50, 0.1, 0.02, 0),
+            new RecommenderEvaluator.Setting(2, 50, 0.1, 0.02, 4));
+    List<RecommenderEvaluator.Result> results =
+        RecommenderEvaluator.evaluateAll(
+            RecommenderEvaluator.loadSeedDataset("/dbEntities/groceri.txt"), settings);
+    assertEquals(2, results.size());
+    for (RecommenderEvaluator.Result result : results) {
+      assertTrue(result.getModelBytes() > 0);
+      assertTrue(result.getPrecision() >= 0.0 && result.getPrecision() <= 1.0);
+      assertFalse(Double.isNaN(result.getRmse()));
+    }
+    // Four buckets hold fewer ratings than one column per item.
+    assertTrue(results.get(1).getModelBytes() < results.get(0).getModelBytes());
+  }
+
+  /** Checks that only results that no other result dominates are on the Pareto front. */
+  @Test
+  public void testMarkPareto() throws Exception {
+    RecommenderEvaluator.Setting setting = new RecommenderEvaluator.Setting(2, 50, 0.1, 0.02, 0);
+    RecommenderEvaluator.Result best = new RecommenderEvaluator.Result(setting, 0.1, 0.5, 10, 100);
+    RecommenderEvaluator.Result dominated =
+        new RecommenderEvaluator.Result(setting, 0.2, 0.4, 20, 200);
+    RecommenderEvaluator.Result slowButAccurate =
+        new RecommenderEvaluator.Result(setting, 0.05, 0.5, 30, 100);
+    List<RecommenderEvaluator.Result> results = Arrays.asList(best, dominated, slowButAccurate);
+
+    RecommenderEvaluator.markPareto(results);
+
+    assertTrue(best.dominates(dominated));
+    assertFalse(best.dominates(slowButAccurate));
+    assertFalse(slowButAccurate.dominates(best));
+    assertTrue(best.isPareto());
+    assertFalse(dominated.isPareto());
+    assertTrue(slowButAccurate.isPareto());
+  }
+}
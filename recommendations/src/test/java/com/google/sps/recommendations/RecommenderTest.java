@@ -90,6 +90,21 @@ public final class RecommenderTest {
     }
   }
 
+  /** Checks that only observed values are stored as ratings and round trip to the same matrix. */
+  @Test
+  public void testSparseRatings() throws Exception {
+    SparseRatings ratings = SparseRatings.fromMatrix(dataMatrix);
+    assertEquals(13, ratings.size());
+    assertEquals(5, ratings.numRows());
+    assertEquals(4, ratings.numCols());
+    SimpleMatrix matrix = ratings.toMatrix();
+    for (int i = 0; i < 5; i++) {
+      for (int j = 0; j < 4; j++) {
+        assertEquals(dataMatrix.get(i, j), matrix.get(i, j), 0.001);
+      }
+    }
+  }
+
   /** Create 5 user database entries and check that matrix is properly created from the data. */
   @Test
   public void testMatrixCreation() throws Exception {
@@ -182,4 +197,46 @@ public final class RecommenderTest {
       }
     }
   }
+
+  /** Checks that hashed items are summed into their bucket columns of the data matrix. */
+  @Test
+  public void testHashedMatrixCreation() throws Exception {
+    ItemHasher hasher = new ItemHasher(2);
+    List<String> items = Arrays.asList("appl", "banana", "carrot", "donut");
+    Entity user1 = new Entity("Frac-groceri", "1");
+    user1.setProperty("userID", "1");
+    Entity user2 = new Entity("Frac-groceri", "2");
+    user2.setProperty("userID", "2");
+    double[][] expected = new double[2][2];
+    for (int i = 0; i < items.size(); i++) {
+      int bucket = Integer.parseInt(hasher.bucketOf(items.get(i)).substring(ItemHasher.BUCKET_PREFIX.length()));
+      user1.setProperty(items.get(i), 1.0);
+      expected[0][bucket] += 1.0;
+      user2.setProperty(items.get(i), 0.1 * i);
+      expected[1][bucket] += 0.1 * i;
+    }
+
+    Recommender rec = new Recommender(2, hasher);
+    SimpleMatrix matrix =
+        rec.createMatrixFromDatabaseEntities(
+            Arrays.asList(user1, user2), new HashSet<String>(items));
+    assertEquals(2, matrix.numCols());
+    for (int i = 0; i < 2; i++) {
+      for (int j = 0; j < 2; j++) {
+        assertEquals(expected[i][j], matrix.get(i, j), 0.001);
+      }
+    }
+  }
+
+  /** Checks that stemmed items are never mistaken for bucket labels. */
+  @Test
+  public void testItemsAreNotBuckets() {
+    ItemHasher hasher = new ItemHasher(8);
+    for (String bucket : hasher.bucketLabels()) {
+      assertTrue(ItemHasher.isBucket(bucket));
+    }
+    assertFalse(ItemHasher.isBucket(StemUtils.stemmed("bucket-3")));
+    assertFalse(ItemHasher.isBucket(StemUtils.stemmed("hash bucket 3")));
+    assertFalse(ItemHasher.isBucket(StemUtils.stemmed("bucket list")));
+  }
 }
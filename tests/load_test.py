@@ -0,0 +1,100 @@
+#! /usr/bin/env python3
+
+import argparse
+import concurrent.futures
+import time
+import urllib.parse
+import urllib.request
+
+
+# Queries whose replies block on an external API rather than being answered by the local intent
+# matcher or the detect-intent cache: books.search calls the Books API, workout.find calls
+# YouTube, maps.find calls Places, and the last template matches no training phrase, so
+# Dialogflow itself answers it. Each template is filled with a different pair of words per
+# request, so that the first 400 requests of a run are all distinct and miss the caches.
+QUERIES = [
+    ("show me %s books about %s",
+     ["new", "popular", "free", "online", "recent", "classic", "short", "illustrated",
+      "funny", "old"],
+     ["hunting", "gardening", "sailing", "chess", "volcanoes", "jazz", "bees", "castles",
+      "robots", "deserts"]),
+    ("find some %d minute %s workouts",
+     [10, 15, 20, 25, 30, 35, 40, 45, 50, 60],
+     ["yoga", "pilates", "cardio", "dumbbell", "stretching", "kickboxing", "core", "barre",
+      "hiit", "mobility"]),
+    ("find some %s in %s",
+     ["cafes", "bakeries", "museums", "parks", "bookstores", "pizza places", "zoos",
+      "libraries", "bike shops", "markets"],
+     ["Seattle", "Boston", "Denver", "Austin", "Chicago", "Portland", "Atlanta", "Miami",
+      "Phoenix", "Detroit"]),
+    ("tell me a story about %s and %s",
+     ["dragons", "pirates", "owls", "comets", "wizards", "lighthouses", "foxes", "glaciers",
+      "kites", "trains"],
+     ["giants", "robots", "whales", "clocks", "knights", "moons", "otters", "storms",
+      "lanterns", "ships"]),
+]
+
+
+def Query(index):
+  """Returns the query text of the request with the given index."""
+  template, firsts, seconds = QUERIES[index % len(QUERIES)]
+  round = index // len(QUERIES)
+  return template % (firsts[round % len(firsts)],
+                     seconds[round // len(firsts) % len(seconds)])
+
+
+def PostQuery(url, query, index):
+  data = urllib.parse.urlencode({
+      "request-input": query,
+      "session-id": "loadtest-%d" % index,
+      "language": "English",
+  }).encode()
+  start = time.monotonic()
+  try:
+    with urllib.request.urlopen(url, data=data, timeout=60) as response:
+      response.read()
+      status = response.getcode()
+  except urllib.error.HTTPError as exception:
+    status = exception.getcode()
+  except OSError:
+    status = 0
+  return status, time.monotonic() - start
+
+
+def Percentile(values, quantile):
+  index = min(int(quantile * len(values)), len(values) - 1)
+  return sorted(values)[index]
+
+
+def RunLoadTest(args):
+  url = args.host.rstrip("/") + "/text-input"
+  statuses = {}
+  latencies = []
+  start = time.monotonic()
+  with concurrent.futures.ThreadPoolExecutor(max_workers=args.c) as executor:
+    futures = [executor.submit(PostQuery, url, Query(i), i) for i in range(args.n)]
+    for future in concurrent.futures.as_completed(futures):
+      status, latency = future.result()
+      statuses[status] = statuses.get(status, 0) + 1
+      latencies.append(latency)
+  elapsed = time.monotonic() - start
+
+  print("Requests:", args.n, "Concurrency:", args.c)
+  print("Status counts:", statuses)
+  print("Throughput: %.1f requests/s" % (args.n / elapsed))
+  for quantile in [0.5, 0.95, 0.99]:
+    print("p%d: %.0f ms" % (quantile * 100, Percentile(latencies, quantile) * 1000))
+
+
+if __name__ == "__main__":
+  parser = argparse.ArgumentParser(
+      description='Send concurrent text queries to the assistant and report '
+      'throughput and latency, to compare deployments.')
+  parser.add_argument('--host', default='http://localhost:8080',
+      help='base URL of the portfolio app')
+  parser.add_argument('-n', type=int, default=200,
+      help='total number of requests')
+  parser.add_argument('-c', type=int, default=50,
+      help='number of concurrent requests')
+  args = parser.parse_args()
+  RunLoadTest(args)